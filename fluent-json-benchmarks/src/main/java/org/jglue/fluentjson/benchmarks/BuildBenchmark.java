@@ -0,0 +1,135 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jglue.fluentjson.JsonArrayBuilder;
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.jglue.fluentjson.JsonObjectBuilder;
+import org.jglue.fluentjson.JsonRowsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Building objects of various sizes through the fluent API.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuildBenchmark {
+
+	/**
+	 * Small, medium and large objects.
+	 */
+	@Param({ "10", "100", "1000" })
+	public int fields;
+
+	private String[] keys;
+
+	@Setup
+	public void setup() {
+		keys = new String[fields];
+		for (int i = 0; i < fields; i++) {
+			keys[i] = "field" + i;
+		}
+	}
+
+	@Benchmark
+	public JsonObjectBuilder<?, JsonObject> buildObject() {
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject();
+		for (int i = 0; i < fields; i++) {
+			switch (i & 3) {
+			case 0:
+				builder.add(keys[i], "value");
+				break;
+			case 1:
+				builder.add(keys[i], i);
+				break;
+			case 2:
+				builder.add(keys[i], i * 0.5d);
+				break;
+			default:
+				builder.add(keys[i], (i & 4) == 0);
+			}
+		}
+		return builder;
+	}
+
+	@Benchmark
+	public JsonObjectBuilder<?, JsonObject> buildNested() {
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject();
+		for (int i = 0; i < fields; i += 10) {
+			builder.addObject(keys[i])
+				.add("id", i)
+				.add("name", "name")
+				.addArray("tags")
+					.add("a")
+					.add("b")
+					.addObject()
+						.add("nested", true)
+						.end()
+					.end()
+				.addObject("child")
+					.addArray("values")
+						.add(1)
+						.add(2)
+						.add(3)
+						.end()
+					.end()
+				.end();
+		}
+		return builder;
+	}
+
+	@Benchmark
+	public JsonArrayBuilder<?, JsonArray> buildRowObjects() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < fields; i++) {
+			builder.addObject().add("id", i).add("price", i * 0.5d).add("active", true).add("name", "name").end();
+		}
+		return builder;
+	}
+
+	@Benchmark
+	public JsonArrayBuilder<?, JsonArray> buildRows() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		JsonRowsBuilder<?, JsonArray> rows = builder.addRows("id", "price", "active", "name");
+		for (int i = 0; i < fields; i++) {
+			rows.add(i).add(i * 0.5d).add(true).add("name");
+		}
+		rows.end();
+		return builder;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.benchmarks;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.jglue.fluentjson.DatePrecision;
+import org.jglue.fluentjson.JsonArrayBuilder;
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Adding and serializing arrays of timestamps a second apart, as found in
+ * event logs. Dates are formatted when written so each benchmark does both.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateBenchmark {
+
+	private static final int SIZE = 1000;
+
+	@Param({ "MINUTES", "MILLISECONDS" })
+	public DatePrecision precision;
+
+	private Date[] dates;
+	private Instant[] instants;
+	private LocalDateTime[] localDateTimes;
+	private OffsetDateTime[] offsetDateTimes;
+
+	@Setup
+	public void setup() {
+		JsonBuilderFactory.setDatePrecision(precision);
+		dates = new Date[SIZE];
+		instants = new Instant[SIZE];
+		localDateTimes = new LocalDateTime[SIZE];
+		offsetDateTimes = new OffsetDateTime[SIZE];
+		long start = 1500000000000L;
+		for (int i = 0; i < SIZE; i++) {
+			long millis = start + i * 1001L;
+			dates[i] = new Date(millis);
+			instants[i] = Instant.ofEpochMilli(millis);
+			localDateTimes[i] = LocalDateTime.ofInstant(instants[i], ZoneOffset.UTC);
+			offsetDateTimes[i] = OffsetDateTime.ofInstant(instants[i], ZoneOffset.ofHours(2));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		JsonBuilderFactory.setDatePrecision(DatePrecision.MINUTES);
+	}
+
+	@Benchmark
+	public String dates() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		for (Date date : dates) {
+			builder.add(date);
+		}
+		return builder.toString();
+	}
+
+	@Benchmark
+	public String instants() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		for (Instant instant : instants) {
+			builder.add(instant);
+		}
+		return builder.toString();
+	}
+
+	@Benchmark
+	public String localDateTimes() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		for (LocalDateTime dateTime : localDateTimes) {
+			builder.add(dateTime);
+		}
+		return builder.toString();
+	}
+
+	@Benchmark
+	public String offsetDateTimes() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		for (OffsetDateTime dateTime : offsetDateTimes) {
+			builder.add(dateTime);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jglue.fluentjson.JsonArrayBuilder;
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.jglue.fluentjson.JsonObjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Serializing flat-wide and deep-narrow documents with the same number of
+ * values.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DepthBenchmark {
+
+	/**
+	 * Shallow enough for the default thread stack size with a recursive
+	 * serializer.
+	 */
+	private static final int VALUES = 2000;
+
+	private JsonArrayBuilder<?, ?> wide;
+
+	private JsonObjectBuilder<?, JsonObject> deep;
+
+	private ByteArrayOutputStream bytes;
+
+	@Setup
+	public void setup() {
+		wide = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < VALUES; i++) {
+			wide.add(i);
+		}
+		deep = JsonBuilderFactory.buildObject();
+		JsonObjectBuilder<?, ?> current = deep;
+		for (int i = 0; i < VALUES; i++) {
+			current = current.add("v", i).addObject("child");
+		}
+		bytes = new ByteArrayOutputStream();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeWide() throws IOException {
+		bytes.reset();
+		wide.write(bytes);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeDeep() throws IOException {
+		bytes.reset();
+		deep.write(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jglue.fluentjson.JsonArrayBuilder;
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing documents that share a large fragment, frozen or not.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FragmentBenchmark {
+
+	private JsonArrayBuilder<?, ?> document;
+
+	private JsonArrayBuilder<?, ?> frozenDocument;
+
+	private ByteArrayOutputStream bytes;
+
+	private static JsonArrayBuilder<?, ?> countries() {
+		JsonArrayBuilder<?, ?> countries = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < 200; i++) {
+			countries.addObject()
+				.add("code", "C" + i)
+				.add("name", "Country \"" + i + "\"")
+				.add("population", i * 100000L)
+				.end();
+		}
+		return countries;
+	}
+
+	private static JsonArrayBuilder<?, ?> document(JsonArrayBuilder<?, ?> countries) {
+		JsonArrayBuilder<?, ?> document = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < 10; i++) {
+			document.addObject()
+				.add("id", i)
+				.add("countries", countries)
+				.end();
+		}
+		return document;
+	}
+
+	@Setup
+	public void setup() {
+		document = document(countries());
+		frozenDocument = document(countries().freeze());
+		bytes = new ByteArrayOutputStream();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream write() throws IOException {
+		bytes.reset();
+		document.write(bytes);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeFrozen() throws IOException {
+		bytes.reset();
+		frozenDocument.write(bytes);
+		return bytes;
+	}
+
+	@Benchmark
+	public String writeToString() {
+		return document.toString();
+	}
+
+	@Benchmark
+	public String writeFrozenToString() {
+		return frozenDocument.toString();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.jglue.fluentjson.AbstractMapper;
+import org.jglue.fluentjson.JsonArrayBuilder;
+import org.jglue.fluentjson.JsonBuilder;
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.jglue.fluentjson.Mapper;
+import org.jglue.fluentjson.StreamingMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Mapping large collections of domain objects in to arrays.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+
+	public static class Row {
+		final long id;
+		final String name;
+		final double score;
+		final boolean active;
+
+		Row(long id) {
+			this.id = id;
+			this.name = "row" + id;
+			this.score = id * 0.25d;
+			this.active = (id & 1) == 0;
+		}
+	}
+
+	static final Mapper<Row> MAPPER = new AbstractMapper<Row>() {
+
+		@Override
+		public JsonBuilder map(Row o) {
+			return buildObject().add("id", o.id).add("name", o.name).add("score", o.score).add("active", o.active);
+		}
+	};
+
+	static final StreamingMapper<Row> STREAMING_MAPPER = new StreamingMapper<Row>() {
+
+		@Override
+		public void map(Row o, JsonArrayBuilder<?, ?> out) {
+			out.addObject().add("id", o.id).add("name", o.name).add("score", o.score).add("active", o.active).end();
+		}
+	};
+
+	@Param({ "10000", "100000", "1000000" })
+	public int size;
+
+	private List<Row> rows;
+
+	private List<Number> numbers;
+
+	@Setup
+	public void setup() {
+		rows = new ArrayList<Row>(size);
+		numbers = new ArrayList<Number>(size);
+		for (int i = 0; i < size; i++) {
+			rows.add(new Row(i));
+			numbers.add(i);
+		}
+	}
+
+	@Benchmark
+	public JsonArrayBuilder<?, JsonArray> buildArray() {
+		return JsonBuilderFactory.buildArray(MAPPER, rows);
+	}
+
+	@Benchmark
+	public JsonArrayBuilder<?, JsonArray> buildArrayStreaming() {
+		return JsonBuilderFactory.buildArray(STREAMING_MAPPER, rows);
+	}
+
+	@Benchmark
+	public JsonArrayBuilder<?, JsonArray> buildArrayParallel() {
+		return JsonBuilderFactory.buildArray(MAPPER, rows, ForkJoinPool.commonPool());
+	}
+
+	@Benchmark
+	public JsonArrayBuilder<?, JsonArray> buildArrayOfNumbers() {
+		return JsonBuilderFactory.buildArray(Mapper.NUMBER, numbers);
+	}
+}
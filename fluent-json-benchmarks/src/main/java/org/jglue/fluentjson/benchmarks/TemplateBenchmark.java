@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.jglue.fluentjson.JsonObjectBuilder;
+import org.jglue.fluentjson.JsonTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Writing a fixed-shape response with the fluent API and with a template.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+	private JsonTemplate template;
+
+	private int id;
+
+	private int name;
+
+	private int score;
+
+	private int count;
+
+	private ByteArrayOutputStream bytes;
+
+	private static JsonObjectBuilder<?, JsonObject> response(long id, String name, double score) {
+		return JsonBuilderFactory.buildObject()
+			.add("status", "ok")
+			.addObject("result")
+				.add("id", id)
+				.add("name", name)
+				.add("score", score)
+				.addObject("meta")
+					.add("version", 3)
+					.add("cached", false)
+					.end()
+				.end();
+	}
+
+	@Setup
+	public void setup() {
+		template = JsonTemplate.of(response(0, "", 0));
+		id = template.slot("result", "id");
+		name = template.slot("result", "name");
+		score = template.slot("result", "score");
+		bytes = new ByteArrayOutputStream();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream builder() throws IOException {
+		int i = count++;
+		bytes.reset();
+		response(i, "user", i * 0.5d).write(bytes);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream template() throws IOException {
+		int i = count++;
+		bytes.reset();
+		template.newValues().set(id, i).set(name, "user").set(score, i * 0.5d).write(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.jglue.fluentjson.Compression;
+import org.jglue.fluentjson.Format;
+import org.jglue.fluentjson.JsonArrayBuilder;
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.jglue.fluentjson.JsonKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Serializing a prebuilt document.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+	private static final JsonKey ID = JsonKey.of("id");
+	private static final JsonKey NAME = JsonKey.of("name");
+	private static final JsonKey SCORE = JsonKey.of("score");
+	private static final JsonKey ACTIVE = JsonKey.of("active");
+	private static final JsonKey TAGS = JsonKey.of("tags");
+
+	@Param({ "100", "10000" })
+	public int rows;
+
+	private JsonArrayBuilder<?, JsonArray> document;
+
+	private JsonArrayBuilder<?, JsonArray> keyedDocument;
+
+	private long[] samples;
+
+	private StringWriter writer;
+
+	private ByteArrayOutputStream bytes;
+
+	@Setup
+	public void setup() {
+		document = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < rows; i++) {
+			document.addObject()
+				.add("id", i)
+				.add("name", "row \"" + i + "\"")
+				.add("score", i * 0.25d)
+				.add("active", (i & 1) == 0)
+				.addArray("tags")
+					.add("a")
+					.add("b")
+					.end()
+				.end();
+		}
+		keyedDocument = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < rows; i++) {
+			keyedDocument.addObject()
+				.add(ID, i)
+				.add(NAME, "row \"" + i + "\"")
+				.add(SCORE, i * 0.25d)
+				.add(ACTIVE, (i & 1) == 0)
+				.addArray(TAGS)
+					.add("a")
+					.add("b")
+					.end()
+				.end();
+		}
+		samples = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			samples[i] = 1400000000000L + i * 997L;
+		}
+		writer = new StringWriter();
+		bytes = new ByteArrayOutputStream();
+	}
+
+	@Benchmark
+	public StringWriter write() throws IOException {
+		writer.getBuffer().setLength(0);
+		document.write(writer);
+		return writer;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeUtf8() throws IOException {
+		bytes.reset();
+		document.write(bytes);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeUtf8Keys() throws IOException {
+		bytes.reset();
+		keyedDocument.write(bytes);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeCbor() throws IOException {
+		bytes.reset();
+		document.write(bytes, Format.CBOR);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeSmile() throws IOException {
+		bytes.reset();
+		document.write(bytes, Format.SMILE);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeMessagePack() throws IOException {
+		bytes.reset();
+		document.write(bytes, Format.MESSAGE_PACK);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeGzipStreams() throws IOException {
+		bytes.reset();
+		Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8);
+		document.write(out);
+		out.close();
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeGzip() throws IOException {
+		bytes.reset();
+		document.write(bytes, Compression.gzip());
+		return bytes;
+	}
+
+	@Benchmark
+	public String writeToString() {
+		return document.toString();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeSampleElements() throws IOException {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		for (long sample : samples) {
+			builder.add(sample);
+		}
+		bytes.reset();
+		builder.write(bytes);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeSampleArray() throws IOException {
+		bytes.reset();
+		JsonBuilderFactory.buildArray().add(samples).write(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,467 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@link org.jglue.fluentjson.StreamingMapper} for each type annotated
+ * with {@link org.jglue.fluentjson.JsonMapped}. The generated code calls the
+ * builder's add methods directly, so nothing is looked up by reflection at
+ * runtime.
+ *
+ * @author Bryn Cooke
+ *
+ */
+public class JsonMappedProcessor extends AbstractProcessor {
+
+	private static final String JSON_MAPPED = "org.jglue.fluentjson.JsonMapped";
+
+	/**
+	 * Types that the builders have an add method for.
+	 */
+	private static final String[] SIMPLE_TYPES = { "java.lang.String", "java.lang.Number", "java.lang.Boolean",
+			"java.lang.Character", "java.util.Date", "java.time.temporal.Temporal", "org.jglue.fluentjson.JsonBuilder" };
+
+	private enum Kind {
+		SIMPLE, ENUM, MAPPED
+	}
+
+	/**
+	 * A property of a mapped type.
+	 */
+	private static final class Property {
+		private final String key;
+		private final String accessor;
+		private final TypeMirror type;
+
+		Property(String key, String accessor, TypeMirror type) {
+			this.key = key;
+			this.accessor = accessor;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Thrown when a type can't be mapped, to report it against the element.
+	 */
+	private static final class UnsupportedException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedException(String message) {
+			super(message);
+		}
+	}
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(JSON_MAPPED);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement annotation = processingEnv.getElementUtils().getTypeElement(JSON_MAPPED);
+		if (annotation == null) {
+			return false;
+		}
+		for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+			try {
+				generate(checkMappable(element));
+			} catch (UnsupportedException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), element);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"Couldn't write mapper: " + e.getMessage(), element);
+			}
+		}
+		return true;
+	}
+
+	private static boolean isRecord(Element element) {
+		// ElementKind.RECORD only exists from Java 16.
+		return element.getKind().name().equals("RECORD");
+	}
+
+	private TypeElement checkMappable(Element element) throws UnsupportedException {
+		if (element.getKind() != ElementKind.CLASS && !isRecord(element)) {
+			throw new UnsupportedException("@JsonMapped can only be used on classes and records");
+		}
+		TypeElement type = (TypeElement) element;
+		if (!type.getTypeParameters().isEmpty()) {
+			throw new UnsupportedException("@JsonMapped types can't be generic");
+		}
+		for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			TypeElement enclosing = (TypeElement) e;
+			if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+				throw new UnsupportedException("@JsonMapped types can't be private");
+			}
+			NestingKind nesting = enclosing.getNestingKind();
+			if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS
+					|| nesting == NestingKind.MEMBER && enclosing.getKind() == ElementKind.CLASS
+							&& !enclosing.getModifiers().contains(Modifier.STATIC)) {
+				throw new UnsupportedException("@JsonMapped types must be top level or static nested types");
+			}
+		}
+		return type;
+	}
+
+	/**
+	 * @return the name of the mapper for a type, with nested type names joined
+	 *         by underscores.
+	 */
+	private String mapperName(TypeElement type) {
+		String name = type.getSimpleName().toString();
+		for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+			name = e.getSimpleName() + "_" + name;
+		}
+		return name + "Mapper";
+	}
+
+	private String qualifiedMapperName(TypeElement type) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		String name = mapperName(type);
+		return pkg.isUnnamed() ? name : pkg.getQualifiedName() + "." + name;
+	}
+
+	/**
+	 * @return the properties of the type in declaration order, superclass
+	 *         properties first.
+	 */
+	private Map<String, Property> properties(TypeElement type) {
+		Map<String, Property> properties = new LinkedHashMap<String, Property>();
+		collect((DeclaredType) type.asType(), type, properties);
+		return properties;
+	}
+
+	private void collect(DeclaredType mapped, TypeElement type, Map<String, Property> properties) {
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() == TypeKind.DECLARED) {
+			TypeElement parent = (TypeElement) ((DeclaredType) superclass).asElement();
+			String name = parent.getQualifiedName().toString();
+			if (!name.equals("java.lang.Object") && !name.equals("java.lang.Record")) {
+				collect(mapped, parent, properties);
+			}
+		}
+		boolean record = isRecord(type);
+		Set<String> fields = new HashSet<String>();
+		for (Element member : type.getEnclosedElements()) {
+			if (member.getKind() == ElementKind.FIELD && !member.getModifiers().contains(Modifier.STATIC)) {
+				fields.add(member.getSimpleName().toString());
+			}
+		}
+		for (Element member : type.getEnclosedElements()) {
+			Set<Modifier> modifiers = member.getModifiers();
+			if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+				continue;
+			}
+			String name = member.getSimpleName().toString();
+			if (member.getKind() == ElementKind.FIELD) {
+				TypeMirror fieldType = processingEnv.getTypeUtils().asMemberOf(mapped, member);
+				properties.put(name, new Property(name, name, fieldType));
+			} else if (member.getKind() == ElementKind.METHOD) {
+				ExecutableElement method = (ExecutableElement) member;
+				if (!method.getParameters().isEmpty() || !method.getTypeParameters().isEmpty()
+						|| method.getReturnType().getKind() == TypeKind.VOID) {
+					continue;
+				}
+				// Resolves type variables of generic superclasses.
+				TypeMirror returnType = ((ExecutableType) processingEnv.getTypeUtils().asMemberOf(mapped, method))
+						.getReturnType();
+				String key = record ? (fields.contains(name) ? name : null) : getterProperty(name, returnType);
+				if (key != null) {
+					properties.put(key, new Property(key, name + "()", returnType));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the bean property name for a getter, or null if the method isn't
+	 *         a getter.
+	 */
+	private String getterProperty(String method, TypeMirror returnType) {
+		String name;
+		if (method.startsWith("get") && method.length() > 3 && !method.equals("getClass")) {
+			name = method.substring(3);
+		} else if (method.startsWith("is") && method.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN) {
+			name = method.substring(2);
+		} else {
+			return null;
+		}
+		if (!Character.isUpperCase(name.charAt(0))) {
+			return null;
+		}
+		// As java.beans.Introspector does, getURL is the property URL.
+		if (name.length() > 1 && Character.isUpperCase(name.charAt(1))) {
+			return name;
+		}
+		return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private Kind kind(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return Kind.SIMPLE;
+		}
+		if (type.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+		if (element.getKind() == ElementKind.ENUM) {
+			return Kind.ENUM;
+		}
+		if (isMapped(element)) {
+			return Kind.MAPPED;
+		}
+		for (String simple : SIMPLE_TYPES) {
+			TypeElement simpleType = processingEnv.getElementUtils().getTypeElement(simple);
+			if (simpleType != null
+					&& processingEnv.getTypeUtils().isAssignable(type,
+							processingEnv.getTypeUtils().erasure(simpleType.asType()))) {
+				return Kind.SIMPLE;
+			}
+		}
+		return null;
+	}
+
+	private boolean isMapped(Element element) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(JSON_MAPPED)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the element type of an array or iterable, or null if the type
+	 *         is neither.
+	 */
+	private TypeMirror elementType(TypeMirror type) {
+		if (type.getKind() == TypeKind.ARRAY) {
+			return ((ArrayType) type).getComponentType();
+		}
+		if (type.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		DeclaredType declared = (DeclaredType) type;
+		if (((TypeElement) declared.asElement()).getQualifiedName().contentEquals("java.lang.Iterable")) {
+			if (declared.getTypeArguments().isEmpty()) {
+				return null;
+			}
+			TypeMirror element = declared.getTypeArguments().get(0);
+			if (element.getKind() == TypeKind.WILDCARD) {
+				element = ((WildcardType) element).getExtendsBound();
+			}
+			return element;
+		}
+		for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type)) {
+			TypeMirror element = elementType(supertype);
+			if (element != null) {
+				return element;
+			}
+		}
+		return null;
+	}
+
+	private void generate(TypeElement type) throws UnsupportedException, IOException {
+		String typeName = type.getQualifiedName().toString();
+		String mapperName = mapperName(type);
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+
+		StringBuilder body = new StringBuilder();
+		int var = 0;
+		for (Property property : properties(type).values()) {
+			String key = literal(property.key);
+			String value = "o." + property.accessor;
+			Kind kind = kind(property.type);
+			if (kind == Kind.SIMPLE) {
+				body.append("\t\tout.add(").append(key).append(", ").append(value).append(");\n");
+				continue;
+			}
+			int index = var++;
+			String v = "v" + index;
+			body.append("\t\t").append(property.type).append(' ').append(v).append(" = ").append(value).append(";\n");
+			if (kind != null) {
+				objectMember(body, kind, property.type, key, v);
+				continue;
+			}
+			TypeMirror elementType = elementType(property.type);
+			Kind elementKind = elementType == null ? null : kind(elementType);
+			if (elementKind == null) {
+				throw new UnsupportedException("Property " + property.key + " of type " + property.type
+						+ " can't be mapped");
+			}
+			String a = "a" + index;
+			String e = "e" + index;
+			body.append("\t\tif (").append(v).append(" == null) {\n");
+			body.append("\t\t\tout.addNull(").append(key).append(");\n");
+			body.append("\t\t} else {\n");
+			body.append("\t\t\torg.jglue.fluentjson.JsonArrayBuilder<?, ?> ").append(a).append(" = out.addArray(")
+					.append(key).append(");\n");
+			body.append("\t\t\tfor (").append(elementType).append(' ').append(e).append(" : ").append(v)
+					.append(") {\n");
+			arrayElement(body, elementKind, elementType, a, e);
+			body.append("\t\t\t}\n");
+			body.append("\t\t\t").append(a).append(".end();\n");
+			body.append("\t\t}\n");
+		}
+
+		String qualifiedName = pkg.isUnnamed() ? mapperName : pkg.getQualifiedName() + "." + mapperName;
+		Writer out = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+		try {
+			if (!pkg.isUnnamed()) {
+				out.write("package " + pkg.getQualifiedName() + ";\n\n");
+			}
+			out.write("/**\n");
+			out.write(" * Maps {@link " + typeName + "} to json.\n");
+			out.write(" * Generated by " + getClass().getName() + ", do not edit.\n");
+			out.write(" */\n");
+			out.write("public final class " + mapperName + " implements org.jglue.fluentjson.StreamingMapper<" + typeName
+					+ "> {\n\n");
+			out.write("\tpublic static final " + mapperName + " INSTANCE = new " + mapperName + "();\n\n");
+			out.write("\t@Override\n");
+			out.write("\tpublic org.jglue.fluentjson.JsonBuilder map(" + typeName + " o) {\n");
+			out.write("\t\tif (o == null) {\n");
+			out.write("\t\t\treturn org.jglue.fluentjson.JsonBuilderFactory.buildPrimitive((String) null);\n");
+			out.write("\t\t}\n");
+			out.write("\t\torg.jglue.fluentjson.JsonObjectBuilder<?, com.google.gson.JsonObject> out = "
+					+ "org.jglue.fluentjson.JsonBuilderFactory.buildObject();\n");
+			out.write("\t\taddTo(o, out);\n");
+			out.write("\t\treturn out;\n");
+			out.write("\t}\n\n");
+			out.write("\t@Override\n");
+			out.write("\tpublic void map(" + typeName + " o, org.jglue.fluentjson.JsonArrayBuilder<?, ?> out) {\n");
+			out.write("\t\tif (o == null) {\n");
+			out.write("\t\t\tout.addNull();\n");
+			out.write("\t\t} else {\n");
+			out.write("\t\t\torg.jglue.fluentjson.JsonObjectBuilder<?, ?> object = out.addObject();\n");
+			out.write("\t\t\taddTo(o, object);\n");
+			out.write("\t\t\tobject.end();\n");
+			out.write("\t\t}\n");
+			out.write("\t}\n\n");
+			out.write("\t/**\n");
+			out.write("\t * Add the properties of the object to an object builder, which may be streaming.\n");
+			out.write("\t */\n");
+			out.write("\tpublic void addTo(" + typeName + " o, org.jglue.fluentjson.JsonObjectBuilder<?, ?> out) {\n");
+			out.write(body.toString());
+			out.write("\t}\n\n");
+			out.write("\t/**\n");
+			out.write("\t * Write the object to a writer without building a tree. The writer isn't flushed.\n");
+			out.write("\t */\n");
+			out.write("\tpublic void write(" + typeName + " o, com.google.gson.stream.JsonWriter out) "
+					+ "throws java.io.IOException {\n");
+			out.write("\t\tif (o == null) {\n");
+			out.write("\t\t\tout.nullValue();\n");
+			out.write("\t\t\treturn;\n");
+			out.write("\t\t}\n");
+			out.write("\t\ttry {\n");
+			out.write("\t\t\torg.jglue.fluentjson.JsonObjectBuilder<?, ?> object = "
+					+ "org.jglue.fluentjson.JsonBuilderFactory.streamObject(out, false);\n");
+			out.write("\t\t\taddTo(o, object);\n");
+			out.write("\t\t\tobject.end();\n");
+			out.write("\t\t} catch (java.io.UncheckedIOException e) {\n");
+			out.write("\t\t\tthrow e.getCause();\n");
+			out.write("\t\t}\n");
+			out.write("\t}\n");
+			out.write("}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void objectMember(StringBuilder body, Kind kind, TypeMirror type, String key, String v) {
+		if (kind == Kind.ENUM) {
+			body.append("\t\tout.add(").append(key).append(", ").append(v).append(" == null ? null : ").append(v)
+					.append(".name());\n");
+			return;
+		}
+		body.append("\t\tif (").append(v).append(" == null) {\n");
+		body.append("\t\t\tout.addNull(").append(key).append(");\n");
+		body.append("\t\t} else {\n");
+		body.append("\t\t\torg.jglue.fluentjson.JsonObjectBuilder<?, ?> b = out.addObject(").append(key)
+				.append(");\n");
+		body.append("\t\t\t").append(mapperFor(type)).append(".INSTANCE.addTo(").append(v).append(", b);\n");
+		body.append("\t\t\tb.end();\n");
+		body.append("\t\t}\n");
+	}
+
+	private void arrayElement(StringBuilder body, Kind kind, TypeMirror type, String a, String e) {
+		switch (kind) {
+		case SIMPLE:
+			body.append("\t\t\t\t").append(a).append(".add(").append(e).append(");\n");
+			break;
+		case ENUM:
+			body.append("\t\t\t\t").append(a).append(".add(").append(e).append(" == null ? null : ").append(e)
+					.append(".name());\n");
+			break;
+		default:
+			body.append("\t\t\t\t").append(mapperFor(type)).append(".INSTANCE.map(").append(e).append(", ")
+					.append(a).append(");\n");
+		}
+	}
+
+	private String mapperFor(TypeMirror type) {
+		return qualifiedMapperName((TypeElement) ((DeclaredType) type).asElement());
+	}
+
+	/**
+	 * @return the string as a java literal.
+	 */
+	private static String literal(String s) {
+		StringBuilder literal = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				literal.append('\\').append(c);
+			} else if (c < 0x20 || c > 0x7e) {
+				literal.append(String.format("\\u%04x", (int) c));
+			} else {
+				literal.append(c);
+			}
+		}
+		return literal.append('"').toString();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson.processor;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jglue.fluentjson.JsonArrayBuilder;
+import org.jglue.fluentjson.JsonBuilderFactory;
+import org.jglue.fluentjson.JsonMapped;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.stream.JsonWriter;
+
+public class TestJsonMappedProcessor {
+
+	public enum Color {
+		RED, GREEN
+	}
+
+	public static class Named<T> {
+		private final T name;
+
+		Named(T name) {
+			this.name = name;
+		}
+
+		public T getName() {
+			return name;
+		}
+	}
+
+	@JsonMapped
+	public static class Address {
+		public String street;
+		public int number;
+	}
+
+	@JsonMapped
+	public static class Person extends Named<String> {
+		public String nickname = "bry";
+		private final Address address = new Address();
+
+		Person() {
+			super("Bryn");
+			address.street = "High \"Street\"";
+			address.number = 7;
+		}
+
+		public int getAge() {
+			return 42;
+		}
+
+		public boolean isActive() {
+			return true;
+		}
+
+		public Boolean isMember() {
+			return true;
+		}
+
+		public Double getScore() {
+			return null;
+		}
+
+		public LocalDate getBorn() {
+			return LocalDate.of(1970, 1, 2);
+		}
+
+		public Color getColor() {
+			return Color.GREEN;
+		}
+
+		public List<String> getTags() {
+			return Arrays.asList("a", null);
+		}
+
+		public int[] getScores() {
+			return new int[] { 1, 2 };
+		}
+
+		public Address getAddress() {
+			return address;
+		}
+
+		public List<Address> getPrevious() {
+			return Collections.singletonList(null);
+		}
+
+		public String getURL() {
+			return "http://jglue.org";
+		}
+
+		public String notAProperty() {
+			return "x";
+		}
+	}
+
+	private static final String EXPECTED = "{\"name\":\"Bryn\",\"nickname\":\"bry\",\"age\":42,\"active\":true,"
+			+ "\"score\":null,\"born\":\"1970-01-02\",\"color\":\"GREEN\",\"tags\":[\"a\",null],\"scores\":[1,2],"
+			+ "\"address\":{\"street\":\"High \\\"Street\\\"\",\"number\":7},\"previous\":[null],"
+			+ "\"URL\":\"http://jglue.org\"}";
+
+	@Test
+	public void testMap() {
+		Assert.assertEquals(EXPECTED, TestJsonMappedProcessor_PersonMapper.INSTANCE.map(new Person()).toString());
+	}
+
+	@Test
+	public void testMapArray() {
+		JsonArrayBuilder<?, JsonArray> array = JsonBuilderFactory.buildArray(TestJsonMappedProcessor_PersonMapper.INSTANCE,
+				Arrays.asList(new Person(), null));
+		Assert.assertEquals("[" + EXPECTED + ",null]", array.toString());
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginArray();
+		TestJsonMappedProcessor_PersonMapper.INSTANCE.write(new Person(), writer);
+		TestJsonMappedProcessor_PersonMapper.INSTANCE.write(null, writer);
+		writer.endArray();
+		writer.flush();
+		Assert.assertEquals("[" + EXPECTED + ",null]", out.toString());
+	}
+
+	@Test
+	public void testWriteDoesNotFlush() throws IOException {
+		final int[] flushes = new int[1];
+		StringWriter out = new StringWriter() {
+
+			@Override
+			public void flush() {
+				flushes[0]++;
+			}
+		};
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginArray();
+		TestJsonMappedProcessor_PersonMapper.INSTANCE.write(new Person(), writer);
+		TestJsonMappedProcessor_PersonMapper.INSTANCE.write(new Person(), writer);
+		Assert.assertEquals(0, flushes[0]);
+		writer.endArray();
+		writer.flush();
+		Assert.assertEquals(1, flushes[0]);
+		Assert.assertEquals("[" + EXPECTED + "," + EXPECTED + "]", out.toString());
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base for sinks that encode a binary format. The document is encoded in
+ * memory and then written out in one go, because formats such as CBOR and
+ * MessagePack start each object and array with its length, which isn't
+ * known until the object or array ends. Room is left for the longest
+ * possible header and the unused part is skipped when writing out.
+ *
+ * @author Bryn Cooke
+ *
+ */
+abstract class BinarySink implements JsonSink {
+
+	private final int headerSize;
+	protected byte[] buf = new byte[256];
+	protected int pos;
+
+	/**
+	 * The number of values so far in each open scope, and which header each
+	 * scope will fill in.
+	 */
+	private int[] counts = new int[16];
+	private int[] scopes = new int[16];
+	private int depth;
+
+	/**
+	 * The headers left room for, in order of position.
+	 */
+	private int[] headerPositions = new int[16];
+	private int[] headerCounts = new int[16];
+	private boolean[] headerObjects = new boolean[16];
+	private int headers;
+
+	/**
+	 * Bytes left unused by finished headers.
+	 */
+	private int unused;
+
+	private final byte[] scratch = new byte[16];
+
+	/**
+	 * @param headerSize
+	 *            The room to leave for the header of each object and array,
+	 *            or 0 if the format doesn't have them.
+	 */
+	protected BinarySink(int headerSize) {
+		this.headerSize = headerSize;
+	}
+
+	static BinarySink of(Format format) {
+		switch (format) {
+		case CBOR:
+			return new CborSink();
+		case SMILE:
+			return new SmileSink();
+		case MESSAGE_PACK:
+			return new MessagePackSink();
+		default:
+			throw new IllegalArgumentException("Not a binary format " + format);
+		}
+	}
+
+	/**
+	 * Encode the header of an object or array.
+	 * 
+	 * @return the length of the header.
+	 */
+	protected abstract int header(byte[] to, boolean object, int count);
+
+	protected abstract void bigInteger(BigInteger value) throws IOException;
+
+	protected abstract void decimal(BigDecimal value) throws IOException;
+
+	/**
+	 * @return the length of the encoded document so far.
+	 */
+	long length() {
+		return pos - unused;
+	}
+
+	/**
+	 * Write the encoded document. Headers are filled in by moving everything
+	 * after them down over the unused room, so the document can be written
+	 * in one go.
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		int to = headers == 0 ? pos : headerPositions[0];
+		for (int i = 0; i < headers; i++) {
+			int length = header(scratch, headerObjects[i], headerCounts[i]);
+			System.arraycopy(scratch, 0, buf, to, length);
+			to += length;
+			int from = headerPositions[i] + headerSize;
+			int end = i + 1 < headers ? headerPositions[i + 1] : pos;
+			System.arraycopy(buf, from, buf, to, end - from);
+			to += end - from;
+		}
+		out.write(buf, 0, to);
+	}
+
+	protected final void ensure(int bytes) {
+		if (buf.length - pos < bytes) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+		}
+	}
+
+	protected final void write(int b) {
+		ensure(1);
+		buf[pos++] = (byte) b;
+	}
+
+	protected final void write(byte[] bytes, int off, int len) {
+		ensure(len);
+		System.arraycopy(bytes, off, buf, pos, len);
+		pos += len;
+	}
+
+	/**
+	 * Write the big endian bytes of a number.
+	 */
+	protected final void writeBytes(long value, int bytes) {
+		ensure(bytes);
+		for (int i = bytes - 1; i >= 0; i--) {
+			buf[pos++] = (byte) (value >>> (i * 8));
+		}
+	}
+
+	/**
+	 * Count a value in the current scope.
+	 */
+	protected final void element() {
+		if (depth > 0) {
+			counts[depth - 1]++;
+		}
+	}
+
+	protected final void begin(boolean object) {
+		element();
+		if (depth == counts.length) {
+			counts = Arrays.copyOf(counts, depth * 2);
+			scopes = Arrays.copyOf(scopes, depth * 2);
+		}
+		counts[depth] = 0;
+		if (headerSize > 0) {
+			if (headers == headerPositions.length) {
+				headerPositions = Arrays.copyOf(headerPositions, headers * 2);
+				headerCounts = Arrays.copyOf(headerCounts, headers * 2);
+				headerObjects = Arrays.copyOf(headerObjects, headers * 2);
+			}
+			headerPositions[headers] = pos;
+			headerObjects[headers] = object;
+			scopes[depth] = headers++;
+			ensure(headerSize);
+			pos += headerSize;
+		}
+		depth++;
+	}
+
+	protected final void end() {
+		depth--;
+		if (headerSize > 0) {
+			int i = scopes[depth];
+			headerCounts[i] = counts[depth];
+			unused += headerSize - header(scratch, headerObjects[i], counts[depth]);
+		}
+	}
+
+	/**
+	 * @return the length of the string as UTF-8.
+	 */
+	protected static int utf8Length(String s) {
+		int length = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x800) {
+				if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+					length += 2;
+					i++;
+				} else if (!Character.isSurrogate(c)) {
+					length += 2;
+				}
+			} else if (c >= 0x80) {
+				length++;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Write the string as UTF-8. Unpaired surrogates are written as '?'.
+	 */
+	protected final void utf8(String s, int utf8Length) {
+		ensure(utf8Length);
+		byte[] buf = this.buf;
+		int pos = this.pos;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xc0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (!Character.isSurrogate(c)) {
+				buf[pos++] = (byte) (0xe0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buf[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else {
+				buf[pos++] = '?';
+			}
+		}
+		this.pos = pos;
+	}
+
+	/**
+	 * Numbers are written with the narrowest type that holds them exactly.
+	 */
+	@Override
+	public void value(Number value) throws IOException {
+		if (value == null) {
+			nullValue();
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+				|| value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong) {
+			value(value.longValue());
+		} else if (value instanceof Double) {
+			value(value.doubleValue());
+		} else if (value instanceof Float) {
+			value(value.floatValue());
+		} else if (value instanceof BigInteger) {
+			BigInteger integer = (BigInteger) value;
+			if (integer.bitLength() < 64) {
+				value(integer.longValue());
+			} else {
+				bigInteger(integer);
+			}
+		} else if (value instanceof BigDecimal) {
+			decimal((BigDecimal) value);
+		} else {
+			decimal(new BigDecimal(value.toString()));
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+}
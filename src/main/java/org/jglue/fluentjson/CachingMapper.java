@@ -0,0 +1,286 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A mapper that remembers what it mapped objects to, for objects that are
+ * mapped over and over, such as products or currencies. Builders are frozen
+ * before they are cached, so the same builder is returned for every hit and
+ * is serialized only once. The least recently used builders are evicted once
+ * the cache is over its limit.
+ * 
+ * <pre>
+ * Mapper&lt;Product&gt; products = CachingMapper.of(new ProductMapper()).maximumSize(10000)
+ * 		.keyedBy(p -&gt; Arrays.asList(p.getId(), p.getVersion()));
+ * </pre>
+ * 
+ * Objects are keyed by identity unless a key function is given. Objects
+ * that are missed by several threads at once may be mapped more than once.
+ * 
+ * @author Bryn Cooke
+ *
+ * @param <T>
+ *            The type of the object to map.
+ */
+public final class CachingMapper<T> implements Mapper<T> {
+
+	private static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+	/**
+	 * The most segments the cache is split into, each with its own lock.
+	 */
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Mapper<T> mapper;
+	private final Function<? super T, ?> key;
+	private final long limit;
+	private final boolean weighed;
+	private final Segment[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private CachingMapper(Mapper<T> mapper, Function<? super T, ?> key, long limit, boolean weighed) {
+		this.mapper = mapper;
+		this.key = key;
+		this.limit = limit;
+		this.weighed = weighed;
+		int count = Integer.highestOneBit((int) Math.max(1, Math.min(MAX_SEGMENTS, weighed ? limit / 4096 : limit / 16)));
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(limit / count + (i < limit % count ? 1 : 0), evictions);
+		}
+	}
+
+	/**
+	 * @param mapper
+	 *            The mapper to cache the results of.
+	 * @param <T>
+	 *            The type of the object to map.
+	 * @return a mapper holding up to 1024 builders, keyed by identity.
+	 */
+	public static <T> CachingMapper<T> of(Mapper<T> mapper) {
+		if (mapper == null) {
+			throw new IllegalArgumentException("Mapper must not be null");
+		}
+		return new CachingMapper<T>(mapper, null, DEFAULT_MAXIMUM_SIZE, false);
+	}
+
+	/**
+	 * @param size
+	 *            The number of builders to hold.
+	 * @return a new, empty, cache of this mapper holding up to that many
+	 *         builders.
+	 */
+	public CachingMapper<T> maximumSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Maximum size must be at least 1");
+		}
+		return new CachingMapper<T>(mapper, key, size, false);
+	}
+
+	/**
+	 * @param bytes
+	 *            The total length of the UTF-8 form of the builders to hold.
+	 * @return a new, empty, cache of this mapper holding builders up to that
+	 *         total length.
+	 */
+	public CachingMapper<T> maximumBytes(long bytes) {
+		if (bytes < 1) {
+			throw new IllegalArgumentException("Maximum bytes must be at least 1");
+		}
+		return new CachingMapper<T>(mapper, key, bytes, true);
+	}
+
+	/**
+	 * @param key
+	 *            Gives the key to cache an object's builder under, which
+	 *            should include a version if the object can change.
+	 * @return a new, empty, cache of this mapper using the keys.
+	 */
+	public CachingMapper<T> keyedBy(Function<? super T, ?> key) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key must not be null");
+		}
+		return new CachingMapper<T>(mapper, key, limit, weighed);
+	}
+
+	@Override
+	public JsonBuilder map(T o) {
+		if (o == null) {
+			return mapper.map(o);
+		}
+		Object k = key == null ? new Identity(o) : key.apply(o);
+		Segment segment = segments[spread(k.hashCode()) & (segments.length - 1)];
+		JsonBuilder builder = segment.get(k);
+		if (builder != null) {
+			hits.increment();
+			return builder;
+		}
+		misses.increment();
+		builder = mapper.map(o);
+		int length = JsonBuilderFactory.freeze(builder);
+		if (length != -1) {
+			segment.put(k, builder, weighed ? length : 1);
+		}
+		return builder;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return the number of objects whose builder was in the cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of objects that had to be mapped.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of builders evicted to keep within the limit.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the number of builders held.
+	 */
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of builders, or the total length of their UTF-8
+	 *         form, held.
+	 */
+	public long getWeight() {
+		long weight = 0;
+		for (Segment segment : segments) {
+			weight += segment.weight();
+		}
+		return weight;
+	}
+
+	/**
+	 * Remove every builder.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	private static final class Entry {
+		final JsonBuilder builder;
+		final int weight;
+
+		Entry(JsonBuilder builder, int weight) {
+			this.builder = builder;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Part of the cache, in order of use.
+	 */
+	private static final class Segment {
+		private final long limit;
+		private final LongAdder evictions;
+		private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+		private long weight;
+
+		Segment(long limit, LongAdder evictions) {
+			this.limit = limit;
+			this.evictions = evictions;
+		}
+
+		synchronized JsonBuilder get(Object key) {
+			Entry entry = entries.get(key);
+			return entry == null ? null : entry.builder;
+		}
+
+		synchronized void put(Object key, JsonBuilder builder, int weight) {
+			if (weight > limit) {
+				return;
+			}
+			Entry replaced = entries.put(key, new Entry(builder, weight));
+			if (replaced != null) {
+				this.weight -= replaced.weight;
+			}
+			this.weight += weight;
+			Iterator<Map.Entry<Object, Entry>> eldest = entries.entrySet().iterator();
+			while (this.weight > limit) {
+				this.weight -= eldest.next().getValue().weight;
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		synchronized long weight() {
+			return weight;
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			weight = 0;
+		}
+	}
+
+	/**
+	 * Compares objects by identity.
+	 */
+	private static final class Identity {
+		private final Object o;
+
+		Identity(Object o) {
+			this.o = o;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Identity && ((Identity) obj).o == o;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(o);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Sink that encodes CBOR, RFC 8949.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class CborSink extends BinarySink {
+
+	private static final int UNSIGNED = 0;
+	private static final int NEGATIVE = 1 << 5;
+	private static final int BYTES = 2 << 5;
+	private static final int TEXT = 3 << 5;
+	private static final int ARRAY = 4 << 5;
+	private static final int MAP = 5 << 5;
+	private static final int TAG = 6 << 5;
+
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int FLOAT = 0xfa;
+	private static final int DOUBLE = 0xfb;
+
+	private static final int POSITIVE_BIGNUM = 2;
+	private static final int NEGATIVE_BIGNUM = 3;
+	private static final int DECIMAL_FRACTION = 4;
+
+	CborSink() {
+		super(5);
+	}
+
+	@Override
+	protected int header(byte[] to, boolean object, int count) {
+		int major = object ? MAP : ARRAY;
+		if (count < 24) {
+			to[0] = (byte) (major | count);
+			return 1;
+		}
+		if (count <= 0xff) {
+			to[0] = (byte) (major | 24);
+			to[1] = (byte) count;
+			return 2;
+		}
+		if (count <= 0xffff) {
+			to[0] = (byte) (major | 25);
+			to[1] = (byte) (count >> 8);
+			to[2] = (byte) count;
+			return 3;
+		}
+		to[0] = (byte) (major | 26);
+		to[1] = (byte) (count >> 24);
+		to[2] = (byte) (count >> 16);
+		to[3] = (byte) (count >> 8);
+		to[4] = (byte) count;
+		return 5;
+	}
+
+	/**
+	 * Write the initial byte of a data item and its argument, which must not
+	 * be negative.
+	 */
+	private void head(int major, long argument) {
+		if (argument < 24) {
+			write(major | (int) argument);
+		} else if (argument <= 0xff) {
+			write(major | 24);
+			write((int) argument);
+		} else if (argument <= 0xffff) {
+			write(major | 25);
+			writeBytes(argument, 2);
+		} else if (argument <= 0xffffffffL) {
+			write(major | 26);
+			writeBytes(argument, 4);
+		} else {
+			write(major | 27);
+			writeBytes(argument, 8);
+		}
+	}
+
+	@Override
+	public void beginObject() {
+		begin(true);
+	}
+
+	@Override
+	public void endObject() {
+		end();
+	}
+
+	@Override
+	public void beginArray() {
+		begin(false);
+	}
+
+	@Override
+	public void endArray() {
+		end();
+	}
+
+	@Override
+	public void name(String name) {
+		text(name);
+	}
+
+	@Override
+	public void nullValue() {
+		element();
+		write(NULL);
+	}
+
+	@Override
+	public void value(boolean value) {
+		element();
+		write(value ? TRUE : FALSE);
+	}
+
+	@Override
+	public void value(long value) {
+		element();
+		integer(value);
+	}
+
+	private void integer(long value) {
+		if (value >= 0) {
+			head(UNSIGNED, value);
+		} else {
+			head(NEGATIVE, ~value);
+		}
+	}
+
+	@Override
+	public void value(double value) {
+		element();
+		write(DOUBLE);
+		writeBytes(Double.doubleToRawLongBits(value), 8);
+	}
+
+	@Override
+	public void value(float value) {
+		element();
+		write(FLOAT);
+		writeBytes(Float.floatToRawIntBits(value), 4);
+	}
+
+	@Override
+	public void value(String value) {
+		if (value == null) {
+			nullValue();
+			return;
+		}
+		element();
+		text(value);
+	}
+
+	private void text(String value) {
+		int length = utf8Length(value);
+		head(TEXT, length);
+		utf8(value, length);
+	}
+
+	@Override
+	protected void bigInteger(BigInteger value) {
+		element();
+		bignum(value);
+	}
+
+	private void bignum(BigInteger value) {
+		if (value.bitLength() < 64) {
+			integer(value.longValue());
+			return;
+		}
+		BigInteger magnitude = value;
+		if (value.signum() < 0) {
+			write(TAG | NEGATIVE_BIGNUM);
+			magnitude = value.not();
+		} else {
+			write(TAG | POSITIVE_BIGNUM);
+		}
+		byte[] bytes = magnitude.toByteArray();
+		int off = bytes[0] == 0 ? 1 : 0;
+		head(BYTES, bytes.length - off);
+		write(bytes, off, bytes.length - off);
+	}
+
+	@Override
+	protected void decimal(BigDecimal value) {
+		element();
+		write(TAG | DECIMAL_FRACTION);
+		write(ARRAY | 2);
+		integer(-(long) value.scale());
+		bignum(value.unscaledValue());
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.zip.Deflater;
+
+/**
+ * How to compress UTF-8 output. Compressed output is deflated as it is
+ * serialized rather than through layers of streams, and the native
+ * {@link Deflater}s are pooled across documents.
+ *
+ * <pre>
+ * builder.write(response.getOutputStream(), Compression.gzip().level(6));
+ * </pre>
+ *
+ * @author Bryn Cooke
+ *
+ */
+public final class Compression {
+
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final boolean gzip;
+	private final int level;
+	private final int bufferSize;
+
+	private Compression(boolean gzip, int level, int bufferSize) {
+		this.gzip = gzip;
+		this.level = level;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @return gzip compression, RFC 1952, at the default level.
+	 */
+	public static Compression gzip() {
+		return new Compression(true, Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @return raw deflate compression, RFC 1951, without a zlib or gzip
+	 *         wrapper, at the default level.
+	 */
+	public static Compression deflate() {
+		return new Compression(false, Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param level
+	 *            The compression level from 0 to 9, or -1 for the default.
+	 * @return this compression at the given level.
+	 */
+	public Compression level(int level) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Compression level must be from -1 to 9");
+		}
+		return new Compression(gzip, level, bufferSize);
+	}
+
+	/**
+	 * @param bufferSize
+	 *            The size of the buffers for uncompressed and compressed
+	 *            bytes, 8192 by default.
+	 * @return this compression with the given buffer size.
+	 */
+	public Compression bufferSize(int bufferSize) {
+		if (bufferSize < 64) {
+			throw new IllegalArgumentException("Buffer size must be at least 64");
+		}
+		return new Compression(gzip, level, bufferSize);
+	}
+
+	boolean isGzip() {
+		return gzip;
+	}
+
+	int getLevel() {
+		return level;
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.temporal.Temporal;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Writes dates and times as ISO-8601 directly into a char buffer. The output
+ * matches {@link SimpleDateFormat} for dates and {@link Temporal#toString()}
+ * for temporals, falling back to those for years that aren't four digits in
+ * the Gregorian calendar. The last formatted minute is cached so that runs of
+ * close timestamps only need to write the seconds.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class DateEncoder {
+
+	/**
+	 * Enough for any of the supported formats.
+	 */
+	static final int MAX_LENGTH = 40;
+
+	/**
+	 * 1583-01-01T00:00Z, the first full year after the Gregorian cutover used
+	 * by {@link SimpleDateFormat}.
+	 */
+	private static final long MIN_DATE_MILLIS = -12212553600000L;
+
+	/**
+	 * 10000-01-01T00:00Z
+	 */
+	private static final long MAX_DATE_MILLIS = 253402300800000L;
+
+	/**
+	 * 0000-01-01T00:00Z
+	 */
+	private static final long MIN_INSTANT_SECONDS = -62167219200L;
+
+	private static final long MAX_INSTANT_SECONDS = MAX_DATE_MILLIS / 1000;
+
+	private static final int PREFIX_LENGTH = 16;
+
+	/**
+	 * An immutable formatted yyyy-MM-ddTHH:mm, so it can be shared between
+	 * threads without locking.
+	 */
+	private static final class Minute {
+		private final long minute;
+		private final char[] prefix;
+
+		Minute(long minute, char[] prefix) {
+			this.minute = minute;
+			this.prefix = prefix;
+		}
+	}
+
+	private static volatile Minute lastMinute = new Minute(Long.MIN_VALUE, null);
+
+	private DateEncoder() {
+	}
+
+	/**
+	 * @return the formatted date.
+	 */
+	static String encode(long millis, DatePrecision precision) {
+		char[] buf = new char[MAX_LENGTH];
+		return new String(buf, 0, encode(millis, precision, buf, 0));
+	}
+
+	/**
+	 * @return the formatted temporal.
+	 */
+	static String encode(Temporal value) {
+		char[] buf = new char[MAX_LENGTH];
+		int length = encode(value, buf, 0);
+		return length < 0 ? value.toString() : new String(buf, 0, length);
+	}
+
+	/**
+	 * Format a date in UTC.
+	 *
+	 * @return the number of chars written.
+	 */
+	static int encode(long millis, DatePrecision precision, char[] buf, int off) {
+		if (millis < MIN_DATE_MILLIS || millis >= MAX_DATE_MILLIS) {
+			DateFormat dateFormat = new SimpleDateFormat(precision.pattern);
+			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			String legacy = dateFormat.format(new Date(millis));
+			legacy.getChars(0, legacy.length(), buf, off);
+			return legacy.length();
+		}
+		int pos = minute(Math.floorDiv(millis, 60000), buf, off);
+		if (precision != DatePrecision.MINUTES) {
+			int millisOfMinute = Math.floorMod(millis, 60000);
+			buf[pos++] = ':';
+			pos = digits2(millisOfMinute / 1000, buf, pos);
+			if (precision == DatePrecision.MILLISECONDS) {
+				buf[pos++] = '.';
+				pos = digits3(millisOfMinute % 1000, buf, pos);
+			}
+		}
+		buf[pos++] = 'Z';
+		return pos - off;
+	}
+
+	/**
+	 * Format one of the common temporal types the same way as its
+	 * {@link Temporal#toString()}.
+	 *
+	 * @return the number of chars written or -1 if the value isn't supported
+	 *         by the fast path.
+	 */
+	static int encode(Temporal value, char[] buf, int off) {
+		if (value instanceof Instant) {
+			Instant instant = (Instant) value;
+			long seconds = instant.getEpochSecond();
+			if (seconds < MIN_INSTANT_SECONDS || seconds >= MAX_INSTANT_SECONDS) {
+				return -1;
+			}
+			int pos = minute(Math.floorDiv(seconds, 60), buf, off);
+			buf[pos++] = ':';
+			pos = digits2(Math.floorMod(seconds, 60), buf, pos);
+			pos = nanos(instant.getNano(), buf, pos);
+			buf[pos++] = 'Z';
+			return pos - off;
+		} else if (value instanceof LocalDate) {
+			LocalDate date = (LocalDate) value;
+			if (!fourDigits(date.getYear())) {
+				return -1;
+			}
+			return date(date.getYear(), date.getMonthValue(), date.getDayOfMonth(), buf, off) - off;
+		} else if (value instanceof LocalDateTime) {
+			LocalDateTime dateTime = (LocalDateTime) value;
+			if (!fourDigits(dateTime.getYear())) {
+				return -1;
+			}
+			return dateTime(dateTime, buf, off) - off;
+		} else if (value instanceof OffsetDateTime) {
+			OffsetDateTime dateTime = (OffsetDateTime) value;
+			if (!fourDigits(dateTime.getYear())) {
+				return -1;
+			}
+			int pos = dateTime(dateTime.toLocalDateTime(), buf, off);
+			String offset = dateTime.getOffset().getId();
+			offset.getChars(0, offset.length(), buf, pos);
+			return pos + offset.length() - off;
+		}
+		return -1;
+	}
+
+	private static boolean fourDigits(int year) {
+		return year >= 0 && year <= 9999;
+	}
+
+	/**
+	 * Write yyyy-MM-ddTHH:mm, reusing the last result if it was for the same
+	 * minute.
+	 */
+	private static int minute(long minute, char[] buf, int off) {
+		Minute last = lastMinute;
+		if (last.minute != minute) {
+			char[] prefix = new char[PREFIX_LENGTH];
+			long days = Math.floorDiv(minute, 1440);
+			int minuteOfDay = Math.floorMod(minute, 1440);
+			int pos = date(days, prefix, 0);
+			prefix[pos++] = 'T';
+			pos = digits2(minuteOfDay / 60, prefix, pos);
+			prefix[pos++] = ':';
+			digits2(minuteOfDay % 60, prefix, pos);
+			last = new Minute(minute, prefix);
+			lastMinute = last;
+		}
+		System.arraycopy(last.prefix, 0, buf, off, PREFIX_LENGTH);
+		return off + PREFIX_LENGTH;
+	}
+
+	/**
+	 * Write yyyy-MM-dd for a count of days since the epoch.
+	 */
+	private static int date(long epochDay, char[] buf, int off) {
+		// Civil from days, see http://howardhinnant.github.io/date_algorithms.html
+		long days = epochDay + 719468;
+		long era = (days >= 0 ? days : days - 146096) / 146097;
+		int dayOfEra = (int) (days - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+		return date(year, month, day, buf, off);
+	}
+
+	private static int date(int year, int month, int day, char[] buf, int off) {
+		int pos = digits2(year / 100, buf, off);
+		pos = digits2(year % 100, buf, pos);
+		buf[pos++] = '-';
+		pos = digits2(month, buf, pos);
+		buf[pos++] = '-';
+		return digits2(day, buf, pos);
+	}
+
+	/**
+	 * Write the same as {@link LocalDateTime#toString()}.
+	 */
+	private static int dateTime(LocalDateTime dateTime, char[] buf, int off) {
+		int pos = date(dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth(), buf, off);
+		buf[pos++] = 'T';
+		LocalTime time = dateTime.toLocalTime();
+		pos = digits2(time.getHour(), buf, pos);
+		buf[pos++] = ':';
+		pos = digits2(time.getMinute(), buf, pos);
+		if (time.getSecond() > 0 || time.getNano() > 0) {
+			buf[pos++] = ':';
+			pos = digits2(time.getSecond(), buf, pos);
+			pos = nanos(time.getNano(), buf, pos);
+		}
+		return pos;
+	}
+
+	/**
+	 * Write a fraction of a second in groups of three digits, as the java.time
+	 * types do.
+	 */
+	private static int nanos(int nanos, char[] buf, int pos) {
+		if (nanos == 0) {
+			return pos;
+		}
+		buf[pos++] = '.';
+		if (nanos % 1000000 == 0) {
+			return digits3(nanos / 1000000, buf, pos);
+		}
+		if (nanos % 1000 == 0) {
+			pos = digits3(nanos / 1000000, buf, pos);
+			return digits3(nanos / 1000 % 1000, buf, pos);
+		}
+		pos = digits3(nanos / 1000000, buf, pos);
+		pos = digits3(nanos / 1000 % 1000, buf, pos);
+		return digits3(nanos % 1000, buf, pos);
+	}
+
+	private static int digits2(int value, char[] buf, int pos) {
+		buf[pos] = (char) ('0' + value / 10);
+		buf[pos + 1] = (char) ('0' + value % 10);
+		return pos + 2;
+	}
+
+	private static int digits3(int value, char[] buf, int pos) {
+		buf[pos] = (char) ('0' + value / 100);
+		return digits2(value % 100, buf, pos + 1);
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+/**
+ * How much of a {@link java.util.Date} is written. Dates are always written as
+ * ISO-8601 in UTC.
+ *
+ * @author Bryn Cooke
+ *
+ */
+public enum DatePrecision {
+	/**
+	 * For example 1970-01-01T00:00Z
+	 */
+	MINUTES("yyyy-MM-dd'T'HH:mm'Z'"),
+	/**
+	 * For example 1970-01-01T00:00:00Z
+	 */
+	SECONDS("yyyy-MM-dd'T'HH:mm:ss'Z'"),
+	/**
+	 * For example 1970-01-01T00:00:00.000Z
+	 */
+	MILLISECONDS("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+	final String pattern;
+
+	private DatePrecision(String pattern) {
+		this.pattern = pattern;
+	}
+}
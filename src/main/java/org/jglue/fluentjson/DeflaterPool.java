@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Idle {@link Deflater}s, so that each compressed document doesn't allocate
+ * and free the native memory of a new one. All of them produce raw deflate
+ * data; gzip framing is written separately.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class DeflaterPool {
+
+	/**
+	 * Deflaters beyond this many idle ones are ended rather than kept.
+	 */
+	private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+	private static final Queue<Deflater> IDLE = new ConcurrentLinkedQueue<Deflater>();
+	private static final AtomicInteger idle = new AtomicInteger();
+
+	private DeflaterPool() {
+	}
+
+	static Deflater acquire(int level) {
+		Deflater deflater = IDLE.poll();
+		if (deflater == null) {
+			return new Deflater(level, true);
+		}
+		idle.decrementAndGet();
+		deflater.setLevel(level);
+		return deflater;
+	}
+
+	/**
+	 * @return the number of idle deflaters.
+	 */
+	static int idle() {
+		return idle.get();
+	}
+
+	/**
+	 * Return a deflater, whatever state it was left in.
+	 */
+	static void release(Deflater deflater) {
+		deflater.reset();
+		if (idle.incrementAndGet() <= MAX_IDLE) {
+			IDLE.offer(deflater);
+		} else {
+			idle.decrementAndGet();
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Metrics that emit JDK Flight Recorder events. Each event is begun when the
+ * work starts and ended when it finishes, so the time taken is the event's
+ * own duration. Events are only begun while a recording has them enabled.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class FlightRecorderMetrics implements JsonMetrics {
+
+	@Override
+	public Object writing() {
+		WriteEvent event = new WriteEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void written(Object started, Output output, int values, int depth, long length, long nanos) {
+		if (started == null) {
+			return;
+		}
+		WriteEvent event = (WriteEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.output = output.name();
+			event.values = values;
+			event.depth = depth;
+			event.length = length;
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object mapping() {
+		MapperEvent event = new MapperEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void mapped(Object started, Mapper<?> mapper, long nanos) {
+		if (started == null) {
+			return;
+		}
+		MapperEvent event = (MapperEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.mapper = mapper.getClass();
+			event.commit();
+		}
+	}
+
+	@Name("fluentjson.Write")
+	@Label("JSON Write")
+	@Category("fluent-json")
+	@Description("A document written by a builder")
+	static final class WriteEvent extends Event {
+
+		@Label("Output")
+		String output;
+
+		@Label("Values")
+		int values;
+
+		@Label("Depth")
+		int depth;
+
+		@Label("Length")
+		@Description("Bytes for UTF-8 output, chars for text, or -1 if unknown")
+		long length;
+	}
+
+	@Name("fluentjson.MapperInvoke")
+	@Label("JSON Mapper Invocation")
+	@Category("fluent-json")
+	@Description("An object mapped by a mapper")
+	@StackTrace(false)
+	static final class MapperEvent extends Event {
+
+		@Label("Mapper")
+		Class<?> mapper;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+/**
+ * An encoding that builders can be written in.
+ *
+ * @author Bryn Cooke
+ *
+ */
+public enum Format {
+	/**
+	 * JSON text as UTF-8.
+	 */
+	JSON,
+	/**
+	 * Concise Binary Object Representation, RFC 8949. Objects and arrays are
+	 * written with their lengths. Big integers use tags 2 and 3 and big
+	 * decimals tag 4.
+	 */
+	CBOR,
+	/**
+	 * Binary JSON as defined by the Smile format specification, without
+	 * shared names or values.
+	 */
+	SMILE,
+	/**
+	 * MessagePack. Numbers that MessagePack has no type for, such as big
+	 * decimals, are written as doubles when that is exact and as strings
+	 * otherwise.
+	 */
+	MESSAGE_PACK
+}
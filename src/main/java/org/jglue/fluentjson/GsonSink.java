@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Sink that passes tokens on to a Gson {@link JsonWriter}.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class GsonSink implements JsonSink {
+
+	private final JsonWriter out;
+	private final boolean copy;
+	private int depth;
+
+	/**
+	 * @param copy
+	 *            Whether json that is already serialized may be copied in to
+	 *            the writer as it is, which is only right if the writer was
+	 *            created here with the default settings, as indenting and
+	 *            html escaping would not be applied to it.
+	 */
+	GsonSink(JsonWriter out, boolean copy) {
+		this.out = out;
+		this.copy = copy;
+	}
+
+	/**
+	 * A strict writer only accepts a value at the top level if it is an
+	 * object or array it has seen begin, so serialized json is only copied
+	 * when nested or when the writer is lenient.
+	 */
+	private boolean copy() {
+		return copy && (depth > 0 || out.isLenient());
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		depth++;
+		out.beginObject();
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		depth--;
+		out.endObject();
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		depth++;
+		out.beginArray();
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		depth--;
+		out.endArray();
+	}
+
+	@Override
+	public void name(String name) throws IOException {
+		out.name(name);
+	}
+
+	@Override
+	public void nullValue() throws IOException {
+		out.nullValue();
+	}
+
+	@Override
+	public void value(boolean value) throws IOException {
+		out.value(value);
+	}
+
+	@Override
+	public void value(long value) throws IOException {
+		out.value(value);
+	}
+
+	@Override
+	public void value(double value) throws IOException {
+		out.value(value);
+	}
+
+	@Override
+	public void value(float value) throws IOException {
+		// Widening to double would change the digits that are written.
+		out.value((Number) value);
+	}
+
+	@Override
+	public void value(Number value) throws IOException {
+		out.value(value);
+	}
+
+	@Override
+	public void value(String value) throws IOException {
+		out.value(value);
+	}
+
+	@Override
+	public void frozen(Node node) throws IOException {
+		if (copy()) {
+			out.value(new Serialized(node.serialized.text));
+		} else {
+			node.walk(this);
+		}
+	}
+
+	@Override
+	public void rawValue(CharSequence json) throws IOException {
+		if (copy()) {
+			out.value(new Serialized(json.toString()));
+		} else {
+			RawJson.copy(json, this);
+		}
+	}
+
+	@Override
+	public void pending() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * {@link JsonWriter} writes numbers using their string form, which is how
+	 * json that is already serialized is passed through it, as this version
+	 * of Gson has no other way to write json text as a value.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Serialized extends Number {
+
+		private final String json;
+
+		Serialized(String json) {
+			this.json = json;
+		}
+
+		@Override
+		public String toString() {
+			return json;
+		}
+
+		@Override
+		public int intValue() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long longValue() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public float floatValue() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public double doubleValue() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
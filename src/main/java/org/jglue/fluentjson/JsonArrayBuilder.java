@@ -18,6 +18,9 @@ package org.jglue.fluentjson;
 import java.time.temporal.Temporal;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 
 
@@ -48,6 +51,15 @@ public interface JsonArrayBuilder<P, R> extends JsonBuilder {
      */
 	public P end();
 
+	/**
+     * Make the whole document this builder belongs to immutable and serialize it once, so that
+     * adding it to other builders copies the serialized form instead of walking it again.
+     * Frozen builders can be shared between threads.
+     * @return the builder
+     * @throws IllegalStateException if the document is changed afterwards.
+     */
+	public JsonArrayBuilder<P, R> freeze();
+
 	/**
 	 * Add a single value to this array.
 	 * 
@@ -72,6 +84,154 @@ public interface JsonArrayBuilder<P, R> extends JsonBuilder {
 	 * @return the current builder.
 	 */
 	public JsonArrayBuilder<P, R> add(Number value);
+
+	/**
+	 * Add a single value to this array.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(int value);
+
+	/**
+	 * Add a single value to this array.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(long value);
+
+	/**
+	 * Add a single value to this array.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(double value);
+
+	/**
+	 * Add a single value to this array.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(float value);
+
+	/**
+	 * Add a single value to this array.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(boolean value);
+
+	/**
+	 * Add a single value to this array.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(char value);
+
+	/**
+	 * Add a nested array of values. The values are copied, and written in a
+	 * single pass without creating an element for each.
+	 * 
+	 * @param values the values to add, or null to add null.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(int[] values);
+
+	/**
+	 * Add a nested array of part of an array of values.
+	 * 
+	 * @param values the values to add from, or null to add null.
+	 * @param offset the index of the first value to add.
+	 * @param length the number of values to add.
+	 * @return the current builder.
+	 * @throws IndexOutOfBoundsException if the part isn't within the values.
+	 */
+	public JsonArrayBuilder<P, R> add(int[] values, int offset, int length);
+
+	/**
+	 * Add a nested array of values. The values are copied, and written in a
+	 * single pass without creating an element for each.
+	 * 
+	 * @param values the values to add, or null to add null.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(long[] values);
+
+	/**
+	 * Add a nested array of part of an array of values.
+	 * 
+	 * @param values the values to add from, or null to add null.
+	 * @param offset the index of the first value to add.
+	 * @param length the number of values to add.
+	 * @return the current builder.
+	 * @throws IndexOutOfBoundsException if the part isn't within the values.
+	 */
+	public JsonArrayBuilder<P, R> add(long[] values, int offset, int length);
+
+	/**
+	 * Add a nested array of values. The values are copied, and written in a
+	 * single pass without creating an element for each.
+	 * 
+	 * @param values the values to add, or null to add null.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(double[] values);
+
+	/**
+	 * Add a nested array of part of an array of values.
+	 * 
+	 * @param values the values to add from, or null to add null.
+	 * @param offset the index of the first value to add.
+	 * @param length the number of values to add.
+	 * @return the current builder.
+	 * @throws IndexOutOfBoundsException if the part isn't within the values.
+	 */
+	public JsonArrayBuilder<P, R> add(double[] values, int offset, int length);
+
+	/**
+	 * Add a nested array of values. The values are copied, and written in a
+	 * single pass without creating an element for each.
+	 * 
+	 * @param values the values to add, or null to add null.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(float[] values);
+
+	/**
+	 * Add a nested array of part of an array of values.
+	 * 
+	 * @param values the values to add from, or null to add null.
+	 * @param offset the index of the first value to add.
+	 * @param length the number of values to add.
+	 * @return the current builder.
+	 * @throws IndexOutOfBoundsException if the part isn't within the values.
+	 */
+	public JsonArrayBuilder<P, R> add(float[] values, int offset, int length);
+
+	/**
+	 * Add a nested array of values. The values are copied, and written in a
+	 * single pass without creating an element for each.
+	 * 
+	 * @param values the values to add, or null to add null.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> add(boolean[] values);
+
+	/**
+	 * Add a nested array of part of an array of values.
+	 * 
+	 * @param values the values to add from, or null to add null.
+	 * @param offset the index of the first value to add.
+	 * @param length the number of values to add.
+	 * @return the current builder.
+	 * @throws IndexOutOfBoundsException if the part isn't within the values.
+	 */
+	public JsonArrayBuilder<P, R> add(boolean[] values, int offset, int length);
 	
 	
 	/**
@@ -128,6 +288,35 @@ public interface JsonArrayBuilder<P, R> extends JsonBuilder {
 	 */
 	public JsonArrayBuilder<P, R> add(JsonBuilder builder);
 
+	/**
+	 * Add an element whose builder is still being made, perhaps by another
+	 * thread. The builder must be complete when the future completes.
+	 * Writing only waits when it reaches the element, passing on everything
+	 * written before it to the output first.
+	 * 
+	 * @param builder the future builder for the element.
+	 * @return the current builder.
+	 */
+	public JsonArrayBuilder<P, R> addAsync(CompletableFuture<? extends JsonBuilder> builder);
+
+	/**
+	 * Add objects that all have the given keys, which are held column by
+	 * column until they are written.
+	 * 
+	 * @param columns the keys of the objects.
+	 * @return the builder for the rows, which are added to this array.
+	 */
+	public JsonRowsBuilder<JsonArrayBuilder<P, R>, R> addRows(String... columns);
+
+	/**
+	 * Add objects that all have the given keys, which are held column by
+	 * column until they are written.
+	 * 
+	 * @param columns the keys of the objects.
+	 * @return the builder for the rows, which are added to this array.
+	 */
+	public JsonRowsBuilder<JsonArrayBuilder<P, R>, R> addRows(JsonKey... columns);
+
 	
 	/**
 	 * Add an array of elements.
@@ -149,6 +338,55 @@ public interface JsonArrayBuilder<P, R> extends JsonBuilder {
 	 */
 	public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Iterable<T> objects);
 
+	/**
+	 * Add a collection of elements to the current array, mapping them
+	 * concurrently on the executor while keeping their order.
+	 * 
+	 * @param transform The transformer for the object, which must be thread safe.
+	 * @param objects the objects to add.
+	 * @param executor the executor to map the objects on.
+	 * @param <T> The type of the objects
+	 * @return the current builder.
+	 */
+	public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Iterable<T> objects, Executor executor);
+
+	/**
+	 * Add a stream of elements to the current array, keeping their order.
+	 * Parallel streams are mapped on the fork join pool.
+	 * 
+	 * @param transform The transformer for the object.
+	 * @param objects the objects to add.
+	 * @param <T> The type of the objects
+	 * @return the current builder.
+	 */
+	public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Stream<T> objects);
+
+	/**
+	 * Add an array of elements that are only mapped when the builder is
+	 * written, so that they never all have to be held in memory. The iterable
+	 * is asked for a new iterator each time the builder is written or
+	 * converted to a tree.
+	 * 
+	 * @param transform The transformer for the object.
+	 * @param objects the objects to add.
+	 * @param <T> The type of the objects
+	 * @return the current builder.
+	 */
+	public <T> JsonArrayBuilder<P, R> addLazy(Mapper<T> transform, Iterable<T> objects);
+
+	/**
+	 * Add an array of elements that are only mapped when the builder is
+	 * written, so that they never all have to be held in memory. A stream can
+	 * only be consumed once, so the builder can only be written or converted
+	 * to a tree once.
+	 * 
+	 * @param transform The transformer for the object.
+	 * @param objects the objects to add.
+	 * @param <T> The type of the objects
+	 * @return the current builder.
+	 */
+	public <T> JsonArrayBuilder<P, R> addLazy(Mapper<T> transform, Stream<T> objects);
+
 	/**
 	 * Add a single element.
 	 * 
@@ -159,9 +397,25 @@ public interface JsonArrayBuilder<P, R> extends JsonBuilder {
 	 */
 	public <T> JsonArrayBuilder<P, R> add(Mapper<T> transform, T... objects);
 
+	/**
+	 * Add an element that is already serialized Json, which is written as it
+	 * is rather than being parsed and escaped. Only sinks that can't take
+	 * text, such as Gson trees and binary formats, parse it.
+	 * 
+	 * @param json A single Json value, or null.
+	 * @return the current builder.
+	 * @see JsonBuilderFactory#setValidateRaw(boolean)
+	 */
+	public JsonArrayBuilder<P, R> addRaw(CharSequence json);
+
 	
 	/**
-	 * @return the underlying JSONSimple object.
+	 * Build a Gson tree holding the content of the document. The tree is a
+	 * copy: it is returned again by later calls until the document, or a
+	 * builder that was added to it, is added to, after which a new tree is
+	 * built. Changes made to the tree are not seen by the builder.
+	 * 
+	 * @return the Gson tree for the whole document.
 	 */
 	public R getJson();
 
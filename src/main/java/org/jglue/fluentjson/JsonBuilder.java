@@ -16,7 +16,10 @@
 package org.jglue.fluentjson;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import com.google.gson.stream.JsonWriter;
 
@@ -40,6 +43,45 @@ public interface JsonBuilder {
      * @throws IOException if there was a problem
      */
     public void write(JsonWriter out) throws IOException;
+
+	/**
+     * Write the JSON to a stream as UTF-8. The stream is not flushed or closed.
+     * @param out The output stream.
+     * @throws IOException if there was a problem
+     */
+    public void write(OutputStream out) throws IOException;
+
+	/**
+     * Write the content to a stream in the given format. The stream is not flushed or closed.
+     * @param out The output stream.
+     * @param format The format to encode the content in.
+     * @throws IOException if there was a problem
+     */
+    public void write(OutputStream out, Format format) throws IOException;
+
+	/**
+     * Write the JSON to a stream as compressed UTF-8. The stream is not flushed or closed.
+     * @param out The output stream.
+     * @param compression How to compress the JSON.
+     * @throws IOException if there was a problem
+     */
+    public void write(OutputStream out, Compression compression) throws IOException;
+
+	/**
+     * Write the JSON to a buffer as UTF-8, starting at its position.
+     * @param out The output buffer.
+     * @throws IOException if there was a problem
+     * @throws java.nio.BufferOverflowException if the buffer doesn't have room
+     *         for the JSON, in which case its position is left unchanged.
+     */
+    public void write(ByteBuffer out) throws IOException;
+
+	/**
+     * Write the JSON to a channel as UTF-8. The channel is not closed.
+     * @param out The output channel.
+     * @throws IOException if there was a problem
+     */
+    public void write(WritableByteChannel out) throws IOException;
     
     /**
      * @return The serialized JSON as a string.
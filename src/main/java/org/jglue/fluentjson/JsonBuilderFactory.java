@@ -16,20 +16,25 @@
 package org.jglue.fluentjson;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.io.Writer;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.time.ZoneId;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.time.temporal.Temporal;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Map;
-import java.util.TimeZone;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonWriter;
 
 /**
@@ -40,273 +45,1067 @@ import com.google.gson.stream.JsonWriter;
  */
 public class JsonBuilderFactory {
 
+	private static volatile int parallelThreshold = 1024;
+
+	private static volatile DatePrecision datePrecision = DatePrecision.MINUTES;
+
+	private static volatile int maxDepth = Integer.MAX_VALUE;
+
+	private static volatile JsonMetrics metrics;
+
+	private static volatile boolean validateRaw;
+
+	/**
+	 * Set how much of a {@link Date} is written by builders. The precision is
+	 * taken when the date is added.
+	 * 
+	 * @param precision
+	 *            The precision, {@link DatePrecision#MINUTES} by default.
+	 */
+	public static void setDatePrecision(DatePrecision precision) {
+		if (precision == null) {
+			throw new IllegalArgumentException("Precision must not be null");
+		}
+		datePrecision = precision;
+	}
+
+	/**
+	 * @return how much of a {@link Date} is written by builders.
+	 */
+	public static DatePrecision getDatePrecision() {
+		return datePrecision;
+	}
+
+	/**
+	 * Set the number of objects below which parallel mapping stays on the
+	 * calling thread.
+	 * 
+	 * @param threshold
+	 *            The threshold, 1024 by default.
+	 */
+	public static void setParallelThreshold(int threshold) {
+		parallelThreshold = threshold;
+	}
+
+	/**
+	 * @return the number of objects below which parallel mapping stays on the
+	 *         calling thread.
+	 */
+	public static int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Set how deeply objects and arrays may be nested when a builder is
+	 * written, to guard against runaway documents built from user supplied
+	 * structures. Documents are written without recursion, so depth isn't
+	 * limited by the thread's stack.
+	 * 
+	 * @param depth
+	 *            The maximum depth, where the root is depth 1. Unlimited by
+	 *            default.
+	 */
+	public static void setMaxDepth(int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("Maximum depth must be at least 1");
+		}
+		maxDepth = depth;
+	}
+
+	/**
+	 * @return how deeply objects and arrays may be nested when a builder is
+	 *         written.
+	 */
+	public static int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Set the metrics that writes and mappings are reported to, for example
+	 * {@link JsonMetrics#flightRecorder()}. Documents written by streaming
+	 * builders aren't measured, as they are written while being built.
+	 * 
+	 * @param metrics
+	 *            The metrics, or null to stop measuring, which is the default.
+	 */
+	public static void setMetrics(JsonMetrics metrics) {
+		JsonBuilderFactory.metrics = metrics;
+	}
+
+	/**
+	 * @return the metrics that writes and mappings are reported to, or null
+	 *         if they aren't measured.
+	 */
+	public static JsonMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set whether Json text added with addRaw is checked when it is added.
+	 * The check only makes sure that the text is a single value with
+	 * balanced brackets and terminated strings, so it is cheap, but it
+	 * doesn't catch every mistake.
+	 * 
+	 * @param validate
+	 *            Whether to check, false by default.
+	 */
+	public static void setValidateRaw(boolean validate) {
+		validateRaw = validate;
+	}
+
+	/**
+	 * @return whether Json text added with addRaw is checked when it is added.
+	 */
+	public static boolean isValidateRaw() {
+		return validateRaw;
+	}
+
 	/**
 	 * @return Start building a new json object.
 	 */
 	public static JsonObjectBuilder<?, JsonObject> buildObject() {
-		JsonObject o = new JsonObject();
-		return new Impl(o, o);
+		return new Impl(new Node(true));
+	}
+
+	/**
+	 * @return Start building new json array.
+	 */
+	public static JsonArrayBuilder<?, JsonArray> buildArray() {
+		return new Impl(new Node(false));
+	}
+
+	/**
+	 * @param transform
+	 *            The transformer for the objects
+	 * @param objects
+	 *            The objects to build
+	 * @param <T>
+	 *            The type of the objects
+	 * @return Start building new json array.
+	 */
+	public static <T> JsonArrayBuilder<?, JsonArray> buildArray(Mapper<T> transform, Iterable<T> objects) {
+		return buildArray().addAll(transform, objects);
+	}
+
+	/**
+	 * Map the objects concurrently on the executor, keeping their order in the
+	 * array.
+	 * 
+	 * @param transform
+	 *            The transformer for the objects, which must be thread safe.
+	 * @param objects
+	 *            The objects to build
+	 * @param executor
+	 *            The executor to map the objects on.
+	 * @param <T>
+	 *            The type of the objects
+	 * @return Start building new json array.
+	 */
+	public static <T> JsonArrayBuilder<?, JsonArray> buildArray(Mapper<T> transform, Iterable<T> objects, Executor executor) {
+		return buildArray().addAll(transform, objects, executor);
+	}
+
+	/**
+	 * Map the objects of a stream, keeping their order in the array. Parallel
+	 * streams are mapped on the fork join pool.
+	 * 
+	 * @param transform
+	 *            The transformer for the objects
+	 * @param objects
+	 *            The objects to build
+	 * @param <T>
+	 *            The type of the objects
+	 * @return Start building new json array.
+	 */
+	public static <T> JsonArrayBuilder<?, JsonArray> buildArray(Mapper<T> transform, Stream<T> objects) {
+		return buildArray().addAll(transform, objects);
+	}
+
+	/**
+	 * Map the objects of a spliterator, keeping their order in the array.
+	 * 
+	 * @param transform
+	 *            The transformer for the objects
+	 * @param objects
+	 *            The objects to build
+	 * @param parallel
+	 *            Whether to map the objects on the fork join pool.
+	 * @param <T>
+	 *            The type of the objects
+	 * @return Start building new json array.
+	 */
+	public static <T> JsonArrayBuilder<?, JsonArray> buildArray(Mapper<T> transform, Spliterator<T> objects, boolean parallel) {
+		return buildArray().addAll(transform, StreamSupport.stream(objects, parallel));
+	}
+
+	/**
+	 * Start streaming a new json object. Elements are written to the writer as
+	 * they are added rather than being held in memory, so only the innermost
+	 * open object or array may be added to. Ending the root flushes the
+	 * writer.
+	 * 
+	 * @param out
+	 *            The writer to stream to.
+	 * @return the builder for the streamed object.
+	 */
+	public static JsonObjectBuilder<?, Void> streamObject(Writer out) {
+		return JsonStreamBuilder.object(new GsonSink(new JsonWriter(out), true));
+	}
+
+	/**
+	 * Start streaming a new json object. Elements are written to the writer as
+	 * they are added rather than being held in memory, so only the innermost
+	 * open object or array may be added to. Ending the root flushes the
+	 * writer.
+	 * 
+	 * @param out
+	 *            The writer to stream to.
+	 * @return the builder for the streamed object.
+	 */
+	public static JsonObjectBuilder<?, Void> streamObject(JsonWriter out) {
+		return JsonStreamBuilder.object(new GsonSink(out, false));
+	}
+
+	/**
+	 * Start streaming a new json object. Elements are written to the writer as
+	 * they are added rather than being held in memory, so only the innermost
+	 * open object or array may be added to.
+	 * 
+	 * @param out
+	 *            The writer to stream to.
+	 * @param flush
+	 *            Whether ending the root flushes the writer. Pass false when
+	 *            writing many objects to the same writer, which the caller
+	 *            then flushes once.
+	 * @return the builder for the streamed object.
+	 */
+	public static JsonObjectBuilder<?, Void> streamObject(JsonWriter out, boolean flush) {
+		return JsonStreamBuilder.object(new GsonSink(out, false), flush);
+	}
+
+	/**
+	 * Start streaming a new json object as UTF-8. Elements are written to the
+	 * stream as they are added rather than being held in memory, so only the
+	 * innermost open object or array may be added to. Output is buffered until
+	 * the root is ended, which flushes the stream.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @return the builder for the streamed object.
+	 */
+	public static JsonObjectBuilder<?, Void> streamObject(OutputStream out) {
+		return JsonStreamBuilder.object(Utf8Sink.of(out));
+	}
+
+	/**
+	 * Start streaming a new json array. Elements are written to the writer as
+	 * they are added rather than being held in memory, so only the innermost
+	 * open object or array may be added to. Ending the root flushes the
+	 * writer.
+	 * 
+	 * @param out
+	 *            The writer to stream to.
+	 * @return the builder for the streamed array.
+	 */
+	public static JsonArrayBuilder<?, Void> streamArray(Writer out) {
+		return JsonStreamBuilder.array(new GsonSink(new JsonWriter(out), true));
+	}
+
+	/**
+	 * Start streaming a new json array. Elements are written to the writer as
+	 * they are added rather than being held in memory, so only the innermost
+	 * open object or array may be added to. Ending the root flushes the
+	 * writer.
+	 * 
+	 * @param out
+	 *            The writer to stream to.
+	 * @return the builder for the streamed array.
+	 */
+	public static JsonArrayBuilder<?, Void> streamArray(JsonWriter out) {
+		return JsonStreamBuilder.array(new GsonSink(out, false));
+	}
+
+	/**
+	 * Start streaming a new json array as UTF-8. Elements are written to the
+	 * stream as they are added rather than being held in memory, so only the
+	 * innermost open object or array may be added to. Output is buffered until
+	 * the root is ended, which flushes the stream.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @return the builder for the streamed array.
+	 */
+	public static JsonArrayBuilder<?, Void> streamArray(OutputStream out) {
+		return JsonStreamBuilder.array(Utf8Sink.of(out));
+	}
+
+	/**
+	 * Serialize a builder a chunk at a time, so that a large document can be
+	 * handed to a consumer only as fast as it asks for it.
+	 * 
+	 * @param builder
+	 *            The builder to serialize, which must not be changed until the
+	 *            last chunk has been taken.
+	 * @param chunkSize
+	 *            The number of bytes in each chunk but the last.
+	 * @return the chunks of the UTF-8 form of the builder.
+	 */
+	public static JsonChunks chunks(JsonBuilder builder, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+		}
+		try {
+			return new JsonChunks(builder instanceof Impl ? ((Impl<?, ?>) builder).root : null, builder, chunkSize);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
 	}
 
-	/**
-	 * @return Start building new json array.
-	 */
-	public static JsonArrayBuilder<?, JsonArray> buildArray() {
-		JsonArray o = new JsonArray();
-		return new Impl(o, o);
-	}
+	/**
+	 * Publish a builder to reactive streams a chunk at a time, serializing
+	 * each chunk only once a subscriber has requested it. Each subscriber
+	 * receives the whole document, on whichever thread requests the chunks.
+	 * 
+	 * @param builder
+	 *            The builder to serialize, which must not be changed while it
+	 *            is being published.
+	 * @param chunkSize
+	 *            The number of bytes in each chunk but the last.
+	 * @return a publisher of the chunks of the UTF-8 form of the builder.
+	 * @see #chunks(JsonBuilder, int)
+	 */
+	public static Flow.Publisher<ByteBuffer> publish(JsonBuilder builder, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+		}
+		return new JsonPublisher(builder, chunkSize);
+	}
+
+	/**
+	 * Work out the changes between two documents as an RFC 6902 JSON Patch,
+	 * so that a document can be updated by sending just what changed.
+	 * Branches that are the same in both are skipped by comparing hashes, and
+	 * elements of arrays are matched even when others have been inserted or
+	 * removed around them.
+	 * 
+	 * @param before
+	 *            The document to patch.
+	 * @param after
+	 *            The document the patch should produce.
+	 * @return the patch, an array of operations.
+	 */
+	public static JsonArrayBuilder<?, JsonArray> diff(JsonBuilder before, JsonBuilder after) {
+		return new Impl<Void, JsonArray>(JsonDiff.diff(before, after));
+	}
+
+	/**
+	 * @return a builder for the single element that a streaming mapper adds.
+	 */
+	static <T> JsonBuilder element(StreamingMapper<T> transform, T o) {
+		Node array = new Node(false);
+		transform.map(o, new Impl<Void, Void>(array));
+		if (array.size != 1) {
+			throw new IllegalStateException("Streaming mappers must add exactly one element, but " + array.size
+					+ " were added");
+		}
+		if (array.types[0] == Node.NODE) {
+			return new Impl<Void, Void>((Node) array.refs[0]);
+		}
+		return new Element(array);
+	}
+
+	static void write(JsonSink out, JsonBuilder builder) throws IOException {
+		if (builder instanceof JsonPrimitiveBuilder) {
+			Node.writeValue(out, ((JsonPrimitiveBuilder) builder).getValue());
+		} else if (builder instanceof Element) {
+			((Element) builder).write(out);
+		} else {
+			built(builder).context.write(out);
+		}
+	}
+
+	/**
+	 * @return the builder, which must have come from
+	 *         {@link #buildObject()}, {@link #buildArray()} or a mapper
+	 *         returning one of those.
+	 */
+	private static Impl<?, ?> built(JsonBuilder builder) {
+		if (builder instanceof Impl) {
+			return (Impl<?, ?>) builder;
+		}
+		throw new IllegalArgumentException("Only builders from buildObject or buildArray can be added to another document, not "
+				+ builder.getClass().getName());
+	}
+
+	/**
+	 * Make a mapped builder immutable so that it can be shared.
+	 * 
+	 * @return the length of its UTF-8 form, or -1 if it is null or is a
+	 *         single element that might not be the same each time it is
+	 *         written, such as a lazy array.
+	 */
+	static int freeze(JsonBuilder builder) {
+		if (builder == null || builder instanceof Element && !((Element) builder).fixed()) {
+			return -1;
+		}
+		if (builder instanceof JsonPrimitiveBuilder || builder instanceof Element) {
+			Utf8Sink.ArraySink out = new Utf8Sink.ArraySink(16);
+			try {
+				write(out, builder);
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			return (int) out.length();
+		}
+		Node root = built(builder).freeze().root;
+		return root.serialized.utf8.length;
+	}
+
+	/**
+	 * Write the builder a future completes with, first passing on everything
+	 * written so far if it has to wait.
+	 */
+	static void write(JsonSink out, CompletableFuture<?> future) throws IOException {
+		if (!future.isDone()) {
+			out.pending();
+		}
+		JsonBuilder builder = (JsonBuilder) future.join();
+		if (builder == null) {
+			out.nullValue();
+		} else {
+			write(out, builder);
+		}
+	}
+
+	/**
+	 * The single element a streaming mapper added that isn't an object or
+	 * array, such as raw json, a primitive array or a lazy array. Like a
+	 * {@link JsonPrimitiveBuilder} it can only be added to other builders.
+	 */
+	private static final class Element implements JsonBuilder {
+
+		private final Node array;
+
+		Element(Node array) {
+			this.array = array;
+		}
+
+		/**
+		 * @return whether the element is written the same way every time,
+		 *         which lazy arrays, futures and rows that may still be added
+		 *         to aren't.
+		 */
+		boolean fixed() {
+			byte type = array.types[0];
+			return type != Node.LAZY && type != Node.ASYNC && type != Node.ROWS;
+		}
+
+		void write(JsonSink out) throws IOException {
+			Node.write(out, array.types[0], array.values[0], array.refs[0]);
+		}
+
+		@Override
+		public void write(Writer out) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(JsonWriter out) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(OutputStream out, Format format) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(OutputStream out, Compression compression) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(ByteBuffer out) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(WritableByteChannel out) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static class Impl<P, R> implements JsonObjectBuilder<P, R>, JsonArrayBuilder<P, R> {
+
+		private Node context;
+		private Node root;
+		private P parent;
+
+		public Impl(Node root, P parent, Node context) {
+			this.parent = parent;
+			this.root = root;
+			this.context = context;
+		}
+
+		public Impl(Node root) {
+			this.parent = (P) this;
+			this.root = root;
+			this.context = root;
+		}
+
+
+		@Override
+		public JsonObjectBuilder addObject(String key) {
+			Node o = new Node(true);
+			context.add(key, o);
+			return new Impl(root, this, o);
+		}
+
+		@Override
+		public JsonArrayBuilder addArray(String key) {
+			Node o = new Node(false);
+			context.add(key, o);
+			return new Impl(root, this, o);
+		}
+
+		@Override
+		public JsonArrayBuilder add(Iterable<? extends JsonBuilder> builders) {
+			context.add(null, createArray(builders));
+			return this;
+		}
+
+		private Node createArray(Iterable<? extends JsonBuilder> builders) {
+			Node array = new Node(false);
+			for (JsonBuilder b : builders) {
+				add(array, null, b);
+			}
+			return array;
+		}
+
+		private static void add(Node node, Object key, JsonBuilder builder) {
+			if (builder instanceof JsonPrimitiveBuilder) {
+				node.addValue(key, ((JsonPrimitiveBuilder) builder).getValue());
+			} else if (builder instanceof Element) {
+				node.add(key, ((Element) builder).array, 0);
+			} else {
+				node.add(key, built(builder).context);
+			}
+		}
+
+		@Override
+		public JsonObjectBuilder add(String key, Iterable<? extends JsonBuilder> builders) {
+			context.add(key, createArray(builders));
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder add(String key, Boolean value) {
+			if (value == null) {
+				context.addNull(key);
+			} else {
+				context.add(key, value.booleanValue());
+			}
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder add(String key, Character value) {
+			context.add(key, value == null ? null : value.toString());
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder add(String key, Number value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder add(String key, String value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> addRaw(String key, CharSequence json) {
+			context.addRaw(key, json);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, int value) {
+			context.add(key, (long) value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, long value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, double value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, float value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, boolean value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, char value) {
+			context.add(key, String.valueOf(value));
+			return this;
+		}
+
+		@Override
+		public JsonArrayBuilder add(JsonBuilder builder) {
+			add(context, null, builder);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder add(String key, JsonBuilder builder) {
+			add(context, key, builder);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> addAsync(String key, CompletableFuture<? extends JsonBuilder> builder) {
+			context.add(key, builder);
+			return this;
+		}
+
+		@Override
+		public JsonArrayBuilder<P, R> addAsync(CompletableFuture<? extends JsonBuilder> builder) {
+			context.add(null, builder);
+			return this;
+		}
+
+		@Override
+		public JsonRowsBuilder<JsonArrayBuilder<P, R>, R> addRows(String... columns) {
+			Rows<JsonArrayBuilder<P, R>, R> rows = new Rows<JsonArrayBuilder<P, R>, R>(this, context, columns);
+			context.add(null, rows);
+			return rows;
+		}
+
+		@Override
+		public JsonRowsBuilder<JsonArrayBuilder<P, R>, R> addRows(JsonKey... columns) {
+			Rows<JsonArrayBuilder<P, R>, R> rows = new Rows<JsonArrayBuilder<P, R>, R>(this, context, columns);
+			context.add(null, rows);
+			return rows;
+		}
+
+		@Override
+		public String toString() {
+			StringWriter out = new StringWriter();
+			JsonWriter jsonWriter = new JsonWriter(out);
+			jsonWriter.setLenient(true);
+			try {
+				write(new GsonSink(jsonWriter, true), JsonMetrics.Output.TEXT, () -> out.getBuffer().length());
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			return out.toString();
+		}
+
+		@Override
+		public P end() {
+			return parent;
+		}
+
+		@Override
+		public Impl<P, R> freeze() {
+			try {
+				root.freeze();
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<JsonArrayBuilder<P, R>, R> addObject() {
+			Node o = new Node(true);
+			context.add(null, o);
+			return new Impl(root, this, o);
+		}
+
+		@Override
+		public JsonArrayBuilder<JsonArrayBuilder<P, R>, R> addArray() {
+			Node o = new Node(false);
+			context.add(null, o);
+			return new Impl(root, this, o);
+		}
+
+		@Override
+		public void write(Writer out) throws IOException {
+			if (metrics == null) {
+				write(new GsonSink(new JsonWriter(out), true), JsonMetrics.Output.TEXT, null);
+				return;
+			}
+			Metered.CountingWriter counted = new Metered.CountingWriter(out);
+			write(new GsonSink(new JsonWriter(counted), true), JsonMetrics.Output.TEXT, counted::count);
+		}
+
+		/**
+		 * Write the whole document, measuring it if metrics are enabled.
+		 * 
+		 * @param length
+		 *            The length of the output once written, or null if it
+		 *            isn't known.
+		 */
+		private void write(JsonSink out, JsonMetrics.Output output, LongSupplier length) throws IOException {
+			JsonMetrics metrics = JsonBuilderFactory.metrics;
+			if (metrics == null) {
+				root.write(out);
+				return;
+			}
+			Metered.Sink measured = new Metered.Sink(out, metrics);
+			root.write(measured);
+			measured.report(output, length == null ? -1 : length.getAsLong());
+		}
+
+		private void write(Utf8Sink out) throws IOException {
+			JsonMetrics metrics = JsonBuilderFactory.metrics;
+			if (metrics == null) {
+				root.write(out);
+				out.finish();
+				return;
+			}
+			Metered.Sink measured = new Metered.Sink(out, metrics);
+			root.write(measured);
+			long length = out.length();
+			out.finish();
+			measured.report(JsonMetrics.Output.UTF8, length);
+		}
+
+		/**
+		 * The tree is built on the first call and returned again until the
+		 * document, or a builder that was added to it, is added to.
+		 */
+		@Override
+		public R getJson() {
+			if (root.tree == null || !root.tree.current()) {
+				TreeSink tree = new TreeSink();
+				try {
+					write(tree, JsonMetrics.Output.TREE, null);
+				} catch (IOException e) {
+					throw new AssertionError(e);
+				}
+				root.tree = new Node.Tree(root, tree.root());
+			}
+			return (R) root.tree.json;
+		}
+
+		@Override
+		public JsonArrayBuilder<P, R> add(Boolean value) {
+			if (value == null) {
+				context.addNull(null);
+			} else {
+				context.add(null, value.booleanValue());
+			}
+			return this;
+		}
+
+		@Override
+		public JsonArrayBuilder<P, R> add(Character value) {
+			context.add(null, value == null ? null : value.toString());
+			return this;
+		}
+
+		@Override
+		public JsonArrayBuilder<P, R> add(Number value) {
+			context.add(null, value);
+			return this;
+		}
 
-	/**
-	 * @param transform
-	 *            The transformer for the objects
-	 * @param objects
-	 *            The objects to build
-	 * @param <T>
-	 *            The type of the objects
-	 * @return Start building new json array.
-	 */
-	public static <T> JsonArrayBuilder<?, JsonArray> buildArray(Mapper<T> transform, Iterable<T> objects) {
-		JsonArray a = new JsonArray();
-		Impl impl = new Impl(a, a);
-		for (T o : objects) {
-			impl.add(transform.map(o));
+		@Override
+		public JsonArrayBuilder<P, R> add(String value) {
+			context.add(null, value);
+			return this;
 		}
-		return impl;
-	}
 
-	private static class Impl<P, R> implements JsonObjectBuilder<P, R>, JsonArrayBuilder<P, R> {
+		@Override
+		public JsonArrayBuilder<P, R> addRaw(CharSequence json) {
+			context.addRaw(null, json);
+			return this;
+		}
 
-		private JsonElement context;
-		private JsonElement root;
-		private P parent;
+		@Override
+		public JsonArrayBuilder<P, R> add(int value) {
+			context.add(null, (long) value);
+			return this;
+		}
 
-		public Impl(JsonElement root, P parent, JsonElement context) {
-			this.parent = parent;
-			this.root = root;
-			this.context = context;
+		@Override
+		public JsonArrayBuilder<P, R> add(long value) {
+			context.add(null, value);
+			return this;
 		}
 
-		public Impl(JsonElement root, JsonElement context) {
-			this.parent = (P) this;
-			this.root = root;
-			this.context = context;
+		@Override
+		public JsonArrayBuilder<P, R> add(double value) {
+			context.add(null, value);
+			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder addObject(String key) {
-			JsonObject o = new JsonObject();
-			((JsonObject) context).add(key, o);
-			return new Impl(root, this, o);
+		public JsonArrayBuilder<P, R> add(float value) {
+			context.add(null, value);
+			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder addArray(String key) {
-			JsonArray o = new JsonArray();
-			((JsonObject) context).add(key, o);
-			return new Impl(root, this, o);
+		public JsonArrayBuilder<P, R> add(boolean value) {
+			context.add(null, value);
+			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder add(Iterable<? extends JsonBuilder> builders) {
-			JsonArrayBuilder<?, JsonArray> array = createArray(builders);
-			add(array);
+		public JsonArrayBuilder<P, R> add(char value) {
+			context.add(null, String.valueOf(value));
 			return this;
 		}
 
-		private JsonArrayBuilder<?, JsonArray> createArray(Iterable<? extends JsonBuilder> builders) {
-			JsonArrayBuilder<?, JsonArray> array = JsonBuilderFactory.buildArray();
-			for (JsonBuilder b : builders) {
-				array.add(b);
-			}
-			return array;
+		@Override
+		public JsonArrayBuilder<P, R> addNull() {
+			context.addNull(null);
+			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder add(String key, Iterable<? extends JsonBuilder> builders) {
-			JsonArrayBuilder<?, JsonArray> array = createArray(builders);
-			add(key, array);
+		public JsonObjectBuilder<P, R> add(String key, int[] values) {
+			context.addPrimitives(key, values, 0, values == null ? 0 : values.length);
+			return this;
+		}
 
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, int[] values, int offset, int length) {
+			context.addPrimitives(key, values, offset, length);
 			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder add(String key, Boolean value) {
-			JsonObject obj = (JsonObject) context;
-			if (value == null) {
-				obj.add(key, JsonNull.INSTANCE);
-			} else {
-				obj.add(key, new JsonPrimitive(value));
-			}
+		public JsonObjectBuilder<P, R> add(String key, long[] values) {
+			context.addPrimitives(key, values, 0, values == null ? 0 : values.length);
 			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder add(String key, Character value) {
-			JsonObject obj = (JsonObject) context;
-			if (value == null) {
-				obj.add(key, JsonNull.INSTANCE);
-			} else {
-				obj.add(key, new JsonPrimitive(value));
-			}
+		public JsonObjectBuilder<P, R> add(String key, long[] values, int offset, int length) {
+			context.addPrimitives(key, values, offset, length);
 			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder add(String key, Number value) {
-			JsonObject obj = (JsonObject) context;
-			if (value == null) {
-				obj.add(key, JsonNull.INSTANCE);
-			} else {
-				obj.add(key, new JsonPrimitive(value));
-			}
+		public JsonObjectBuilder<P, R> add(String key, double[] values) {
+			context.addPrimitives(key, values, 0, values == null ? 0 : values.length);
 			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder add(String key, String value) {
-			JsonObject obj = (JsonObject) context;
-			if (value == null) {
-				obj.add(key, JsonNull.INSTANCE);
-			} else {
-				obj.add(key, new JsonPrimitive(value));
-			}
+		public JsonObjectBuilder<P, R> add(String key, double[] values, int offset, int length) {
+			context.addPrimitives(key, values, offset, length);
+			return this;
+		}
 
+		@Override
+		public JsonObjectBuilder<P, R> add(String key, float[] values) {
+			context.addPrimitives(key, values, 0, values == null ? 0 : values.length);
 			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder add(JsonBuilder builder) {
-			JsonArray array = (JsonArray) context;
-			if (builder instanceof JsonPrimitiveBuilder) {
-				array.add(((JsonPrimitiveBuilder) builder).getPrimitive());
-			} else {
-				array.add(((Impl) builder).context);
-			}
+		public JsonObjectBuilder<P, R> add(String key, float[] values, int offset, int length) {
+			context.addPrimitives(key, values, offset, length);
 			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder add(String key, JsonBuilder builder) {
-			JsonObject obj = (JsonObject) context;
-			obj.add(key, ((Impl) builder).context);
+		public JsonObjectBuilder<P, R> add(String key, boolean[] values) {
+			context.addPrimitives(key, values, 0, values == null ? 0 : values.length);
 			return this;
 		}
 
 		@Override
-		public String toString() {
-			return root.toString();
+		public JsonObjectBuilder<P, R> add(String key, boolean[] values, int offset, int length) {
+			context.addPrimitives(key, values, offset, length);
+			return this;
 		}
 
 		@Override
-		public P end() {
-			return parent;
+		public JsonArrayBuilder<P, R> add(int[] values) {
+			context.addPrimitives(null, values, 0, values == null ? 0 : values.length);
+			return this;
 		}
 
 		@Override
-		public JsonObjectBuilder<JsonArrayBuilder<P, R>, R> addObject() {
-			JsonObject o = new JsonObject();
-			((JsonArray) context).add(o);
-			return new Impl(root, this, o);
+		public JsonArrayBuilder<P, R> add(int[] values, int offset, int length) {
+			context.addPrimitives(null, values, offset, length);
+			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder<JsonArrayBuilder<P, R>, R> addArray() {
-			JsonArray o = new JsonArray();
-			((JsonArray) context).add(o);
-			return new Impl(root, this, o);
+		public JsonArrayBuilder<P, R> add(long[] values) {
+			context.addPrimitives(null, values, 0, values == null ? 0 : values.length);
+			return this;
 		}
 
 		@Override
-		public void write(Writer out) throws IOException {
-			JsonWriter jsonWriter = new JsonWriter(out);
-			write(jsonWriter);
+		public JsonArrayBuilder<P, R> add(long[] values, int offset, int length) {
+			context.addPrimitives(null, values, offset, length);
+			return this;
 		}
 
 		@Override
-		public R getJson() {
-			return (R) root;
+		public JsonArrayBuilder<P, R> add(double[] values) {
+			context.addPrimitives(null, values, 0, values == null ? 0 : values.length);
+			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder<P, R> add(Boolean value) {
-			JsonArray array = ((JsonArray) context);
-			if (value == null) {
-				array.add(JsonNull.INSTANCE);
-			} else {
-				array.add(new JsonPrimitive(value));
-			}
+		public JsonArrayBuilder<P, R> add(double[] values, int offset, int length) {
+			context.addPrimitives(null, values, offset, length);
 			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder<P, R> add(Character value) {
-			JsonArray array = ((JsonArray) context);
-			if (value == null) {
-				array.add(JsonNull.INSTANCE);
-			} else {
-				array.add(new JsonPrimitive(value));
-			}
+		public JsonArrayBuilder<P, R> add(float[] values) {
+			context.addPrimitives(null, values, 0, values == null ? 0 : values.length);
 			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder<P, R> add(Number value) {
-			JsonArray array = ((JsonArray) context);
-			if (value == null) {
-				array.add(JsonNull.INSTANCE);
-			} else {
-				array.add(new JsonPrimitive(value));
-			}
+		public JsonArrayBuilder<P, R> add(float[] values, int offset, int length) {
+			context.addPrimitives(null, values, offset, length);
 			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder<P, R> add(String value) {
-			JsonArray array = ((JsonArray) context);
-			if (value == null) {
-				array.add(JsonNull.INSTANCE);
-			} else {
-				array.add(new JsonPrimitive(value));
-			}
+		public JsonArrayBuilder<P, R> add(boolean[] values) {
+			context.addPrimitives(null, values, 0, values == null ? 0 : values.length);
 			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder<P, R> addNull() {
-			JsonArray array = ((JsonArray) context);
-			array.add(JsonNull.INSTANCE);
+		public JsonArrayBuilder<P, R> add(boolean[] values, int offset, int length) {
+			context.addPrimitives(null, values, offset, length);
 			return this;
 		}
 
 		@Override
 		public JsonObjectBuilder<P, R> addNull(String key) {
-			JsonObject obj = ((JsonObject) context);
-			obj.add(key, JsonNull.INSTANCE);
+			context.addNull(key);
 			return this;
 		}
 
 		@Override
 		public void write(JsonWriter out) throws IOException {
-			write(out, root);
+			write(new GsonSink(out, false), JsonMetrics.Output.TEXT, null);
+		}
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+			write(Utf8Sink.of(out));
+		}
+
+		@Override
+		public void write(OutputStream out, Format format) throws IOException {
+			if (format == Format.JSON) {
+				write(out);
+				return;
+			}
+			BinarySink sink = BinarySink.of(format);
+			write(sink, JsonMetrics.Output.BINARY, sink::length);
+			sink.writeTo(out);
+		}
+
+		@Override
+		public void write(OutputStream out, Compression compression) throws IOException {
+			Utf8Sink.DeflaterSink sink = new Utf8Sink.DeflaterSink(out, compression);
+			try {
+				write(sink);
+			} finally {
+				sink.release();
+			}
+		}
+
+		@Override
+		public void write(ByteBuffer out) throws IOException {
+			int position = out.position();
+			try {
+				write(Utf8Sink.of(out));
+			} catch (BufferOverflowException e) {
+				out.position(position);
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(WritableByteChannel out) throws IOException {
+			write(Utf8Sink.of(out));
 		}
 
 		@Override
 		public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Iterable<T> objects) {
-			JsonArrayBuilder<?, JsonArray> array = createArray(objects, transform);
-			add(key, array);
+			context.add(key, createArray(objects, transform));
 			return this;
 		}
 
-		private <T> JsonArrayBuilder<?, JsonArray> createArray(Iterable<T> objects, Mapper<T> transform) {
-			JsonArrayBuilder<?, JsonArray> array = JsonBuilderFactory.buildArray();
-			for (T o : objects) {
-				array.add(transform.map(o));
-			}
+		private <T> Node createArray(Iterable<T> objects, Mapper<T> transform) {
+			Node array = new Node(false);
+			mapAll(transform, objects, new Impl<Impl<P, R>, R>(root, this, array));
 			return array;
 		}
 
+		/**
+		 * Streaming mappers add straight to the target rather than returning
+		 * a builder per object.
+		 */
+		private static <T> void mapAll(Mapper<T> transform, Iterable<T> objects, Impl<?, ?> target) {
+			transform = Metered.mapper(transform);
+			if (transform instanceof StreamingMapper) {
+				StreamingMapper<T> streaming = (StreamingMapper<T>) transform;
+				for (T o : objects) {
+					streaming.map(o, target);
+				}
+			} else {
+				for (T o : objects) {
+					add(target.context, null, transform.map(o));
+				}
+			}
+		}
+
+		private static <T> void mapAll(Mapper<T> transform, Stream<T> objects, Impl<?, ?> target) {
+			transform = Metered.mapper(transform);
+			if (transform instanceof StreamingMapper && !objects.isParallel()) {
+				StreamingMapper<T> streaming = (StreamingMapper<T>) transform;
+				objects.forEachOrdered(o -> streaming.map(o, target));
+			} else {
+				ParallelMapping.map(transform, objects.spliterator(), objects.isParallel(),
+						b -> add(target.context, null, b));
+			}
+		}
+
 		@Override
 		public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, T... objects) {
+			transform = Metered.mapper(transform);
 			for (T object : objects) {
 				add(key, transform.map(object));
 			}
@@ -315,118 +1114,183 @@ public class JsonBuilderFactory {
 
 		@Override
 		public <T> JsonArrayBuilder<P, R> add(Mapper<T> transform, Iterable<T> objects) {
-			JsonArrayBuilder<?, JsonArray> array = createArray(objects, transform);
-			add(array);
+			context.add(null, createArray(objects, transform));
 			return this;
 		}
 
 		@Override
 		public <T> JsonArrayBuilder<P, R> add(Mapper<T> transform, T... objects) {
-			for (T object : objects) {
-				add(transform.map(object));
+			mapAll(transform, Arrays.asList(objects), this);
+			return this;
+		}
+
+		@Override
+		public JsonArrayBuilder<P, R> addAll(Iterable<? extends JsonBuilder> builders) {
+			for (JsonBuilder o : builders) {
+				add(o);
 			}
 			return this;
 		}
 
-		/**
-		 * Serialization code copied from GSON
-		 */
-		private void write(JsonWriter out, JsonElement value) throws IOException {
-			if (value == null || value.isJsonNull()) {
-				out.nullValue();
-			} else if (value.isJsonPrimitive()) {
-				JsonPrimitive primitive = value.getAsJsonPrimitive();
-				if (primitive.isNumber()) {
-					out.value(primitive.getAsNumber());
-				} else if (primitive.isBoolean()) {
-					out.value(primitive.getAsBoolean());
-				} else {
-					out.value(primitive.getAsString());
-				}
+		@Override
+		public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Iterable<T> objects) {
+			mapAll(transform, objects, this);
+			return this;
+		}
 
-			} else if (value.isJsonArray()) {
-				out.beginArray();
-				for (JsonElement e : value.getAsJsonArray()) {
-					write(out, e);
-				}
-				out.endArray();
+		@Override
+		public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Iterable<T> objects, Executor executor) {
+			ParallelMapping.map(transform, objects, executor, b -> add(context, null, b));
+			return this;
+		}
 
-			} else if (value.isJsonObject()) {
-				out.beginObject();
-				for (Map.Entry<String, JsonElement> e : value.getAsJsonObject().entrySet()) {
-					out.name(e.getKey());
-					write(out, e.getValue());
-				}
-				out.endObject();
+		@Override
+		public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Stream<T> objects) {
+			mapAll(transform, objects, this);
+			return this;
+		}
 
-			} else {
-				throw new IllegalArgumentException("Couldn't write " + value.getClass());
-			}
+		@Override
+		public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Iterable<T> objects, Executor executor) {
+			Node array = new Node(false);
+			ParallelMapping.map(transform, objects, executor, b -> add(array, null, b));
+			context.add(key, array);
+			return this;
 		}
 
 		@Override
-		public JsonArrayBuilder<P, R> addAll(Iterable<? extends JsonBuilder> builders) {
-			for (JsonBuilder o : builders) {
-				add(o);
-			}
+		public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Stream<T> objects) {
+			Node array = new Node(false);
+			mapAll(transform, objects, new Impl<Impl<P, R>, R>(root, this, array));
+			context.add(key, array);
 			return this;
 		}
 
 		@Override
-		public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Iterable<T> objects) {
-			for (T o : objects) {
-				add(transform.map(o));
-			}
+		public <T> JsonObjectBuilder<P, R> addLazy(String key, Mapper<T> transform, Iterable<T> objects) {
+			context.add(key, new LazyArray<T>(transform, objects));
+			return this;
+		}
+
+		@Override
+		public <T> JsonObjectBuilder<P, R> addLazy(String key, Mapper<T> transform, Stream<T> objects) {
+			context.add(key, new LazyArray<T>(transform, objects));
+			return this;
+		}
+
+		@Override
+		public <T> JsonArrayBuilder<P, R> addLazy(Mapper<T> transform, Iterable<T> objects) {
+			context.add(null, new LazyArray<T>(transform, objects));
+			return this;
+		}
+
+		@Override
+		public <T> JsonArrayBuilder<P, R> addLazy(Mapper<T> transform, Stream<T> objects) {
+			context.add(null, new LazyArray<T>(transform, objects));
 			return this;
 		}
 
 		@Override
 		public JsonObjectBuilder<P, R> add(String key, Temporal value) {
-			JsonObject obj = (JsonObject) context;
-			if (value == null) {
-				obj.add(key, JsonNull.INSTANCE);
-			} else {
-				obj.add(key, new JsonPrimitive(value.toString()));
-			}
+			context.add(key, value);
 			return this;
 		}
 
 		@Override
 		public JsonObjectBuilder<P, R> add(String key, Date value) {
-			JsonObject obj = (JsonObject) context;
-			if (value == null) {
-				obj.add(key, JsonNull.INSTANCE);
-			} else {
-				DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
-				dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-				String isoDate = dateFormat.format(value);
-				obj.add(key, new JsonPrimitive(isoDate));
-			}
+			context.add(key, value, datePrecision);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<JsonObjectBuilder<P, R>, R> addObject(JsonKey key) {
+			Node o = new Node(true);
+			context.add(key, o);
+			return new Impl<JsonObjectBuilder<P, R>, R>(root, this, o);
+		}
+
+		@Override
+		public JsonArrayBuilder<JsonObjectBuilder<P, R>, R> addArray(JsonKey key) {
+			Node o = new Node(false);
+			context.add(key, o);
+			return new Impl<JsonObjectBuilder<P, R>, R>(root, this, o);
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, JsonBuilder builder) {
+			add(context, key, builder);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, Number value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, int value) {
+			context.add(key, (long) value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, long value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, double value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, boolean value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, String value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> addRaw(JsonKey key, CharSequence json) {
+			context.addRaw(key, json);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, Temporal value) {
+			context.add(key, value);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> add(JsonKey key, Date value) {
+			context.add(key, value, datePrecision);
+			return this;
+		}
+
+		@Override
+		public JsonObjectBuilder<P, R> addNull(JsonKey key) {
+			context.addNull(key);
 			return this;
 		}
 
 		@Override
 		public JsonArrayBuilder<P, R> add(Date value) {
-			JsonArray array = ((JsonArray) context);
-			if (value == null) {
-				array.add(JsonNull.INSTANCE);
-			} else {
-				DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
-				dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-				String isoDate = dateFormat.format(value);
-				array.add(new JsonPrimitive(isoDate));
-			}
+			context.add(null, value, datePrecision);
 			return this;
 		}
 
 		@Override
 		public JsonArrayBuilder<P, R> add(Temporal value) {
-			JsonArray array = ((JsonArray) context);
-			if (value == null) {
-				array.add(JsonNull.INSTANCE);
-			} else {
-				array.add(new JsonPrimitive(value.toString()));
-			}
+			context.add(null, value);
 			return this;
 		}
 	}
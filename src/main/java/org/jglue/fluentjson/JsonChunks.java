@@ -0,0 +1,159 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A document as UTF-8 chunks of a fixed size, serialized only as each chunk
+ * is asked for. Between chunks the document is not being walked, so a
+ * consumer that applies backpressure can take a large document a chunk at a
+ * time with memory bounded by the chunk size. Reactive streams can use
+ * {@link JsonBuilderFactory#publish(JsonBuilder, int)} instead.
+ * 
+ * <pre>
+ * JsonChunks chunks = JsonBuilderFactory.chunks(builder, 8192);
+ * while (chunks.hasNext()) {
+ * 	channel.write(chunks.next());
+ * }
+ * </pre>
+ * 
+ * Every chunk but the last is exactly the chunk size. The document is only
+ * paused between values, so a single value that is larger than a chunk, such
+ * as a long string, a frozen builder, a lazy array or rows, is serialized
+ * whole and then handed out over several chunks. Values added with a future
+ * wait for it to complete.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+public final class JsonChunks implements Iterator<ByteBuffer> {
+
+	private final int chunkSize;
+	private final Sink sink;
+	private final JsonSink out;
+	private final Metered.Sink measured;
+	private final JsonMetrics metrics = JsonBuilderFactory.getMetrics();
+	private final Node.Walker walker;
+	/**
+	 * The first byte in the buffer that hasn't been handed out.
+	 */
+	private int start;
+	private boolean ended;
+
+	/**
+	 * @param root
+	 *            The node to walk, or null to write the builder in one go.
+	 */
+	JsonChunks(Node root, JsonBuilder builder, int chunkSize) throws IOException {
+		this.chunkSize = chunkSize;
+		sink = new Sink(chunkSize);
+		measured = metrics == null ? null : new Metered.Sink(sink, metrics);
+		out = measured == null ? sink : measured;
+		if (root != null && root.serialized == null) {
+			walker = new Node.Walker(root);
+			return;
+		}
+		walker = null;
+		if (root != null) {
+			out.frozen(root);
+		} else {
+			JsonBuilderFactory.write(out, builder);
+		}
+		end();
+	}
+
+	private void end() {
+		ended = true;
+		if (measured != null) {
+			measured.report(JsonMetrics.Output.UTF8, sink.length());
+		}
+	}
+
+	/**
+	 * Serialize more of the document if less than a chunk is left to hand
+	 * out.
+	 */
+	private void fill() {
+		if (ended || sink.pos - start >= chunkSize) {
+			return;
+		}
+		int remaining = sink.pos - start;
+		System.arraycopy(sink.buf, start, sink.buf, 0, remaining);
+		sink.drained += start;
+		sink.pos = remaining;
+		start = 0;
+		try {
+			if (walker.walk(out, sink, chunkSize)) {
+				end();
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * @return whether every chunk has been taken, without serializing any more
+	 *         of the document to find out.
+	 */
+	boolean done() {
+		return ended && sink.pos == start;
+	}
+
+	@Override
+	public boolean hasNext() {
+		fill();
+		return sink.pos > start;
+	}
+
+	/**
+	 * @return the next chunk, in a buffer of its own that is ready to be read.
+	 */
+	@Override
+	public ByteBuffer next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int length = Math.min(chunkSize, sink.pos - start);
+		ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(sink.buf, start, start + length));
+		start += length;
+		return chunk;
+	}
+
+	/**
+	 * Grows its array when a value doesn't fit.
+	 */
+	private static final class Sink extends Utf8Sink {
+
+		Sink(int chunkSize) {
+			super(new byte[Math.max(16, chunkSize * 2)], 0, Math.max(16, chunkSize * 2));
+		}
+
+		@Override
+		protected void drain() {
+			buf = Arrays.copyOf(buf, buf.length * 2);
+			limit = buf.length;
+		}
+
+		@Override
+		void finish() {
+		}
+	}
+}
@@ -0,0 +1,532 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.temporal.Temporal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out the RFC 6902 JSON Patch that turns one document in to another.
+ * Both documents are first copied in to plain nodes, hashing every subtree
+ * on the way, so that identical branches are skipped without being visited.
+ * Arrays are matched by their common prefix and suffix, and then by a
+ * longest common subsequence of the elements in between, which gives up in
+ * favour of comparing by position if the arrays differ too much.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class JsonDiff {
+
+	/**
+	 * The most differences between two arrays that are looked for before
+	 * comparing their elements by position instead.
+	 */
+	private static final int MAX_EDITS = 1000;
+
+	private static final byte MATCH = 0;
+	private static final byte DELETE = 1;
+	private static final byte INSERT = 2;
+
+	/**
+	 * The hash of each slot of every node, followed by the hash of the node.
+	 */
+	private final Map<Node, long[]> hashes = new IdentityHashMap<Node, long[]>();
+	private final Node patch = new Node(false);
+
+	/**
+	 * Pairs of nodes still to compare, along with their paths.
+	 */
+	private final Deque<Object[]> pending = new ArrayDeque<Object[]>();
+
+	private JsonDiff() {
+	}
+
+	/**
+	 * @return the patch, as an array of operations.
+	 */
+	static Node diff(JsonBuilder before, JsonBuilder after) {
+		JsonDiff diff = new JsonDiff();
+		Node from = diff.copy(before);
+		Node to = diff.copy(after);
+		diff.compare(from, 0, to, 0, "");
+		while (!diff.pending.isEmpty()) {
+			Object[] pair = diff.pending.pop();
+			diff.compare((Node) pair[0], (Node) pair[1], (String) pair[2]);
+		}
+		return diff.patch;
+	}
+
+	/**
+	 * @return an array holding a copy of the document as its only element.
+	 */
+	private Node copy(JsonBuilder builder) {
+		Copy copy = new Copy();
+		try {
+			JsonBuilderFactory.write(copy, builder);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return copy.holder;
+	}
+
+	private long hash(Node node, int i) {
+		return hashes.get(node)[i];
+	}
+
+	/**
+	 * Compare a slot of each node, which must either be equal, replaced or
+	 * compared further.
+	 */
+	private void compare(Node from, int i, Node to, int j, String path) {
+		if (equal(from, i, to, j)) {
+			return;
+		}
+		if (from.types[i] == Node.NODE && to.types[j] == Node.NODE) {
+			Node a = (Node) from.refs[i];
+			Node b = (Node) to.refs[j];
+			if (a.object == b.object) {
+				pending.push(new Object[] { a, b, path });
+				return;
+			}
+		}
+		operation("replace", path).add("value", to, j);
+	}
+
+	private void compare(Node from, Node to, String path) {
+		if (from.object) {
+			compareObjects(from, to, path);
+		} else {
+			compareArrays(from, to, path);
+		}
+	}
+
+	private void compareObjects(Node from, Node to, String path) {
+		for (int i = 0; i < from.size; i++) {
+			String key = (String) from.keys[i];
+			if (to.indexOf(key) == -1) {
+				operation("remove", path(path, key));
+			}
+		}
+		for (int j = 0; j < to.size; j++) {
+			String key = (String) to.keys[j];
+			int i = from.indexOf(key);
+			if (i == -1) {
+				operation("add", path(path, key)).add("value", to, j);
+			} else {
+				compare(from, i, to, j, path(path, key));
+			}
+		}
+	}
+
+	private void compareArrays(Node from, Node to, String path) {
+		int start = 0;
+		while (start < from.size && start < to.size && equal(from, start, to, start)) {
+			start++;
+		}
+		int endFrom = from.size;
+		int endTo = to.size;
+		while (endFrom > start && endTo > start && equal(from, endFrom - 1, to, endTo - 1)) {
+			endFrom--;
+			endTo--;
+		}
+		byte[] script = script(from, start, endFrom, to, start, endTo);
+		if (script == null) {
+			int common = Math.min(endFrom, endTo);
+			for (int i = start; i < common; i++) {
+				compare(from, i, to, i, path(path, i));
+			}
+			for (int i = common; i < endFrom; i++) {
+				operation("remove", path(path, common));
+			}
+			for (int j = common; j < endTo; j++) {
+				operation("add", path(path, j)).add("value", to, j);
+			}
+			return;
+		}
+		int i = start;
+		int j = start;
+		int index = start;
+		int k = 0;
+		while (k < script.length) {
+			if (script[k] == MATCH) {
+				i++;
+				j++;
+				index++;
+				k++;
+				continue;
+			}
+			int deleted = 0;
+			int inserted = 0;
+			for (; k < script.length && script[k] != MATCH; k++) {
+				if (script[k] == DELETE) {
+					deleted++;
+				} else {
+					inserted++;
+				}
+			}
+			// Elements replaced by others are compared, as they are often
+			// the same element changed.
+			int replaced = Math.min(deleted, inserted);
+			for (int n = 0; n < replaced; n++) {
+				compare(from, i++, to, j++, path(path, index++));
+			}
+			for (int n = replaced; n < deleted; n++) {
+				operation("remove", path(path, index));
+				i++;
+			}
+			for (int n = replaced; n < inserted; n++) {
+				operation("add", path(path, index++)).add("value", to, j++);
+			}
+		}
+	}
+
+	/**
+	 * Myers' algorithm for the shortest edit script between two ranges of
+	 * elements, keeping only the diagonals reached at each number of edits.
+	 *
+	 * @return the script, or null if there are more than {@link #MAX_EDITS}
+	 *         edits.
+	 */
+	private byte[] script(Node a, int aStart, int aEnd, Node b, int bStart, int bEnd) {
+		int n = aEnd - aStart;
+		int m = bEnd - bStart;
+		List<int[]> trace = new ArrayList<int[]>();
+		for (int d = 0; d <= n + m; d++) {
+			if (d > MAX_EDITS) {
+				return null;
+			}
+			int[] previous = d == 0 ? null : trace.get(d - 1);
+			int[] v = new int[2 * d + 1];
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (d == 0) {
+					x = 0;
+				} else if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) {
+					x = previous[k + 1 + d - 1];
+				} else {
+					x = previous[k - 1 + d - 1] + 1;
+				}
+				int y = x - k;
+				while (x < n && y < m && equal(a, aStart + x, b, bStart + y)) {
+					x++;
+					y++;
+				}
+				v[k + d] = x;
+				if (x >= n && y >= m) {
+					trace.add(v);
+					return backtrack(trace, n, m);
+				}
+			}
+			trace.add(v);
+		}
+		throw new AssertionError();
+	}
+
+	private static byte[] backtrack(List<int[]> trace, int n, int m) {
+		byte[] script = new byte[n + m];
+		int length = 0;
+		int x = n;
+		int y = m;
+		for (int d = trace.size() - 1; d > 0; d--) {
+			int[] previous = trace.get(d - 1);
+			int k = x - y;
+			boolean insert = k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]);
+			int previousK = insert ? k + 1 : k - 1;
+			int previousX = previous[previousK + d - 1];
+			int previousY = previousX - previousK;
+			int startX = insert ? previousX : previousX + 1;
+			while (x > startX) {
+				script[length++] = MATCH;
+				x--;
+				y--;
+			}
+			script[length++] = insert ? INSERT : DELETE;
+			x = previousX;
+			y = previousY;
+		}
+		while (x > 0) {
+			script[length++] = MATCH;
+			x--;
+		}
+		script = Arrays.copyOf(script, length);
+		for (int i = 0, j = length - 1; i < j; i++, j--) {
+			byte t = script[i];
+			script[i] = script[j];
+			script[j] = t;
+		}
+		return script;
+	}
+
+	/**
+	 * @return whether a slot of each node holds the same value. Hashes that
+	 *         differ rule it out, and hashes that match are confirmed by
+	 *         comparing the values.
+	 */
+	private boolean equal(Node from, int i, Node to, int j) {
+		if (hash(from, i) != hash(to, j)) {
+			return false;
+		}
+		if (from.types[i] != Node.NODE || to.types[j] != Node.NODE) {
+			return same(from, i, to, j);
+		}
+		Deque<Node> unchecked = new ArrayDeque<Node>();
+		unchecked.push((Node) from.refs[i]);
+		unchecked.push((Node) to.refs[j]);
+		while (!unchecked.isEmpty()) {
+			Node b = unchecked.pop();
+			Node a = unchecked.pop();
+			if (a.object != b.object || a.size != b.size) {
+				return false;
+			}
+			for (int k = 0; k < a.size; k++) {
+				int l = a.object ? b.indexOf((String) a.keys[k]) : k;
+				if (l == -1 || hash(a, k) != hash(b, l)) {
+					return false;
+				}
+				if (a.types[k] == Node.NODE && b.types[l] == Node.NODE) {
+					unchecked.push((Node) a.refs[k]);
+					unchecked.push((Node) b.refs[l]);
+				} else if (!same(a, k, b, l)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether two slots, which aren't both nodes, hold the same value.
+	 *         Numbers held as objects are compared by their Json text.
+	 */
+	private static boolean same(Node from, int i, Node to, int j) {
+		if (from.types[i] != to.types[j] || from.values[i] != to.values[j]) {
+			return false;
+		}
+		Object a = from.refs[i];
+		Object b = to.refs[j];
+		if (a instanceof Number && b instanceof Number) {
+			return a.toString().equals(b.toString());
+		}
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private Node operation(String op, String path) {
+		Node operation = new Node(true);
+		operation.add("op", op);
+		operation.add("path", path);
+		patch.add(null, operation);
+		return operation;
+	}
+
+	/**
+	 * @return the JSON Pointer to a member of an object.
+	 */
+	private static String path(String path, String key) {
+		if (key.indexOf('~') != -1 || key.indexOf('/') != -1) {
+			key = key.replace("~", "~0").replace("/", "~1");
+		}
+		return path + '/' + key;
+	}
+
+	private static String path(String path, int index) {
+		return path + '/' + index;
+	}
+
+	/**
+	 * @return a hash of the content of a string, as the 32 bit
+	 *         {@link String#hashCode()} collides too easily.
+	 */
+	private static long hash(String s) {
+		long h = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			h = (h ^ s.charAt(i)) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Copies a document in to plain nodes, hashing each node when it ends.
+	 */
+	private final class Copy implements JsonSink {
+		private final Node holder = new Node(false);
+		private final Deque<Node> open = new ArrayDeque<Node>();
+		private Node node = holder;
+		private String name;
+
+		private String key() {
+			String key = name;
+			name = null;
+			return key;
+		}
+
+		private void begin(boolean object) {
+			Node child = new Node(object);
+			node.add(key(), child);
+			open.push(node);
+			node = child;
+		}
+
+		private void end() {
+			hash(node);
+			node = open.pop();
+			if (node == holder) {
+				hash(holder);
+			}
+		}
+
+		private void hash(Node node) {
+			long[] slots = new long[node.size + 1];
+			long h = node.object ? 1 : 2;
+			for (int i = 0; i < node.size; i++) {
+				long slot;
+				Object ref = node.refs[i];
+				if (node.types[i] == Node.NODE) {
+					long[] child = hashes.get(ref);
+					slot = child[child.length - 1];
+				} else {
+					slot = mix(node.types[i] * 31L + node.values[i]) + (ref == null ? 0 : JsonDiff.hash(ref.toString()));
+				}
+				slots[i] = mix(slot);
+				if (node.object) {
+					h = mix(h + JsonDiff.hash((String) node.keys[i]));
+				}
+				h = mix(h + slots[i]);
+			}
+			slots[node.size] = h;
+			hashes.put(node, slots);
+		}
+
+		/**
+		 * A simple value written at the top level is the whole document.
+		 */
+		private void added() {
+			if (node == holder) {
+				hash(holder);
+			}
+		}
+
+		@Override
+		public void beginObject() {
+			begin(true);
+		}
+
+		@Override
+		public void endObject() {
+			end();
+		}
+
+		@Override
+		public void beginArray() {
+			begin(false);
+		}
+
+		@Override
+		public void endArray() {
+			end();
+		}
+
+		@Override
+		public void name(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void nullValue() {
+			node.addNull(key());
+			added();
+		}
+
+		@Override
+		public void value(boolean value) {
+			node.add(key(), value);
+			added();
+		}
+
+		@Override
+		public void value(long value) {
+			node.add(key(), value);
+			added();
+		}
+
+		@Override
+		public void value(double value) {
+			node.add(key(), value);
+			added();
+		}
+
+		@Override
+		public void value(float value) {
+			node.add(key(), value);
+			added();
+		}
+
+		/**
+		 * Integers are held as longs where they fit, so that they match
+		 * however they were added.
+		 */
+		@Override
+		public void value(Number value) {
+			if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				node.add(key(), value.longValue());
+			} else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+				node.add(key(), value.longValue());
+			} else {
+				node.add(key(), value);
+			}
+			added();
+		}
+
+		@Override
+		public void value(String value) {
+			node.add(key(), value);
+			added();
+		}
+
+		@Override
+		public void date(long millis, DatePrecision precision) {
+			node.add(key(), new Date(millis), precision);
+			added();
+		}
+
+		@Override
+		public void temporal(Temporal value) {
+			node.add(key(), value);
+			added();
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An object key that is escaped and encoded once rather than every time it is
+ * written. Keys are interned, so declare them as constants for field names
+ * that are used over and over.
+ *
+ * <pre>
+ * private static final JsonKey TIMESTAMP = JsonKey.of(&quot;timestamp&quot;);
+ * </pre>
+ *
+ * @author Bryn Cooke
+ *
+ */
+public final class JsonKey {
+
+	private static final ConcurrentMap<String, JsonKey> KEYS = new ConcurrentHashMap<String, JsonKey>();
+
+	/**
+	 * The cache of recently written plain string keys has 2^CACHE_BITS slots.
+	 */
+	private static final int CACHE_BITS = 10;
+
+	/**
+	 * Longer keys are unlikely to repeat, so they are written directly.
+	 */
+	private static final int MAX_CACHED_LENGTH = 64;
+
+	/**
+	 * Keys are immutable, so racing threads can only lose an entry.
+	 */
+	private static final JsonKey[] CACHE = new JsonKey[1 << CACHE_BITS];
+
+	private final String name;
+
+	/**
+	 * The quoted and escaped name followed by a colon as UTF-8.
+	 */
+	final byte[] utf8;
+
+	private JsonKey(String name) {
+		this(name, Utf8Sink.encodeName(name));
+	}
+
+	private JsonKey(String name, byte[] utf8) {
+		this.name = name;
+		this.utf8 = utf8;
+	}
+
+	/**
+	 * @param name
+	 *            The name of the key.
+	 * @return the key for the name.
+	 */
+	public static JsonKey of(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("Key must not be null");
+		}
+		JsonKey key = KEYS.get(name);
+		if (key == null) {
+			key = new JsonKey(name);
+			JsonKey existing = KEYS.putIfAbsent(name, key);
+			if (existing != null) {
+				key = existing;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * @return the key for a plain string key if it was written recently, or
+	 *         null.
+	 */
+	static JsonKey cached(String name) {
+		if (name.length() > MAX_CACHED_LENGTH) {
+			return null;
+		}
+		JsonKey key = CACHE[slot(name)];
+		return key != null && key.name.equals(name) ? key : null;
+	}
+
+	/**
+	 * Remember a plain string key that has just been written, replacing the
+	 * key that was in its slot.
+	 * 
+	 * @param utf8
+	 *            The quoted and escaped name followed by a colon as UTF-8.
+	 */
+	static void cache(String name, byte[] utf8) {
+		if (name.length() <= MAX_CACHED_LENGTH) {
+			CACHE[slot(name)] = new JsonKey(name, utf8);
+		}
+	}
+
+	/**
+	 * The hash is spread with a multiply so that names whose hashes differ
+	 * only in their high bits don't share a slot.
+	 */
+	private static int slot(String name) {
+		return (name.hashCode() * 0x9e3779b9) >>> (32 - CACHE_BITS);
+	}
+
+	/**
+	 * @return the name of the key.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof JsonKey && ((JsonKey) obj).name.equals(name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
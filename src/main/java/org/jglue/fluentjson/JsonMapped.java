@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class or record for which the fluent-json-processor annotation
+ * processor generates a {@link StreamingMapper} at compile time. For a type named
+ * Person the generated PersonMapper sits in the same package and has a
+ * shared INSTANCE.
+ * <p>
+ * Public fields and public getters become properties, as do the components
+ * of records. Properties may be anything that can be added to a builder,
+ * enums, other mapped types, or arrays and iterables of those.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonMapped {
+
+}
@@ -0,0 +1,121 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+/**
+ * Receives measurements of the documents written by builders from
+ * {@link JsonBuilderFactory} and the time spent in {@link Mapper}s. Install
+ * an implementation with {@link JsonBuilderFactory#setMetrics(JsonMetrics)};
+ * when none is installed nothing is measured.
+ * 
+ * Implementations are called on the thread doing the work, including the
+ * threads of parallel mappings, so they must be thread safe and quick.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+public interface JsonMetrics {
+
+	/**
+	 * What a document was written as.
+	 */
+	enum Output {
+		/**
+		 * Characters, from {@link Object#toString()} or a writer. Lengths are
+		 * in chars.
+		 */
+		TEXT,
+		/**
+		 * UTF-8 bytes. Lengths are in bytes.
+		 */
+		UTF8,
+		/**
+		 * A binary {@link Format}. Lengths are in bytes.
+		 */
+		BINARY,
+		/**
+		 * A Gson tree from {@link JsonBuilder#getJson()}, which has no
+		 * length.
+		 */
+		TREE
+	}
+
+	/**
+	 * Called on the thread that is about to write a document, for
+	 * implementations that mark the start of the work themselves.
+	 * 
+	 * @return A token that is passed to
+	 *         {@link #written(Object, Output, int, int, long, long)} once the
+	 *         document has been written, or null.
+	 */
+	default Object writing() {
+		return null;
+	}
+
+	/**
+	 * Called after a document has been written.
+	 * 
+	 * @param started
+	 *            What {@link #writing()} returned.
+	 * @param output
+	 *            What the document was written as.
+	 * @param values
+	 *            The number of values written, counting each object and array
+	 *            as one.
+	 * @param depth
+	 *            How deeply objects and arrays were nested, where the root is
+	 *            depth 1.
+	 * @param length
+	 *            The length of the output, or -1 if it isn't known.
+	 * @param nanos
+	 *            The time taken to write the document.
+	 */
+	void written(Object started, Output output, int values, int depth, long length, long nanos);
+
+	/**
+	 * Called on the thread that is about to map an object, for
+	 * implementations that mark the start of the work themselves.
+	 * 
+	 * @return A token that is passed to {@link #mapped(Object, Mapper, long)}
+	 *         once the object has been mapped, or null.
+	 */
+	default Object mapping() {
+		return null;
+	}
+
+	/**
+	 * Called after a mapper has mapped an object.
+	 * 
+	 * @param started
+	 *            What {@link #mapping()} returned.
+	 * @param mapper
+	 *            The mapper.
+	 * @param nanos
+	 *            The time taken by the mapper.
+	 */
+	void mapped(Object started, Mapper<?> mapper, long nanos);
+
+	/**
+	 * @return metrics that emit JDK Flight Recorder events named
+	 *         <code>fluentjson.Write</code> and
+	 *         <code>fluentjson.MapperInvoke</code>. Events are only created
+	 *         while a recording has them enabled. Requires a JVM with the
+	 *         <code>jdk.jfr</code> API.
+	 */
+	static JsonMetrics flightRecorder() {
+		return new FlightRecorderMetrics();
+	}
+}
@@ -17,6 +17,9 @@ package org.jglue.fluentjson;
 
 import java.time.temporal.Temporal;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 
 
@@ -48,6 +51,15 @@ public interface JsonObjectBuilder<P, R> extends JsonBuilder {
      */
     public P end();
 
+    /**
+     * Make the whole document this builder belongs to immutable and serialize it once, so that
+     * adding it to other builders copies the serialized form instead of walking it again.
+     * Frozen builders can be shared between threads.
+     * @return the builder
+     * @throws IllegalStateException if the document is changed afterwards.
+     */
+    public JsonObjectBuilder<P, R> freeze();
+
     
     /**
      * Add an array of elements assigned to a key.
@@ -69,6 +81,59 @@ public interface JsonObjectBuilder<P, R> extends JsonBuilder {
      * @return The current builder.
      */
     public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Iterable<T> objects);
+
+    /**
+     * Add an array of elements assigned to a key, mapping them concurrently on
+     * the executor while keeping their order.
+     * 
+     * @param key The key for the new element.
+     * @param transform The transformer for the object, which must be thread safe.
+     * @param objects The objects to add.
+     * @param executor The executor to map the objects on.
+     * @param <T> The type of the objects
+     * @return The current builder.
+     */
+    public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Iterable<T> objects, Executor executor);
+
+    /**
+     * Add an array of elements assigned to a key, keeping their order.
+     * Parallel streams are mapped on the fork join pool.
+     * 
+     * @param key The key for the new element.
+     * @param transform The transformer for the object.
+     * @param objects The objects to add.
+     * @param <T> The type of the objects
+     * @return The current builder.
+     */
+    public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Stream<T> objects);
+
+    /**
+     * Add an array of elements assigned to a key that are only mapped when the
+     * builder is written, so that they never all have to be held in memory.
+     * The iterable is asked for a new iterator each time the builder is
+     * written or converted to a tree.
+     * 
+     * @param key The key for the new element.
+     * @param transform The transformer for the object.
+     * @param objects The objects to add.
+     * @param <T> The type of the objects
+     * @return The current builder.
+     */
+    public <T> JsonObjectBuilder<P, R> addLazy(String key, Mapper<T> transform, Iterable<T> objects);
+
+    /**
+     * Add an array of elements assigned to a key that are only mapped when the
+     * builder is written, so that they never all have to be held in memory.
+     * A stream can only be consumed once, so the builder can only be written
+     * or converted to a tree once.
+     * 
+     * @param key The key for the new element.
+     * @param transform The transformer for the object.
+     * @param objects The objects to add.
+     * @param <T> The type of the objects
+     * @return The current builder.
+     */
+    public <T> JsonObjectBuilder<P, R> addLazy(String key, Mapper<T> transform, Stream<T> objects);
     
     
 
@@ -80,6 +145,18 @@ public interface JsonObjectBuilder<P, R> extends JsonBuilder {
      * @return The current builder.
      */
     public JsonObjectBuilder<P, R> add(String key, JsonBuilder builder);
+
+    /**
+     * Add an element assigned to a key whose builder is still being made,
+     * perhaps by another thread. The builder must be complete when the
+     * future completes. Writing only waits when it reaches the element,
+     * passing on everything written before it to the output first.
+     * 
+     * @param key The key for the new element.
+     * @param builder The future builder for the element.
+     * @return The current builder.
+     */
+    public JsonObjectBuilder<P, R> addAsync(String key, CompletableFuture<? extends JsonBuilder> builder);
     
     /**
      * Add a single element assigned to a key.
@@ -119,6 +196,170 @@ public interface JsonObjectBuilder<P, R> extends JsonBuilder {
      * @return the current builder.
      */
     public JsonObjectBuilder<P, R> add(String key, Number value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, int value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, long value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, double value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, float value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, boolean value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, char value);
+
+    /**
+     * Add an array property. The values are copied, and written in a single
+     * pass without creating an element for each.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign, or null to assign null.
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, int[] values);
+
+    /**
+     * Add an array property holding part of an array of values.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign from, or null to assign null.
+     * @param offset the index of the first value to assign.
+     * @param length the number of values to assign.
+     * @return the current builder.
+     * @throws IndexOutOfBoundsException if the part isn't within the values.
+     */
+    public JsonObjectBuilder<P, R> add(String key, int[] values, int offset, int length);
+
+    /**
+     * Add an array property. The values are copied, and written in a single
+     * pass without creating an element for each.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign, or null to assign null.
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, long[] values);
+
+    /**
+     * Add an array property holding part of an array of values.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign from, or null to assign null.
+     * @param offset the index of the first value to assign.
+     * @param length the number of values to assign.
+     * @return the current builder.
+     * @throws IndexOutOfBoundsException if the part isn't within the values.
+     */
+    public JsonObjectBuilder<P, R> add(String key, long[] values, int offset, int length);
+
+    /**
+     * Add an array property. The values are copied, and written in a single
+     * pass without creating an element for each.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign, or null to assign null.
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, double[] values);
+
+    /**
+     * Add an array property holding part of an array of values.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign from, or null to assign null.
+     * @param offset the index of the first value to assign.
+     * @param length the number of values to assign.
+     * @return the current builder.
+     * @throws IndexOutOfBoundsException if the part isn't within the values.
+     */
+    public JsonObjectBuilder<P, R> add(String key, double[] values, int offset, int length);
+
+    /**
+     * Add an array property. The values are copied, and written in a single
+     * pass without creating an element for each.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign, or null to assign null.
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, float[] values);
+
+    /**
+     * Add an array property holding part of an array of values.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign from, or null to assign null.
+     * @param offset the index of the first value to assign.
+     * @param length the number of values to assign.
+     * @return the current builder.
+     * @throws IndexOutOfBoundsException if the part isn't within the values.
+     */
+    public JsonObjectBuilder<P, R> add(String key, float[] values, int offset, int length);
+
+    /**
+     * Add an array property. The values are copied, and written in a single
+     * pass without creating an element for each.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign, or null to assign null.
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(String key, boolean[] values);
+
+    /**
+     * Add an array property holding part of an array of values.
+     * 
+     * @param key The key for the property.
+     * @param values the values to assign from, or null to assign null.
+     * @param offset the index of the first value to assign.
+     * @param length the number of values to assign.
+     * @return the current builder.
+     * @throws IndexOutOfBoundsException if the part isn't within the values.
+     */
+    public JsonObjectBuilder<P, R> add(String key, boolean[] values, int offset, int length);
     
     /**
      * Add a null property. Note that other add methods also accept null. 
@@ -159,8 +400,140 @@ public interface JsonObjectBuilder<P, R> extends JsonBuilder {
 
 
 
+    /**
+     * Add a new object to this object using the specified key. 
+     * @param key The key.
+     * @return The builder for the new object.
+     */
+    public JsonObjectBuilder<JsonObjectBuilder<P, R>, R> addObject(JsonKey key);
+
+    /**
+     * Add a new array to this object using the specified key.
+     * @param key The key.
+     * @return A builder for the new object.
+     */
+    public JsonArrayBuilder<JsonObjectBuilder<P, R>, R> addArray(JsonKey key);
+
+    /**
+     * Add a single element assigned to a key.
+     * 
+     * @param key The key for the new element.
+     * @param builder The builder for the element.
+     * @return The current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, JsonBuilder builder);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, Number value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, int value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, long value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, double value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, boolean value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, String value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, Temporal value);
+
+    /**
+     * Add a simple property
+     * 
+     * @param key The key for the property.
+     * @param value the value to assign
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> add(JsonKey key, Date value);
+
+    /**
+     * Add a null property. Note that other add methods also accept null. 
+     * 
+     * @param key The key for the property.
+     * @return the current builder.
+     */
+    public JsonObjectBuilder<P, R> addNull(JsonKey key);
+
+    /**
+     * Add a property whose value is already serialized Json, which is written
+     * as it is rather than being parsed and escaped. Only sinks that can't
+     * take text, such as Gson trees and binary formats, parse it.
+     * 
+     * @param key The key for the property.
+     * @param json A single Json value, or null.
+     * @return the current builder.
+     * @see JsonBuilderFactory#setValidateRaw(boolean)
+     */
+    public JsonObjectBuilder<P, R> addRaw(String key, CharSequence json);
+
+    /**
+     * Add a property whose value is already serialized Json, which is written
+     * as it is rather than being parsed and escaped.
+     * 
+     * @param key The key for the property.
+     * @param json A single Json value, or null.
+     * @return the current builder.
+     * @see JsonBuilderFactory#setValidateRaw(boolean)
+     */
+    public JsonObjectBuilder<P, R> addRaw(JsonKey key, CharSequence json);
+
+
 	/**
-	 * @return the underlying JSONSimple object.
+	 * Build a Gson tree holding the content of the document. The tree is a
+	 * copy: it is returned again by later calls until the document, or a
+	 * builder that was added to it, is added to, after which a new tree is
+	 * built. Changes made to the tree are not seen by the builder.
+	 * 
+	 * @return the Gson tree for the whole document.
 	 */
 	public R getJson();
 }
\ No newline at end of file
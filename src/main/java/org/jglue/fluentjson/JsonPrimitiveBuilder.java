@@ -1,31 +1,33 @@
 package org.jglue.fluentjson;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
-import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonWriter;
 
 public class JsonPrimitiveBuilder implements JsonBuilder {
-	private JsonPrimitive primitive;
+	private Object value;
 	public JsonPrimitiveBuilder(Number n) {
-		primitive = new JsonPrimitive(n);
+		value = n;
 	}
 
 	public JsonPrimitiveBuilder(Character c) {
-		primitive = new JsonPrimitive(c);
+		value = c == null ? null : c.toString();
 	}
 
 	public JsonPrimitiveBuilder(Boolean b) {
-		primitive = new JsonPrimitive(b);
+		value = b;
 	}
 
 	public JsonPrimitiveBuilder(String s) {
-		primitive = new JsonPrimitive(s);
+		value = s;
 	}
 
-	JsonPrimitive getPrimitive() {
-		return primitive;
+	Object getValue() {
+		return value;
 	}
 	
 	@Override
@@ -38,4 +40,29 @@ public class JsonPrimitiveBuilder implements JsonBuilder {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public void write(OutputStream out) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void write(OutputStream out, Format format) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void write(OutputStream out, Compression compression) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void write(ByteBuffer out) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void write(WritableByteChannel out) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
 }
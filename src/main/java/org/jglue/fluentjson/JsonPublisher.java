@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a document as UTF-8 chunks, serializing each chunk only once a
+ * subscriber has asked for it. Each subscriber gets the whole document from
+ * the start. Chunks are delivered on whichever thread requests them.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+final class JsonPublisher implements Flow.Publisher<ByteBuffer> {
+
+	private final JsonBuilder builder;
+	private final int chunkSize;
+
+	JsonPublisher(JsonBuilder builder, int chunkSize) {
+		this.builder = builder;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("The subscriber must not be null");
+		}
+		JsonChunks chunks;
+		try {
+			chunks = JsonBuilderFactory.chunks(builder, chunkSize);
+		} catch (RuntimeException e) {
+			subscriber.onSubscribe(new Subscription(subscriber, null));
+			subscriber.onError(e);
+			return;
+		}
+		Subscription subscription = new Subscription(subscriber, chunks);
+		subscriber.onSubscribe(subscription);
+		subscription.drain();
+	}
+
+	/**
+	 * Hands out chunks against the outstanding demand. Only one thread at a
+	 * time serializes and delivers, and a request made from within onNext
+	 * is picked up by the loop that is already running rather than
+	 * recursing.
+	 */
+	private static final class Subscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		private final JsonChunks chunks;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger work = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile Throwable invalid;
+
+		Subscription(Flow.Subscriber<? super ByteBuffer> subscriber, JsonChunks chunks) {
+			this.subscriber = subscriber;
+			this.chunks = chunks;
+			cancelled = chunks == null;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalid = new IllegalArgumentException("Demand must be positive, was " + n);
+			} else {
+				requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		void drain() {
+			if (work.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				long demand = requested.get();
+				long emitted = 0;
+				while (!cancelled) {
+					if (invalid != null) {
+						cancelled = true;
+						subscriber.onError(invalid);
+						return;
+					}
+					if (chunks.done()) {
+						cancelled = true;
+						subscriber.onComplete();
+						return;
+					}
+					if (emitted == demand) {
+						break;
+					}
+					ByteBuffer chunk;
+					try {
+						chunk = chunks.next();
+					} catch (RuntimeException e) {
+						cancelled = true;
+						subscriber.onError(e);
+						return;
+					}
+					subscriber.onNext(chunk);
+					emitted++;
+				}
+				if (cancelled) {
+					return;
+				}
+				if (demand != Long.MAX_VALUE) {
+					requested.addAndGet(-emitted);
+				}
+				missed = work.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
+}
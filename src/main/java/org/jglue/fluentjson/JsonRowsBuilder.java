@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.time.temporal.Temporal;
+import java.util.Date;
+
+/**
+ * Adds objects that all have the same keys to an array, one value at a
+ * time. Values fill the columns of a row in order, and a new row starts once
+ * every column has a value. Rows are held column by column rather than as an
+ * object each, so arrays of many rows take a fraction of the memory.
+ * 
+ * <pre>
+ * JsonBuilderFactory.buildArray().addRows(&quot;id&quot;, &quot;name&quot;)
+ * 		.add(1).add(&quot;Bryn&quot;)
+ * 		.add(2).add(&quot;Alex&quot;)
+ * 		.end();
+ * </pre>
+ * 
+ * @author Bryn Cooke
+ *
+ * @param <P>
+ *            The parent type.
+ * @param <R>
+ *            The root type.
+ */
+public interface JsonRowsBuilder<P, R> {
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(boolean value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(int value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(long value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(double value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(float value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(Number value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(String value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(Date value);
+
+	/**
+	 * Add a value for the next column.
+	 * 
+	 * @param value the value to add.
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> add(Temporal value);
+
+	/**
+	 * Add a null value for the next column.
+	 * 
+	 * @return the current builder.
+	 */
+	public JsonRowsBuilder<P, R> addNull();
+
+	/**
+	 * Finish adding rows and return to building the array.
+	 * 
+	 * @return the array builder.
+	 * @throws IllegalStateException
+	 *             if the last row doesn't have a value for every column.
+	 */
+	public P end();
+}
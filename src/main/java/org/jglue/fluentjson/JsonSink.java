@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.time.temporal.Temporal;
+
+/**
+ * Receives the tokens of a document as it is serialized. The serializer only
+ * ever produces well formed sequences, so implementations don't need to
+ * validate nesting.
+ *
+ * @author Bryn Cooke
+ *
+ */
+interface JsonSink {
+
+	void beginObject() throws IOException;
+
+	void endObject() throws IOException;
+
+	void beginArray() throws IOException;
+
+	void endArray() throws IOException;
+
+	void name(String name) throws IOException;
+
+	default void name(JsonKey key) throws IOException {
+		name(key.getName());
+	}
+
+	void nullValue() throws IOException;
+
+	void value(boolean value) throws IOException;
+
+	void value(long value) throws IOException;
+
+	void value(double value) throws IOException;
+
+	void value(float value) throws IOException;
+
+	void value(Number value) throws IOException;
+
+	void value(String value) throws IOException;
+
+	default void date(long millis, DatePrecision precision) throws IOException {
+		value(DateEncoder.encode(millis, precision));
+	}
+
+	default void temporal(Temporal value) throws IOException {
+		value(DateEncoder.encode(value));
+	}
+
+	/**
+	 * Write part of an int[], long[], double[], float[] or boolean[] as an
+	 * array.
+	 */
+	default void primitives(Object array, int offset, int length) throws IOException {
+		beginArray();
+		int end = offset + length;
+		if (array instanceof int[]) {
+			int[] values = (int[]) array;
+			for (int i = offset; i < end; i++) {
+				value((long) values[i]);
+			}
+		} else if (array instanceof long[]) {
+			long[] values = (long[]) array;
+			for (int i = offset; i < end; i++) {
+				value(values[i]);
+			}
+		} else if (array instanceof double[]) {
+			double[] values = (double[]) array;
+			for (int i = offset; i < end; i++) {
+				value(values[i]);
+			}
+		} else if (array instanceof float[]) {
+			float[] values = (float[]) array;
+			for (int i = offset; i < end; i++) {
+				value(values[i]);
+			}
+		} else {
+			boolean[] values = (boolean[]) array;
+			for (int i = offset; i < end; i++) {
+				value(values[i]);
+			}
+		}
+		endArray();
+	}
+
+	/**
+	 * Write Json text as a value. Text sinks copy it, other sinks parse it.
+	 */
+	default void rawValue(CharSequence json) throws IOException {
+		RawJson.copy(json, this);
+	}
+
+	/**
+	 * Write a frozen node, whose serialized form sinks may copy rather than
+	 * walking the node.
+	 */
+	default void frozen(Node node) throws IOException {
+		node.walk(this);
+	}
+
+	/**
+	 * Called before waiting for a value that isn't ready yet, so that what
+	 * has been written so far can be passed on.
+	 */
+	default void pending() throws IOException {
+	}
+
+	void flush() throws IOException;
+}
@@ -0,0 +1,1187 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.temporal.Temporal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Builder that writes each element straight to a {@link JsonSink} as it is
+ * added instead of building up a tree. Only the innermost open object or array
+ * may be added to, and {@link #end()} closes it. Once the root has been ended
+ * the output is flushed.
+ *
+ * @author Bryn Cooke
+ *
+ * @param <P>
+ *            The parent type.
+ * @param <R>
+ *            The root type.
+ */
+class JsonStreamBuilder<P, R> implements JsonObjectBuilder<P, R>, JsonArrayBuilder<P, R> {
+
+	/**
+	 * State shared by all the builders writing to the same output. Writes go
+	 * through here so that an IOException from the sink is rethrown
+	 * unchecked in one place, as builder methods can't throw it.
+	 */
+	private static final class Output {
+		private final JsonSink out;
+		private final boolean flush;
+		private int depth;
+
+		Output(JsonSink out, boolean flush) {
+			this.out = out;
+			this.flush = flush;
+		}
+
+		void beginObject() {
+			try {
+				out.beginObject();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void endObject() {
+			try {
+				out.endObject();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void beginArray() {
+			try {
+				out.beginArray();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void endArray() {
+			try {
+				out.endArray();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void name(String name) {
+			try {
+				out.name(name);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void name(JsonKey key) {
+			try {
+				out.name(key);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * @param column
+		 *            Either a String or a {@link JsonKey}.
+		 */
+		void column(Object column) {
+			try {
+				Rows.name(out, column);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void nullValue() {
+			try {
+				out.nullValue();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void value(boolean value) {
+			try {
+				out.value(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void value(long value) {
+			try {
+				out.value(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void value(double value) {
+			try {
+				out.value(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void value(float value) {
+			try {
+				out.value(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void value(Number value) {
+			try {
+				out.value(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void value(String value) {
+			try {
+				out.value(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void date(long millis, DatePrecision precision) {
+			try {
+				out.date(millis, precision);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void temporal(Temporal value) {
+			try {
+				out.temporal(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void primitives(Object array, int offset, int length) {
+			try {
+				out.primitives(array, offset, length);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void rawValue(CharSequence json) {
+			try {
+				out.rawValue(json);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void write(JsonBuilder builder) {
+			try {
+				JsonBuilderFactory.write(out, builder);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void write(CompletableFuture<? extends JsonBuilder> builder) {
+			try {
+				JsonBuilderFactory.write(out, builder);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void flush() {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private final Output output;
+	private final P parent;
+	private final int depth;
+	private final boolean object;
+
+	private JsonStreamBuilder(Output output, P parent, boolean object) {
+		this.output = output;
+		this.parent = parent;
+		this.object = object;
+		this.depth = ++output.depth;
+	}
+
+	@SuppressWarnings("unchecked")
+	private JsonStreamBuilder(Output output, boolean object) {
+		this.output = output;
+		this.parent = (P) this;
+		this.object = object;
+		this.depth = ++output.depth;
+	}
+
+	static JsonStreamBuilder<?, Void> object(JsonSink out) {
+		return object(out, true);
+	}
+
+	/**
+	 * @param flush
+	 *            Whether to flush the output when the object is ended.
+	 */
+	static JsonStreamBuilder<?, Void> object(JsonSink out, boolean flush) {
+		Output output = new Output(out, flush);
+		output.beginObject();
+		return new JsonStreamBuilder<Object, Void>(output, true);
+	}
+
+	static JsonStreamBuilder<?, Void> array(JsonSink out) {
+		Output output = new Output(out, true);
+		output.beginArray();
+		return new JsonStreamBuilder<Object, Void>(output, false);
+	}
+
+	/**
+	 * @return the writer, provided that this builder is the innermost open
+	 *         scope.
+	 */
+	private Output out() {
+		if (output.depth != depth) {
+			if (output.depth < depth) {
+				throw new IllegalStateException("This builder has already been ended");
+			}
+			throw new IllegalStateException("The nested object or array must be ended before adding to this builder");
+		}
+		return output;
+	}
+
+	private Output element() {
+		if (object) {
+			throw new IllegalStateException("Object members must have a key");
+		}
+		return out();
+	}
+
+	private Output out(String key) {
+		if (!object) {
+			throw new IllegalStateException("Array elements can't have a key");
+		}
+		Output out = out();
+		out.name(key);
+		return out;
+	}
+
+	private Output out(JsonKey key) {
+		if (!object) {
+			throw new IllegalStateException("Array elements can't have a key");
+		}
+		Output out = out();
+		out.name(key);
+		return out;
+	}
+
+	/**
+	 * Json text is checked before its key is written, so that nothing is
+	 * written if it isn't valid.
+	 */
+	private static CharSequence checked(CharSequence json) {
+		if (json != null && JsonBuilderFactory.isValidateRaw()) {
+			RawJson.validate(json);
+		}
+		return json;
+	}
+
+	private static void raw(Output out, CharSequence json) {
+		if (json == null) {
+			out.nullValue();
+		} else {
+			out.rawValue(json);
+		}
+	}
+
+	/**
+	 * The part is checked before its key is written, so that nothing is
+	 * written if it isn't within the array.
+	 */
+	private static void primitives(Output out, Object array, int offset, int length) {
+		if (array == null) {
+			out.nullValue();
+		} else {
+			out.primitives(array, offset, length);
+		}
+	}
+
+	@Override
+	public JsonObjectBuilder<JsonObjectBuilder<P, R>, R> addObject(String key) {
+		out(key).beginObject();
+		return new JsonStreamBuilder<JsonObjectBuilder<P, R>, R>(output, this, true);
+	}
+
+	@Override
+	public JsonArrayBuilder<JsonObjectBuilder<P, R>, R> addArray(String key) {
+		out(key).beginArray();
+		return new JsonStreamBuilder<JsonObjectBuilder<P, R>, R>(output, this, false);
+	}
+
+	@Override
+	public JsonObjectBuilder<JsonArrayBuilder<P, R>, R> addObject() {
+		element().beginObject();
+		return new JsonStreamBuilder<JsonArrayBuilder<P, R>, R>(output, this, true);
+	}
+
+	@Override
+	public JsonArrayBuilder<JsonArrayBuilder<P, R>, R> addArray() {
+		element().beginArray();
+		return new JsonStreamBuilder<JsonArrayBuilder<P, R>, R>(output, this, false);
+	}
+
+	@Override
+	public JsonStreamBuilder<P, R> freeze() {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public P end() {
+		Output out = out();
+		if (object) {
+			out.endObject();
+		} else {
+			out.endArray();
+		}
+		output.depth--;
+		if (output.depth == 0 && output.flush) {
+			out.flush();
+		}
+		return parent;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, Iterable<? extends JsonBuilder> builders) {
+		Output out = out(key);
+		out.beginArray();
+		for (JsonBuilder b : builders) {
+			out.write(b);
+		}
+		out.endArray();
+		return this;
+	}
+
+	@Override
+	public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Iterable<T> objects) {
+		if (transform instanceof StreamingMapper) {
+			addArray(key).addAll(transform, objects).end();
+			return this;
+		}
+		Output out = out(key);
+		out.beginArray();
+		transform = Metered.mapper(transform);
+		for (T o : objects) {
+			out.write(transform.map(o));
+		}
+		out.endArray();
+		return this;
+	}
+
+	@Override
+	public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Iterable<T> objects, Executor executor) {
+		Output out = out(key);
+		out.beginArray();
+		ParallelMapping.map(transform, objects, executor, b -> out.write(b));
+		out.endArray();
+		return this;
+	}
+
+	@Override
+	public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, Stream<T> objects) {
+		if (transform instanceof StreamingMapper && !objects.isParallel()) {
+			addArray(key).addAll(transform, objects).end();
+			return this;
+		}
+		Output out = out(key);
+		out.beginArray();
+		ParallelMapping.map(transform, objects.spliterator(), objects.isParallel(), b -> out.write(b));
+		out.endArray();
+		return this;
+	}
+
+	/**
+	 * Streamed content is written straight away, which is already as late as
+	 * possible.
+	 */
+	@Override
+	public <T> JsonObjectBuilder<P, R> addLazy(String key, Mapper<T> transform, Iterable<T> objects) {
+		return add(key, transform, objects);
+	}
+
+	@Override
+	public <T> JsonObjectBuilder<P, R> addLazy(String key, Mapper<T> transform, Stream<T> objects) {
+		return add(key, transform, objects);
+	}
+
+	@Override
+	public <T> JsonArrayBuilder<P, R> addLazy(Mapper<T> transform, Iterable<T> objects) {
+		return add(transform, objects);
+	}
+
+	@Override
+	public <T> JsonArrayBuilder<P, R> addLazy(Mapper<T> transform, Stream<T> objects) {
+		return addArray().addAll(transform, objects).end();
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, JsonBuilder builder) {
+		out(key).write(builder);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> addAsync(String key, CompletableFuture<? extends JsonBuilder> builder) {
+		Output out = out(key);
+		if (builder == null) {
+			out.nullValue();
+		} else {
+			out.write(builder);
+		}
+		return this;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> JsonObjectBuilder<P, R> add(String key, Mapper<T> transform, T... objects) {
+		// Keys can't be replaced once written, so only the last mapping would
+		// survive in a tree builder.
+		if (objects.length > 0) {
+			add(key, Metered.mapper(transform).map(objects[objects.length - 1]));
+		}
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, Boolean value) {
+		Output out = out(key);
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.value(value.booleanValue());
+		}
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, Character value) {
+		out(key).value(value == null ? null : value.toString());
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, Number value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, int value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, long value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, double value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, float value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, boolean value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, char value) {
+		out(key).value(String.valueOf(value));
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> addNull(String key) {
+		out(key).nullValue();
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, int[] values) {
+		return add(key, values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, int[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(out(key), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, long[] values) {
+		return add(key, values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, long[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(out(key), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, double[] values) {
+		return add(key, values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, double[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(out(key), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, float[] values) {
+		return add(key, values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, float[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(out(key), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, boolean[] values) {
+		return add(key, values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, boolean[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(out(key), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, String value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> addRaw(String key, CharSequence json) {
+		CharSequence checked = checked(json);
+		raw(out(key), checked);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, Temporal value) {
+		Output out = out(key);
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.temporal(value);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(String key, Date value) {
+		Output out = out(key);
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.date(value.getTime(), JsonBuilderFactory.getDatePrecision());
+		}
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<JsonObjectBuilder<P, R>, R> addObject(JsonKey key) {
+		out(key).beginObject();
+		return new JsonStreamBuilder<JsonObjectBuilder<P, R>, R>(output, this, true);
+	}
+
+	@Override
+	public JsonArrayBuilder<JsonObjectBuilder<P, R>, R> addArray(JsonKey key) {
+		out(key).beginArray();
+		return new JsonStreamBuilder<JsonObjectBuilder<P, R>, R>(output, this, false);
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, JsonBuilder builder) {
+		out(key).write(builder);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, Number value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, int value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, long value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, double value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, boolean value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, String value) {
+		out(key).value(value);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> addRaw(JsonKey key, CharSequence json) {
+		CharSequence checked = checked(json);
+		raw(out(key), checked);
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, Temporal value) {
+		Output out = out(key);
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.temporal(value);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> add(JsonKey key, Date value) {
+		Output out = out(key);
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.date(value.getTime(), JsonBuilderFactory.getDatePrecision());
+		}
+		return this;
+	}
+
+	@Override
+	public JsonObjectBuilder<P, R> addNull(JsonKey key) {
+		out(key).nullValue();
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(Boolean value) {
+		if (value == null) {
+			element().nullValue();
+		} else {
+			element().value(value.booleanValue());
+		}
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(Character value) {
+		element().value(value == null ? null : value.toString());
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(Number value) {
+		element().value(value);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(String value) {
+		element().value(value);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> addRaw(CharSequence json) {
+		CharSequence checked = checked(json);
+		raw(element(), checked);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(int value) {
+		element().value(value);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(long value) {
+		element().value(value);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(double value) {
+		element().value(value);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(float value) {
+		element().value(value);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(boolean value) {
+		element().value(value);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(char value) {
+		element().value(String.valueOf(value));
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> addNull() {
+		element().nullValue();
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(int[] values) {
+		return add(values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(int[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(element(), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(long[] values) {
+		return add(values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(long[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(element(), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(double[] values) {
+		return add(values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(double[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(element(), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(float[] values) {
+		return add(values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(float[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(element(), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(boolean[] values) {
+		return add(values, 0, values == null ? 0 : values.length);
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(boolean[] values, int offset, int length) {
+		Node.checkSlice(values, offset, length);
+		primitives(element(), values, offset, length);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(Date value) {
+		Output out = element();
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.date(value.getTime(), JsonBuilderFactory.getDatePrecision());
+		}
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(Temporal value) {
+		Output out = element();
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.temporal(value);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(Iterable<? extends JsonBuilder> builders) {
+		Output out = element();
+		out.beginArray();
+		for (JsonBuilder b : builders) {
+			out.write(b);
+		}
+		out.endArray();
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> addAll(Iterable<? extends JsonBuilder> builders) {
+		Output out = element();
+		for (JsonBuilder b : builders) {
+			out.write(b);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> add(JsonBuilder builder) {
+		element().write(builder);
+		return this;
+	}
+
+	@Override
+	public JsonArrayBuilder<P, R> addAsync(CompletableFuture<? extends JsonBuilder> builder) {
+		Output out = element();
+		if (builder == null) {
+			out.nullValue();
+		} else {
+			out.write(builder);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonRowsBuilder<JsonArrayBuilder<P, R>, R> addRows(String... columns) {
+		element();
+		return new StreamRows<JsonArrayBuilder<P, R>, R>(output, this, Rows.columns(columns));
+	}
+
+	@Override
+	public JsonRowsBuilder<JsonArrayBuilder<P, R>, R> addRows(JsonKey... columns) {
+		element();
+		return new StreamRows<JsonArrayBuilder<P, R>, R>(output, this, Rows.columns(columns));
+	}
+
+	/**
+	 * Writes each row as its values are added.
+	 */
+	private static final class StreamRows<P, R> implements JsonRowsBuilder<P, R> {
+		private final Output output;
+		private final P parent;
+		private final Object[] columns;
+		private final int depth;
+		private int column;
+
+		StreamRows(Output output, P parent, Object[] columns) {
+			this.output = output;
+			this.parent = parent;
+			this.columns = columns;
+			this.depth = ++output.depth;
+		}
+
+		/**
+		 * @return the writer, after starting the row if need be and naming
+		 *         the next column.
+		 */
+		private Output next() {
+			if (output.depth != depth) {
+				throw new IllegalStateException("These rows have already been ended");
+			}
+			if (column == 0) {
+				output.beginObject();
+			}
+			output.column(columns[column]);
+			return output;
+		}
+
+		/**
+		 * End the row once every column has a value.
+		 */
+		private JsonRowsBuilder<P, R> added() {
+			if (++column == columns.length) {
+				output.endObject();
+				column = 0;
+			}
+			return this;
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(boolean value) {
+			next().value(value);
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(int value) {
+			return add((long) value);
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(long value) {
+			next().value(value);
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(double value) {
+			next().value(value);
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(float value) {
+			next().value(value);
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(Number value) {
+			Output out = next();
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.value(value);
+			}
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(String value) {
+			next().value(value);
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(Date value) {
+			Output out = next();
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.date(value.getTime(), JsonBuilderFactory.getDatePrecision());
+			}
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> add(Temporal value) {
+			Output out = next();
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.temporal(value);
+			}
+			return added();
+		}
+
+		@Override
+		public JsonRowsBuilder<P, R> addNull() {
+			next().nullValue();
+			return added();
+		}
+
+		@Override
+		public P end() {
+			if (output.depth != depth) {
+				throw new IllegalStateException("These rows have already been ended");
+			}
+			if (column != 0) {
+				throw new IllegalStateException("The last row doesn't have a value for every column");
+			}
+			output.depth--;
+			return parent;
+		}
+	}
+
+	@Override
+	public <T> JsonArrayBuilder<P, R> add(Mapper<T> transform, Iterable<T> objects) {
+		if (transform instanceof StreamingMapper) {
+			addArray().addAll(transform, objects).end();
+			return this;
+		}
+		Output out = element();
+		out.beginArray();
+		transform = Metered.mapper(transform);
+		for (T o : objects) {
+			out.write(transform.map(o));
+		}
+		out.endArray();
+		return this;
+	}
+
+	@Override
+	public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Iterable<T> objects) {
+		if (transform instanceof StreamingMapper) {
+			StreamingMapper<T> streaming = (StreamingMapper<T>) Metered.mapper(transform);
+			for (T o : objects) {
+				streaming.map(o, this);
+			}
+			return this;
+		}
+		Output out = element();
+		transform = Metered.mapper(transform);
+		for (T o : objects) {
+			out.write(transform.map(o));
+		}
+		return this;
+	}
+
+	@Override
+	public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Iterable<T> objects, Executor executor) {
+		Output out = element();
+		ParallelMapping.map(transform, objects, executor, b -> out.write(b));
+		return this;
+	}
+
+	@Override
+	public <T> JsonArrayBuilder<P, R> addAll(Mapper<T> transform, Stream<T> objects) {
+		if (transform instanceof StreamingMapper && !objects.isParallel()) {
+			StreamingMapper<T> streaming = (StreamingMapper<T>) Metered.mapper(transform);
+			objects.forEachOrdered(o -> streaming.map(o, this));
+			return this;
+		}
+		Output out = element();
+		ParallelMapping.map(transform, objects.spliterator(), objects.isParallel(), b -> out.write(b));
+		return this;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> JsonArrayBuilder<P, R> add(Mapper<T> transform, T... objects) {
+		if (transform instanceof StreamingMapper) {
+			return addAll(transform, Arrays.asList(objects));
+		}
+		Output out = element();
+		transform = Metered.mapper(transform);
+		for (T o : objects) {
+			out.write(transform.map(o));
+		}
+		return this;
+	}
+
+	/**
+	 * The content has already been written, so there is no tree to return.
+	 */
+	@Override
+	public R getJson() {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public void write(Writer out) throws IOException {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public void write(JsonWriter out) throws IOException {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public void write(OutputStream out) throws IOException {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public void write(OutputStream out, Format format) throws IOException {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public void write(OutputStream out, Compression compression) throws IOException {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public void write(ByteBuffer out) throws IOException {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+	@Override
+	public void write(WritableByteChannel out) throws IOException {
+		throw new UnsupportedOperationException("Streaming builders do not retain their content");
+	}
+
+}
@@ -0,0 +1,488 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A document shape captured once so that documents of that shape can be
+ * written many times with different values. Every simple value in the
+ * captured document becomes a slot, and everything between the slots is
+ * encoded up front, so writing only has to copy the skeleton and encode the
+ * values.
+ *
+ * <pre>
+ * JsonTemplate template = JsonTemplate.of(JsonBuilderFactory.buildObject()
+ * 		.add(&quot;id&quot;, 0)
+ * 		.addObject(&quot;user&quot;)
+ * 			.add(&quot;name&quot;, &quot;&quot;)
+ * 			.end());
+ * int id = template.slot(&quot;id&quot;);
+ * int name = template.slot(&quot;user&quot;, &quot;name&quot;);
+ *
+ * template.newValues().set(id, 42).set(name, &quot;Bryn&quot;).write(out);
+ * </pre>
+ *
+ * Arrays in the shape keep the length they were captured with.
+ *
+ * @author Bryn Cooke
+ *
+ */
+public final class JsonTemplate {
+
+	/**
+	 * The constant parts of the document.
+	 */
+	private final byte[] skeleton;
+
+	/**
+	 * Where each part of the skeleton ends. The value for slot i goes after
+	 * part i.
+	 */
+	private final int[] ends;
+
+	/**
+	 * The values the shape was captured with.
+	 */
+	private final Node defaults;
+
+	private final Map<List<Object>, Integer> slots;
+
+	private JsonTemplate(byte[] skeleton, int[] ends, Node defaults, Map<List<Object>, Integer> slots) {
+		this.skeleton = skeleton;
+		this.ends = ends;
+		this.defaults = defaults;
+		this.slots = slots;
+	}
+
+	/**
+	 * Capture the shape of a document.
+	 *
+	 * @param shape
+	 *            A builder created by {@link JsonBuilderFactory}, whose
+	 *            values become the defaults for the slots.
+	 * @return the template.
+	 * @throws IllegalArgumentException
+	 *             if the shape is a streaming builder, which doesn't hold its
+	 *             content.
+	 */
+	public static JsonTemplate of(JsonBuilder shape) {
+		if (shape instanceof JsonStreamBuilder) {
+			throw new IllegalArgumentException("Templates can only be captured from builders that hold their content");
+		}
+		Capture capture = new Capture();
+		try {
+			JsonBuilderFactory.write(capture, shape);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return capture.finish();
+	}
+
+	/**
+	 * @param path
+	 *            The keys and array indexes leading to a simple value.
+	 * @return the slot for the value.
+	 * @throws IllegalArgumentException
+	 *             if there is no simple value at the path.
+	 */
+	public int slot(Object... path) {
+		Integer slot = slots.get(Arrays.asList(path));
+		if (slot == null) {
+			throw new IllegalArgumentException("No value at " + Arrays.toString(path));
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the number of slots.
+	 */
+	public int size() {
+		return defaults.size;
+	}
+
+	/**
+	 * @return values for a new document, initially those the shape was
+	 *         captured with.
+	 */
+	public Values newValues() {
+		return new Values(defaults.copyValues());
+	}
+
+	/**
+	 * The values for one document of the template's shape. Values are not
+	 * thread safe, but can be reused for more than one document.
+	 */
+	public final class Values {
+
+		private final Node values;
+
+		private Values(Node values) {
+			this.values = values;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @return these values.
+		 */
+		public Values setNull(int slot) {
+			values.setNull(slot);
+			return this;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @param value
+		 *            The value to write in the slot.
+		 * @return these values.
+		 */
+		public Values set(int slot, boolean value) {
+			values.set(slot, value);
+			return this;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @param value
+		 *            The value to write in the slot.
+		 * @return these values.
+		 */
+		public Values set(int slot, long value) {
+			values.set(slot, value);
+			return this;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @param value
+		 *            The value to write in the slot.
+		 * @return these values.
+		 */
+		public Values set(int slot, double value) {
+			values.set(slot, value);
+			return this;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @param value
+		 *            The value to write in the slot.
+		 * @return these values.
+		 */
+		public Values set(int slot, Number value) {
+			values.set(slot, value);
+			return this;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @param value
+		 *            The value to write in the slot.
+		 * @return these values.
+		 */
+		public Values set(int slot, String value) {
+			values.set(slot, value);
+			return this;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @param value
+		 *            The value to write in the slot.
+		 * @return these values.
+		 */
+		public Values set(int slot, Date value) {
+			values.set(slot, value, JsonBuilderFactory.getDatePrecision());
+			return this;
+		}
+
+		/**
+		 * @param slot
+		 *            The slot from {@link JsonTemplate#slot(Object...)}.
+		 * @param value
+		 *            The value to write in the slot.
+		 * @return these values.
+		 */
+		public Values set(int slot, Temporal value) {
+			values.set(slot, value);
+			return this;
+		}
+
+		private void write(Utf8Sink out) throws IOException {
+			int start = 0;
+			for (int i = 0; i < values.size; i++) {
+				out.raw(skeleton, start, ends[i] - start);
+				values.write(out, i);
+				start = ends[i];
+			}
+			out.raw(skeleton, start, skeleton.length - start);
+			out.finish();
+		}
+
+		/**
+		 * Write the document as UTF-8.
+		 *
+		 * @param out
+		 *            The stream to write to.
+		 * @throws IOException
+		 *             If there was a problem writing.
+		 */
+		public void write(OutputStream out) throws IOException {
+			write(Utf8Sink.of(out, skeleton.length * 2));
+		}
+
+		/**
+		 * Write the document as UTF-8.
+		 *
+		 * @param out
+		 *            The buffer to write to.
+		 * @throws BufferOverflowException
+		 *             If the document doesn't fit, in which case the position
+		 *             of the buffer is left unchanged.
+		 */
+		public void write(ByteBuffer out) {
+			int position = out.position();
+			try {
+				write(Utf8Sink.of(out));
+			} catch (BufferOverflowException e) {
+				out.position(position);
+				throw e;
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		/**
+		 * Write the document as UTF-8.
+		 *
+		 * @param out
+		 *            The channel to write to.
+		 * @throws IOException
+		 *             If there was a problem writing.
+		 */
+		public void write(WritableByteChannel out) throws IOException {
+			write(Utf8Sink.of(out));
+		}
+
+		@Override
+		public String toString() {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(skeleton.length * 2);
+			try {
+				write(out);
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Encodes the structure of a document, cutting it wherever a simple value
+	 * would be written.
+	 */
+	private static final class Capture implements JsonSink {
+
+		private final Utf8Sink.ArraySink structure = new Utf8Sink.ArraySink(256);
+		private final Utf8Sink out = structure;
+		private final List<byte[]> parts = new ArrayList<byte[]>();
+		private final Node defaults = new Node(false);
+		private final Map<List<Object>, Integer> slots = new HashMap<List<Object>, Integer>();
+
+		/**
+		 * The path to the current scope.
+		 */
+		private final List<Object> path = new ArrayList<Object>();
+
+		/**
+		 * The next array index in each open scope, or -1 for objects.
+		 */
+		private int[] indexes = new int[16];
+		private int depth;
+		private String name;
+
+		private Object element() {
+			if (depth == 0) {
+				return null;
+			}
+			int index = indexes[depth - 1];
+			if (index == -1) {
+				return name;
+			}
+			indexes[depth - 1]++;
+			return index;
+		}
+
+		private void begin(boolean object) {
+			Object element = element();
+			if (element != null) {
+				path.add(element);
+			}
+			if (depth == indexes.length) {
+				indexes = Arrays.copyOf(indexes, depth * 2);
+			}
+			indexes[depth++] = object ? -1 : 0;
+		}
+
+		private void end() {
+			depth--;
+			if (!path.isEmpty()) {
+				path.remove(path.size() - 1);
+			}
+		}
+
+		/**
+		 * Start a new slot, whose default must be added next.
+		 */
+		private void slot() throws IOException {
+			Object element = element();
+			List<Object> slotPath = new ArrayList<Object>(path);
+			if (element != null) {
+				slotPath.add(element);
+			}
+			slots.put(slotPath, defaults.size);
+			out.beforeSlot();
+			parts.add(structure.take());
+		}
+
+		JsonTemplate finish() {
+			parts.add(structure.take());
+			int length = 0;
+			for (byte[] part : parts) {
+				length += part.length;
+			}
+			byte[] skeleton = new byte[length];
+			int[] ends = new int[parts.size() - 1];
+			int pos = 0;
+			for (int i = 0; i < parts.size(); i++) {
+				byte[] part = parts.get(i);
+				System.arraycopy(part, 0, skeleton, pos, part.length);
+				pos += part.length;
+				if (i < ends.length) {
+					ends[i] = pos;
+				}
+			}
+			return new JsonTemplate(skeleton, ends, defaults, slots);
+		}
+
+		@Override
+		public void beginObject() throws IOException {
+			begin(true);
+			out.beginObject();
+		}
+
+		@Override
+		public void endObject() throws IOException {
+			end();
+			out.endObject();
+		}
+
+		@Override
+		public void beginArray() throws IOException {
+			begin(false);
+			out.beginArray();
+		}
+
+		@Override
+		public void endArray() throws IOException {
+			end();
+			out.endArray();
+		}
+
+		@Override
+		public void name(String name) throws IOException {
+			this.name = name;
+			out.name(name);
+		}
+
+		@Override
+		public void nullValue() throws IOException {
+			slot();
+			defaults.addNull(null);
+		}
+
+		@Override
+		public void value(boolean value) throws IOException {
+			slot();
+			defaults.add(null, value);
+		}
+
+		@Override
+		public void value(long value) throws IOException {
+			slot();
+			defaults.add(null, value);
+		}
+
+		@Override
+		public void value(double value) throws IOException {
+			slot();
+			defaults.add(null, value);
+		}
+
+		@Override
+		public void value(float value) throws IOException {
+			slot();
+			defaults.add(null, value);
+		}
+
+		@Override
+		public void value(Number value) throws IOException {
+			slot();
+			defaults.add(null, value);
+		}
+
+		@Override
+		public void value(String value) throws IOException {
+			slot();
+			defaults.add(null, value);
+		}
+
+		@Override
+		public void date(long millis, DatePrecision precision) throws IOException {
+			slot();
+			defaults.add(null, new Date(millis), precision);
+		}
+
+		@Override
+		public void temporal(Temporal value) throws IOException {
+			slot();
+			defaults.add(null, value);
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+
+/**
+ * An array whose objects are only mapped when it is written, so that they
+ * never all have to be held at once. An iterable is asked for a new iterator
+ * every time the array is written, but a stream can only be written once.
+ *
+ * @author Bryn Cooke
+ *
+ * @param <T>
+ *            The type of the objects.
+ */
+final class LazyArray<T> {
+
+	private final Mapper<T> transform;
+	private final Iterable<T> objects;
+	private final Stream<T> stream;
+
+	LazyArray(Mapper<T> transform, Iterable<T> objects) {
+		this.transform = transform;
+		this.objects = objects;
+		this.stream = null;
+	}
+
+	LazyArray(Mapper<T> transform, Stream<T> stream) {
+		this.transform = transform;
+		this.objects = null;
+		this.stream = stream;
+	}
+
+	void write(JsonSink out) throws IOException {
+		try {
+			JsonArrayBuilder<?, Void> array = JsonStreamBuilder.array(out);
+			if (stream != null) {
+				array.addAll(transform, stream);
+			} else {
+				array.addAll(transform, objects);
+			}
+			array.end();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+}
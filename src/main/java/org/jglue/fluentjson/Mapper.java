@@ -35,35 +35,55 @@ public interface Mapper<T> {
 	public JsonBuilder map(T o);
 
 	
-	public static Mapper<String> STRING = new Mapper<String>() {
+	public static Mapper<String> STRING = new StreamingMapper<String>() {
 
 		@Override
 		public JsonBuilder map(String o) {
 			return JsonBuilderFactory.buildPrimitive(o);
 		}
+
+		@Override
+		public void map(String o, JsonArrayBuilder<?, ?> out) {
+			out.add(o);
+		}
 	};
 	
-	public static Mapper<Number> NUMBER = new Mapper<Number>() {
+	public static Mapper<Number> NUMBER = new StreamingMapper<Number>() {
 
 		@Override
 		public JsonBuilder map(Number o) {
 			return JsonBuilderFactory.buildPrimitive(o);
 		}
+
+		@Override
+		public void map(Number o, JsonArrayBuilder<?, ?> out) {
+			out.add(o);
+		}
 	};
 	
-	public static Mapper<Boolean> BOOLEAN = new Mapper<Boolean>() {
+	public static Mapper<Boolean> BOOLEAN = new StreamingMapper<Boolean>() {
 
 		@Override
 		public JsonBuilder map(Boolean o) {
 			return JsonBuilderFactory.buildPrimitive(o);
 		}
+
+		@Override
+		public void map(Boolean o, JsonArrayBuilder<?, ?> out) {
+			out.add(o);
+		}
 	};
 	
-	public static Mapper<Character> CHARACTER = new Mapper<Character>() {
+	public static Mapper<Character> CHARACTER = new StreamingMapper<Character>() {
 
 		@Override
 		public JsonBuilder map(Character o) {
 			return JsonBuilderFactory.buildPrimitive(o);
 		}
+
+		@Override
+		public void map(Character o, JsonArrayBuilder<?, ?> out) {
+			out.add(o);
+		}
 	};
 }
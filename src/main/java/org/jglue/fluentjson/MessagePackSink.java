@@ -0,0 +1,193 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Sink that encodes MessagePack.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class MessagePackSink extends BinarySink {
+
+	private static final BigInteger MAX_UINT64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+	MessagePackSink() {
+		super(5);
+	}
+
+	@Override
+	protected int header(byte[] to, boolean object, int count) {
+		if (count < 16) {
+			to[0] = (byte) ((object ? 0x80 : 0x90) | count);
+			return 1;
+		}
+		if (count <= 0xffff) {
+			to[0] = (byte) (object ? 0xde : 0xdc);
+			to[1] = (byte) (count >> 8);
+			to[2] = (byte) count;
+			return 3;
+		}
+		to[0] = (byte) (object ? 0xdf : 0xdd);
+		to[1] = (byte) (count >> 24);
+		to[2] = (byte) (count >> 16);
+		to[3] = (byte) (count >> 8);
+		to[4] = (byte) count;
+		return 5;
+	}
+
+	@Override
+	public void beginObject() {
+		begin(true);
+	}
+
+	@Override
+	public void endObject() {
+		end();
+	}
+
+	@Override
+	public void beginArray() {
+		begin(false);
+	}
+
+	@Override
+	public void endArray() {
+		end();
+	}
+
+	@Override
+	public void name(String name) {
+		string(name);
+	}
+
+	@Override
+	public void nullValue() {
+		element();
+		write(0xc0);
+	}
+
+	@Override
+	public void value(boolean value) {
+		element();
+		write(value ? 0xc3 : 0xc2);
+	}
+
+	@Override
+	public void value(long value) {
+		element();
+		if (value >= 0) {
+			if (value < 0x80) {
+				write((int) value);
+			} else if (value <= 0xff) {
+				write(0xcc);
+				write((int) value);
+			} else if (value <= 0xffff) {
+				write(0xcd);
+				writeBytes(value, 2);
+			} else if (value <= 0xffffffffL) {
+				write(0xce);
+				writeBytes(value, 4);
+			} else {
+				write(0xcf);
+				writeBytes(value, 8);
+			}
+		} else if (value >= -32) {
+			write((int) value);
+		} else if (value >= Byte.MIN_VALUE) {
+			write(0xd0);
+			write((int) value);
+		} else if (value >= Short.MIN_VALUE) {
+			write(0xd1);
+			writeBytes(value, 2);
+		} else if (value >= Integer.MIN_VALUE) {
+			write(0xd2);
+			writeBytes(value, 4);
+		} else {
+			write(0xd3);
+			writeBytes(value, 8);
+		}
+	}
+
+	@Override
+	public void value(double value) {
+		element();
+		write(0xcb);
+		writeBytes(Double.doubleToRawLongBits(value), 8);
+	}
+
+	@Override
+	public void value(float value) {
+		element();
+		write(0xca);
+		writeBytes(Float.floatToRawIntBits(value), 4);
+	}
+
+	@Override
+	public void value(String value) {
+		if (value == null) {
+			nullValue();
+			return;
+		}
+		element();
+		string(value);
+	}
+
+	private void string(String value) {
+		int length = utf8Length(value);
+		if (length < 32) {
+			write(0xa0 | length);
+		} else if (length <= 0xff) {
+			write(0xd9);
+			write(length);
+		} else if (length <= 0xffff) {
+			write(0xda);
+			writeBytes(length, 2);
+		} else {
+			write(0xdb);
+			writeBytes(length, 4);
+		}
+		utf8(value, length);
+	}
+
+	/**
+	 * Integers up to 2^64 - 1 fit uint 64, beyond that they are written as
+	 * strings.
+	 */
+	@Override
+	protected void bigInteger(BigInteger value) {
+		if (value.signum() > 0 && value.compareTo(MAX_UINT64) <= 0) {
+			element();
+			write(0xcf);
+			writeBytes(value.longValue(), 8);
+		} else {
+			value(value.toString());
+		}
+	}
+
+	@Override
+	protected void decimal(BigDecimal value) {
+		double d = value.doubleValue();
+		if (!Double.isInfinite(d) && new BigDecimal(d).compareTo(value) == 0) {
+			value(d);
+		} else {
+			value(value.toString());
+		}
+	}
+}
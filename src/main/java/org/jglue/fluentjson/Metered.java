@@ -0,0 +1,301 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.temporal.Temporal;
+
+/**
+ * Measurements reported to {@link JsonMetrics}.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class Metered {
+
+	private Metered() {
+	}
+
+	/**
+	 * @return the mapper, timed if metrics are enabled.
+	 */
+	static <T> Mapper<T> mapper(Mapper<T> transform) {
+		JsonMetrics metrics = JsonBuilderFactory.getMetrics();
+		if (metrics == null || transform instanceof TimedMapper || transform instanceof TimedStreamingMapper) {
+			return transform;
+		}
+		if (transform instanceof StreamingMapper) {
+			return new TimedStreamingMapper<T>((StreamingMapper<T>) transform, metrics);
+		}
+		return new TimedMapper<T>(transform, metrics);
+	}
+
+	private static final class TimedMapper<T> implements Mapper<T> {
+
+		private final Mapper<T> mapper;
+		private final JsonMetrics metrics;
+
+		TimedMapper(Mapper<T> mapper, JsonMetrics metrics) {
+			this.mapper = mapper;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public JsonBuilder map(T o) {
+			Object started = metrics.mapping();
+			long start = System.nanoTime();
+			JsonBuilder result = mapper.map(o);
+			metrics.mapped(started, mapper, System.nanoTime() - start);
+			return result;
+		}
+	}
+
+	private static final class TimedStreamingMapper<T> implements StreamingMapper<T> {
+
+		private final StreamingMapper<T> mapper;
+		private final JsonMetrics metrics;
+
+		TimedStreamingMapper(StreamingMapper<T> mapper, JsonMetrics metrics) {
+			this.mapper = mapper;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public JsonBuilder map(T o) {
+			Object started = metrics.mapping();
+			long start = System.nanoTime();
+			JsonBuilder result = mapper.map(o);
+			metrics.mapped(started, mapper, System.nanoTime() - start);
+			return result;
+		}
+
+		@Override
+		public void map(T o, JsonArrayBuilder<?, ?> out) {
+			Object started = metrics.mapping();
+			long start = System.nanoTime();
+			mapper.map(o, out);
+			metrics.mapped(started, mapper, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Counts the values and depth of a document on its way to another sink,
+	 * timing from when it is created.
+	 */
+	static final class Sink implements JsonSink {
+
+		private final JsonSink out;
+		private final JsonMetrics metrics;
+		private final Object started;
+		private final long start;
+		private int values;
+		private int depth;
+		private int maxDepth;
+
+		Sink(JsonSink out) {
+			this(out, null);
+		}
+
+		/**
+		 * @param metrics
+		 *            Where to {@link #report(JsonMetrics.Output, long)} the
+		 *            measurements, or null to only count.
+		 */
+		Sink(JsonSink out, JsonMetrics metrics) {
+			this.out = out;
+			this.metrics = metrics;
+			started = metrics == null ? null : metrics.writing();
+			start = System.nanoTime();
+		}
+
+		int values() {
+			return values;
+		}
+
+		int depth() {
+			return maxDepth;
+		}
+
+		void report(JsonMetrics.Output output, long length) {
+			metrics.written(started, output, values, maxDepth, length, System.nanoTime() - start);
+		}
+
+		private void begin() {
+			values++;
+			if (++depth > maxDepth) {
+				maxDepth = depth;
+			}
+		}
+
+		@Override
+		public void beginObject() throws IOException {
+			begin();
+			out.beginObject();
+		}
+
+		@Override
+		public void endObject() throws IOException {
+			depth--;
+			out.endObject();
+		}
+
+		@Override
+		public void beginArray() throws IOException {
+			begin();
+			out.beginArray();
+		}
+
+		@Override
+		public void endArray() throws IOException {
+			depth--;
+			out.endArray();
+		}
+
+		@Override
+		public void name(String name) throws IOException {
+			out.name(name);
+		}
+
+		@Override
+		public void name(JsonKey key) throws IOException {
+			out.name(key);
+		}
+
+		@Override
+		public void nullValue() throws IOException {
+			values++;
+			out.nullValue();
+		}
+
+		@Override
+		public void value(boolean value) throws IOException {
+			values++;
+			out.value(value);
+		}
+
+		@Override
+		public void value(long value) throws IOException {
+			values++;
+			out.value(value);
+		}
+
+		@Override
+		public void value(double value) throws IOException {
+			values++;
+			out.value(value);
+		}
+
+		@Override
+		public void value(float value) throws IOException {
+			values++;
+			out.value(value);
+		}
+
+		@Override
+		public void value(Number value) throws IOException {
+			values++;
+			out.value(value);
+		}
+
+		@Override
+		public void value(String value) throws IOException {
+			values++;
+			out.value(value);
+		}
+
+		@Override
+		public void date(long millis, DatePrecision precision) throws IOException {
+			values++;
+			out.date(millis, precision);
+		}
+
+		@Override
+		public void temporal(Temporal value) throws IOException {
+			values++;
+			out.temporal(value);
+		}
+
+		/**
+		 * Json text counts as a single value, as it isn't parsed.
+		 */
+		@Override
+		public void rawValue(CharSequence json) throws IOException {
+			values++;
+			out.rawValue(json);
+		}
+
+		@Override
+		public void primitives(Object array, int offset, int length) throws IOException {
+			values += 1 + length;
+			maxDepth = Math.max(maxDepth, depth + 1);
+			out.primitives(array, offset, length);
+		}
+
+		@Override
+		public void frozen(Node node) throws IOException {
+			Node.Frozen serialized = node.serialized;
+			values += serialized.values;
+			maxDepth = Math.max(maxDepth, depth + serialized.depth);
+			out.frozen(node);
+		}
+
+		@Override
+		public void pending() throws IOException {
+			out.pending();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Counts the chars written through it.
+	 */
+	static final class CountingWriter extends FilterWriter {
+
+		private long count;
+
+		CountingWriter(Writer out) {
+			super(out);
+		}
+
+		long count() {
+			return count;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			count++;
+			out.write(c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			count += len;
+			out.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			count += len;
+			out.write(str, off, len);
+		}
+	}
+}
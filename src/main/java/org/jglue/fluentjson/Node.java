@@ -0,0 +1,739 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * The content of a json object or array. Values are held in parallel arrays of
+ * type tags, primitive bits and references so that numbers and booleans are
+ * never boxed or wrapped in {@link JsonPrimitive}s before serialization.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class Node {
+
+	static final byte NULL = 0;
+	static final byte TRUE = 1;
+	static final byte FALSE = 2;
+	static final byte LONG = 3;
+	static final byte DOUBLE = 4;
+	static final byte FLOAT = 5;
+	static final byte NUMBER = 6;
+	static final byte STRING = 7;
+	static final byte NODE = 8;
+	static final byte DATE = 9;
+	static final byte TEMPORAL = 10;
+	static final byte LAZY = 11;
+	static final byte RAW = 12;
+	static final byte ASYNC = 13;
+	static final byte ROWS = 14;
+	static final byte PRIMITIVES = 15;
+
+	/**
+	 * Objects larger than this get a hash index for replacing existing keys.
+	 */
+	private static final int INDEX_THRESHOLD = 8;
+
+	private static final byte[] NO_TYPES = {};
+	private static final long[] NO_VALUES = {};
+	private static final Object[] NO_REFS = {};
+
+	final boolean object;
+	int size;
+	/**
+	 * Empty containers share empty arrays until their first value.
+	 */
+	byte[] types = NO_TYPES;
+	long[] values = NO_VALUES;
+	Object[] refs = NO_REFS;
+	/**
+	 * Each key is either a String or a {@link JsonKey}.
+	 */
+	Object[] keys;
+
+	/**
+	 * Open addressed hash table of slot + 1 by key, zero where empty. Keys
+	 * are never removed, so there are no tombstones.
+	 */
+	private int[] index;
+
+	/**
+	 * Set on every node of a frozen document, none of which may change.
+	 */
+	private boolean frozen;
+
+	/**
+	 * The serialized form of a frozen document, held by its root. Volatile so
+	 * that a frozen document can be handed to other threads.
+	 */
+	volatile Frozen serialized;
+
+	/**
+	 * The number of changes made to this node, so that a Gson tree built from
+	 * a document holding it can tell that it is out of date.
+	 */
+	int modCount;
+
+	/**
+	 * The Gson tree last built for the document this node is the root of.
+	 */
+	Tree tree;
+
+	/**
+	 * A Gson tree along with the nodes it was built from and how many changes
+	 * each had. Anything added to a document is added to one of its nodes, so
+	 * the tree is current for as long as none of them change, whichever
+	 * builder they are changed through.
+	 */
+	static final class Tree {
+		final JsonElement json;
+		private final Node[] nodes;
+		private final int[] modCounts;
+
+		Tree(Node root, JsonElement json) {
+			this.json = json;
+			List<Node> nodes = new ArrayList<Node>();
+			List<Node> pending = new ArrayList<Node>();
+			pending.add(root);
+			while (!pending.isEmpty()) {
+				Node node = pending.remove(pending.size() - 1);
+				if (node.frozen) {
+					continue;
+				}
+				nodes.add(node);
+				for (int i = 0; i < node.size; i++) {
+					if (node.types[i] == NODE) {
+						pending.add((Node) node.refs[i]);
+					}
+				}
+			}
+			this.nodes = nodes.toArray(new Node[nodes.size()]);
+			modCounts = new int[this.nodes.length];
+			for (int i = 0; i < modCounts.length; i++) {
+				modCounts[i] = this.nodes[i].modCount;
+			}
+		}
+
+		/**
+		 * @return whether none of the nodes have changed since the tree was
+		 *         built.
+		 */
+		boolean current() {
+			for (int i = 0; i < nodes.length; i++) {
+				if (nodes[i].modCount != modCounts[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A document serialized once so that it can be spliced in to others.
+	 */
+	static final class Frozen {
+		final byte[] utf8;
+		final String text;
+		final int values;
+		final int depth;
+
+		Frozen(byte[] utf8, int values, int depth) {
+			this.utf8 = utf8;
+			this.text = new String(utf8, StandardCharsets.UTF_8);
+			this.values = values;
+			this.depth = depth;
+		}
+	}
+
+	Node(boolean object) {
+		this.object = object;
+		if (object) {
+			keys = NO_REFS;
+		}
+	}
+
+	/**
+	 * @return The slot to store the value for the key in. Objects reuse the
+	 *         slot of an existing key so that it keeps its position.
+	 */
+	private int slot(Object key) {
+		if (frozen) {
+			throw new IllegalStateException("Frozen builders can't be changed");
+		}
+		if (object == (key == null)) {
+			throw new IllegalStateException(object ? "Object members must have a key" : "Array elements can't have a key");
+		}
+		if (object) {
+			int existing = indexOf(name(key));
+			if (existing != -1) {
+				return existing;
+			}
+		}
+		if (size == types.length) {
+			int capacity = Math.max(4, size * 2);
+			types = Arrays.copyOf(types, capacity);
+			values = Arrays.copyOf(values, capacity);
+			refs = Arrays.copyOf(refs, capacity);
+			if (object) {
+				keys = Arrays.copyOf(keys, capacity);
+			}
+		}
+		if (object) {
+			keys[size] = key;
+			if (index != null) {
+				if ((size + 1) * 2 > index.length) {
+					index = new int[index.length * 2];
+					for (int i = 0; i < size; i++) {
+						insert(name(keys[i]), i);
+					}
+				}
+				insert(name(key), size);
+			}
+		}
+		return size++;
+	}
+
+	private static String name(Object key) {
+		return key instanceof JsonKey ? ((JsonKey) key).getName() : (String) key;
+	}
+
+	/**
+	 * @return the slot of a key, or -1 if it isn't in this object.
+	 */
+	int indexOf(String key) {
+		if (index == null) {
+			if (size < INDEX_THRESHOLD) {
+				for (int i = 0; i < size; i++) {
+					if (name(keys[i]).equals(key)) {
+						return i;
+					}
+				}
+				return -1;
+			}
+			index = new int[Integer.highestOneBit(size) * 4];
+			for (int i = 0; i < size; i++) {
+				insert(name(keys[i]), i);
+			}
+		}
+		int mask = index.length - 1;
+		for (int h = hash(key) & mask;; h = (h + 1) & mask) {
+			int slot = index[h];
+			if (slot == 0) {
+				return -1;
+			}
+			if (name(keys[slot - 1]).equals(key)) {
+				return slot - 1;
+			}
+		}
+	}
+
+	private void insert(String key, int slot) {
+		int mask = index.length - 1;
+		int h = hash(key) & mask;
+		while (index[h] != 0) {
+			h = (h + 1) & mask;
+		}
+		index[h] = slot + 1;
+	}
+
+	/**
+	 * Similar keys such as field1, field2 have consecutive hash codes, which
+	 * would form long runs with linear probing, so they are scattered.
+	 */
+	private static int hash(String key) {
+		int h = key.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private void set(Object key, byte type, long value, Object ref) {
+		put(slot(key), type, value, ref);
+	}
+
+	private void put(int i, byte type, long value, Object ref) {
+		modCount++;
+		types[i] = type;
+		values[i] = value;
+		refs[i] = ref;
+	}
+
+	/**
+	 * @return a copy of an array of simple values.
+	 */
+	Node copyValues() {
+		Node copy = new Node(false);
+		copy.size = size;
+		copy.types = Arrays.copyOf(types, size);
+		copy.values = Arrays.copyOf(values, size);
+		copy.refs = Arrays.copyOf(refs, size);
+		return copy;
+	}
+
+	void setNull(int i) {
+		put(i, NULL, 0, null);
+	}
+
+	void set(int i, boolean value) {
+		put(i, value ? TRUE : FALSE, 0, null);
+	}
+
+	void set(int i, long value) {
+		put(i, LONG, value, null);
+	}
+
+	void set(int i, double value) {
+		put(i, DOUBLE, Double.doubleToRawLongBits(value), null);
+	}
+
+	void set(int i, Number value) {
+		put(i, value == null ? NULL : NUMBER, 0, value);
+	}
+
+	void set(int i, String value) {
+		put(i, value == null ? NULL : STRING, 0, value);
+	}
+
+	void set(int i, Date value, DatePrecision precision) {
+		if (value == null) {
+			setNull(i);
+		} else {
+			put(i, DATE, value.getTime(), precision);
+		}
+	}
+
+	void set(int i, Temporal value) {
+		put(i, value == null ? NULL : TEMPORAL, 0, value);
+	}
+
+	void addNull(Object key) {
+		set(key, NULL, 0, null);
+	}
+
+	void add(Object key, boolean value) {
+		set(key, value ? TRUE : FALSE, 0, null);
+	}
+
+	void add(Object key, long value) {
+		set(key, LONG, value, null);
+	}
+
+	void add(Object key, double value) {
+		set(key, DOUBLE, Double.doubleToRawLongBits(value), null);
+	}
+
+	void add(Object key, float value) {
+		set(key, FLOAT, Float.floatToRawIntBits(value), null);
+	}
+
+	void add(Object key, Number value) {
+		if (value == null) {
+			addNull(key);
+		} else {
+			set(key, NUMBER, 0, value);
+		}
+	}
+
+	void add(Object key, String value) {
+		if (value == null) {
+			addNull(key);
+		} else {
+			set(key, STRING, 0, value);
+		}
+	}
+
+	/**
+	 * Dates are held as their time so that they are only formatted when
+	 * written.
+	 */
+	void add(Object key, Date value, DatePrecision precision) {
+		if (value == null) {
+			addNull(key);
+		} else {
+			set(key, DATE, value.getTime(), precision);
+		}
+	}
+
+	void add(Object key, Temporal value) {
+		if (value == null) {
+			addNull(key);
+		} else {
+			set(key, TEMPORAL, 0, value);
+		}
+	}
+
+	void add(Object key, Node value) {
+		set(key, NODE, 0, value);
+	}
+
+	void add(Object key, LazyArray<?> value) {
+		set(key, LAZY, 0, value);
+	}
+
+	/**
+	 * Add the value held in a slot of another node.
+	 */
+	void add(Object key, Node from, int i) {
+		set(key, from.types[i], from.values[i], from.refs[i]);
+	}
+
+	void add(Object key, Rows<?, ?> value) {
+		set(key, ROWS, 0, value);
+	}
+
+	/**
+	 * Add a copy of part of an int[], long[], double[], float[] or boolean[],
+	 * which is written as an array in one go.
+	 */
+	void addPrimitives(Object key, Object array, int offset, int length) {
+		if (array == null) {
+			addNull(key);
+			return;
+		}
+		checkSlice(array, offset, length);
+		Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+		System.arraycopy(array, offset, copy, 0, length);
+		set(key, PRIMITIVES, length, copy);
+	}
+
+	/**
+	 * @throws IndexOutOfBoundsException
+	 *             if the part isn't within the array, unless the array is null.
+	 */
+	static void checkSlice(Object array, int offset, int length) {
+		if (array != null && (offset < 0 || length < 0 || offset > Array.getLength(array) - length)) {
+			throw new IndexOutOfBoundsException("Can't take " + length + " elements from " + offset
+					+ " of an array of length " + Array.getLength(array));
+		}
+	}
+
+	/**
+	 * The future is only waited for when it is written.
+	 */
+	void add(Object key, CompletableFuture<? extends JsonBuilder> value) {
+		if (value == null) {
+			addNull(key);
+		} else {
+			set(key, ASYNC, 0, value);
+		}
+	}
+
+	/**
+	 * Json text is held as it is and only copied when written.
+	 */
+	void addRaw(Object key, CharSequence json) {
+		if (json == null) {
+			addNull(key);
+		} else {
+			if (JsonBuilderFactory.isValidateRaw()) {
+				RawJson.validate(json);
+			}
+			set(key, RAW, 0, json);
+		}
+	}
+
+	/**
+	 * Add a value held by a {@link JsonPrimitiveBuilder}.
+	 */
+	void addValue(Object key, Object value) {
+		if (value instanceof Boolean) {
+			add(key, ((Boolean) value).booleanValue());
+		} else if (value instanceof Number) {
+			add(key, (Number) value);
+		} else if (value == null) {
+			addNull(key);
+		} else {
+			add(key, value.toString());
+		}
+	}
+
+	/**
+	 * @return the simple value in a slot as a Boolean, Number, String or null.
+	 */
+	Object value(int i) {
+		switch (types[i]) {
+		case NULL:
+			return null;
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case LONG:
+			return values[i];
+		case DOUBLE:
+			return Double.longBitsToDouble(values[i]);
+		case FLOAT:
+			return Float.intBitsToFloat((int) values[i]);
+		case NUMBER:
+		case STRING:
+			return refs[i];
+		case DATE:
+			return DateEncoder.encode(values[i], (DatePrecision) refs[i]);
+		case TEMPORAL:
+			return DateEncoder.encode((Temporal) refs[i]);
+		default:
+			throw new IllegalStateException("Not a simple value " + types[i]);
+		}
+	}
+
+	/**
+	 * Make this node and everything beneath it immutable and serialize it
+	 * once.
+	 */
+	void freeze() throws IOException {
+		if (serialized != null) {
+			return;
+		}
+		List<Node> pending = new ArrayList<Node>();
+		pending.add(this);
+		while (!pending.isEmpty()) {
+			Node node = pending.remove(pending.size() - 1);
+			node.frozen = true;
+			for (int i = 0; i < node.size; i++) {
+				if (node.types[i] == NODE) {
+					pending.add((Node) node.refs[i]);
+				} else if (node.types[i] == ROWS) {
+					((Rows<?, ?>) node.refs[i]).freeze();
+				}
+			}
+		}
+		Utf8Sink.ArraySink utf8 = new Utf8Sink.ArraySink(256);
+		Metered.Sink measured = new Metered.Sink(utf8);
+		walk(measured);
+		serialized = new Frozen(utf8.take(), measured.values(), measured.depth());
+	}
+
+	/**
+	 * Write the node and everything beneath it, splicing in the serialized
+	 * form if it is frozen.
+	 */
+	void write(JsonSink out) throws IOException {
+		if (serialized != null) {
+			out.frozen(this);
+		} else {
+			walk(out);
+		}
+	}
+
+	/**
+	 * Write the node and everything beneath it. Frozen nodes beneath this one
+	 * are spliced in.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the nesting is deeper than
+	 *             {@link JsonBuilderFactory#getMaxDepth()}.
+	 */
+	void walk(JsonSink out) throws IOException {
+		new Walker(this).walk(out, null, 0);
+	}
+
+	/**
+	 * Walks a node and everything beneath it, and can stop between values to
+	 * be resumed later. Nested nodes are tracked on an explicit stack rather
+	 * than by recursion, so deeply nested documents can't overflow the
+	 * thread's stack.
+	 */
+	static final class Walker {
+		private final int maxDepth = JsonBuilderFactory.getMaxDepth();
+		private Node[] nodes = new Node[16];
+		private int[] positions = new int[16];
+		private int depth;
+		private Node node;
+		private int i = -1;
+
+		Walker(Node root) {
+			node = root;
+		}
+
+		/**
+		 * Write until the document ends or, if bytes is not null, until it
+		 * holds at least the given number of bytes.
+		 * 
+		 * @return true if the document has ended.
+		 */
+		boolean walk(JsonSink out, Utf8Sink bytes, int until) throws IOException {
+			if (node == null) {
+				return true;
+			}
+			Node[] nodes = this.nodes;
+			int[] positions = this.positions;
+			int depth = this.depth;
+			Node node = this.node;
+			int i = this.i;
+			if (i == -1) {
+				node.begin(out);
+				i = 0;
+			}
+			while (true) {
+				if (bytes != null && bytes.pos >= until) {
+					this.nodes = nodes;
+					this.positions = positions;
+					this.depth = depth;
+					this.node = node;
+					this.i = i;
+					return false;
+				}
+				if (i == node.size) {
+					node.end(out);
+					if (depth == 0) {
+						this.node = null;
+						return true;
+					}
+					depth--;
+					node = nodes[depth];
+					i = positions[depth];
+					continue;
+				}
+				if (node.object) {
+					Object key = node.keys[i];
+					if (key instanceof JsonKey) {
+						out.name((JsonKey) key);
+					} else {
+						out.name((String) key);
+					}
+				}
+				if (node.types[i] != NODE) {
+					node.write(out, i++);
+					continue;
+				}
+				Node child = (Node) node.refs[i];
+				Frozen serialized = child.serialized;
+				if (depth + 1 + (serialized == null ? 1 : serialized.depth) > maxDepth) {
+					throw new IllegalStateException("Document is nested deeper than the maximum depth of " + maxDepth);
+				}
+				if (serialized != null) {
+					out.frozen(child);
+					i++;
+					continue;
+				}
+				if (depth == nodes.length) {
+					nodes = Arrays.copyOf(nodes, depth * 2);
+					positions = Arrays.copyOf(positions, depth * 2);
+				}
+				nodes[depth] = node;
+				positions[depth] = i + 1;
+				depth++;
+				node = child;
+				i = 0;
+				node.begin(out);
+			}
+		}
+	}
+
+	private void begin(JsonSink out) throws IOException {
+		if (object) {
+			out.beginObject();
+		} else {
+			out.beginArray();
+		}
+	}
+
+	private void end(JsonSink out) throws IOException {
+		if (object) {
+			out.endObject();
+		} else {
+			out.endArray();
+		}
+	}
+
+	/**
+	 * Write a single value, which must not be a nested node.
+	 */
+	void write(JsonSink out, int i) throws IOException {
+		write(out, types[i], values[i], refs[i]);
+	}
+
+	/**
+	 * Write a single value held as a type tag, primitive bits and reference.
+	 */
+	static void write(JsonSink out, byte type, long value, Object ref) throws IOException {
+		switch (type) {
+		case NULL:
+			out.nullValue();
+			break;
+		case TRUE:
+			out.value(true);
+			break;
+		case FALSE:
+			out.value(false);
+			break;
+		case LONG:
+			out.value(value);
+			break;
+		case DOUBLE:
+			out.value(Double.longBitsToDouble(value));
+			break;
+		case FLOAT:
+			out.value(Float.intBitsToFloat((int) value));
+			break;
+		case NUMBER:
+			out.value((Number) ref);
+			break;
+		case STRING:
+			out.value((String) ref);
+			break;
+		case DATE:
+			out.date(value, (DatePrecision) ref);
+			break;
+		case TEMPORAL:
+			out.temporal((Temporal) ref);
+			break;
+		case LAZY:
+			((LazyArray<?>) ref).write(out);
+			break;
+		case RAW:
+			out.rawValue((CharSequence) ref);
+			break;
+		case ASYNC:
+			JsonBuilderFactory.write(out, (CompletableFuture<?>) ref);
+			break;
+		case ROWS:
+			((Rows<?, ?>) ref).write(out);
+			break;
+		case PRIMITIVES:
+			out.primitives(ref, 0, (int) value);
+			break;
+		default:
+			throw new IllegalStateException("Unknown type " + type);
+		}
+	}
+
+	/**
+	 * Write a value held by a {@link JsonPrimitiveBuilder}.
+	 */
+	static void writeValue(JsonSink out, Object value) throws IOException {
+		if (value instanceof Boolean) {
+			out.value(((Boolean) value).booleanValue());
+		} else if (value instanceof Number) {
+			out.value((Number) value);
+		} else if (value == null) {
+			out.nullValue();
+		} else {
+			out.value(value.toString());
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+/**
+ * Applies a {@link Mapper} to many objects concurrently while handing the
+ * results on in the original order. Inputs smaller than
+ * {@link JsonBuilderFactory#getParallelThreshold()} are mapped on the calling
+ * thread.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class ParallelMapping {
+
+	/**
+	 * Chunks per processor, so that uneven mapping costs still balance out.
+	 */
+	private static final int CHUNKS_PER_PROCESSOR = 4;
+
+	private ParallelMapping() {
+	}
+
+	/**
+	 * Map the objects in chunks on the executor. Results are passed to the
+	 * sink on the calling thread as each chunk in turn completes. The first
+	 * failure stops the chunks that are still to map and is rethrown as it was
+	 * thrown.
+	 */
+	static <T> void map(Mapper<T> mapper, Iterable<T> objects, Executor executor, Consumer<? super JsonBuilder> sink) {
+		final Mapper<T> transform = Metered.mapper(mapper);
+		final List<T> list = toList(objects);
+		int size = list.size();
+		if (size < JsonBuilderFactory.getParallelThreshold()) {
+			for (T o : list) {
+				sink.accept(transform.map(o));
+			}
+			return;
+		}
+		int chunks = Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR;
+		int chunkSize = (size + chunks - 1) / chunks;
+		final JsonBuilder[] results = new JsonBuilder[size];
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(chunks);
+		boolean done = false;
+		try {
+			for (int start = 0; start < size; start += chunkSize) {
+				final int from = start;
+				final int to = Math.min(size, start + chunkSize);
+				futures.add(CompletableFuture.runAsync(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							for (int i = from; i < to && failure.get() == null; i++) {
+								results[i] = transform.map(list.get(i));
+							}
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+							throw e;
+						}
+					}
+				}, executor));
+			}
+			int next = 0;
+			for (CompletableFuture<Void> future : futures) {
+				join(future, failure);
+				int to = Math.min(size, next + chunkSize);
+				for (; next < to; next++) {
+					sink.accept(results[next]);
+					results[next] = null;
+				}
+			}
+			done = true;
+		} finally {
+			if (!done) {
+				failure.compareAndSet(null, new CancellationException());
+				for (CompletableFuture<Void> future : futures) {
+					future.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Map the objects using the fork join pool if parallel was requested and
+	 * there are enough of them. The first failure is rethrown as it was
+	 * thrown rather than as the copy the fork join pool makes.
+	 */
+	static <T> void map(Mapper<T> transform, Spliterator<T> objects, boolean parallel, Consumer<? super JsonBuilder> sink) {
+		final Mapper<T> timed = Metered.mapper(transform);
+		long size = objects.getExactSizeIfKnown();
+		if (size != -1 && size < JsonBuilderFactory.getParallelThreshold()) {
+			parallel = false;
+		}
+		if (!parallel) {
+			StreamSupport.stream(objects, false).map(timed::map).forEachOrdered(sink);
+			return;
+		}
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		try {
+			StreamSupport.stream(objects, true).map(o -> {
+				try {
+					return timed.map(o);
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+					throw e;
+				}
+			}).forEachOrdered(sink);
+		} catch (RuntimeException | Error e) {
+			rethrow(failure.get());
+			throw e;
+		}
+	}
+
+	private static <T> List<T> toList(Iterable<T> objects) {
+		if (objects instanceof List && objects instanceof RandomAccess) {
+			return (List<T>) objects;
+		}
+		if (objects instanceof Collection) {
+			return new ArrayList<T>((Collection<T>) objects);
+		}
+		List<T> list = new ArrayList<T>();
+		for (T o : objects) {
+			list.add(o);
+		}
+		return list;
+	}
+
+	/**
+	 * Wait for a chunk, rethrowing the first failure of any chunk.
+	 */
+	private static void join(CompletableFuture<Void> future, AtomicReference<Throwable> failure) {
+		try {
+			future.join();
+		} catch (CompletionException e) {
+			rethrow(failure.get());
+			throw e;
+		}
+		rethrow(failure.get());
+	}
+
+	private static void rethrow(Throwable failure) {
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new CompletionException(failure);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Json text added to a builder as it is.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class RawJson {
+
+	private RawJson() {
+	}
+
+	/**
+	 * A cheap check that the text is a single value with balanced brackets
+	 * and terminated strings. The grammar between the brackets, such as
+	 * commas, colons and literals, isn't checked.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the text isn't structurally valid.
+	 */
+	static void validate(CharSequence json) {
+		char[] open = new char[16];
+		int depth = 0;
+		boolean complete = false;
+		int length = json.length();
+		for (int i = 0; i < length; i++) {
+			char c = json.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				continue;
+			}
+			if (complete) {
+				throw new IllegalArgumentException("Unexpected '" + c + "' after the value at " + i);
+			}
+			switch (c) {
+			case '{':
+			case '[':
+				if (depth == open.length) {
+					open = Arrays.copyOf(open, depth * 2);
+				}
+				open[depth++] = c;
+				break;
+			case '}':
+			case ']':
+				if (depth == 0 || open[depth - 1] != (c == '}' ? '{' : '[')) {
+					throw new IllegalArgumentException("Unmatched '" + c + "' at " + i);
+				}
+				complete = --depth == 0;
+				break;
+			case '"':
+				int start = i;
+				for (i++; i < length && json.charAt(i) != '"'; i++) {
+					if (json.charAt(i) == '\\') {
+						i++;
+					}
+				}
+				if (i >= length) {
+					throw new IllegalArgumentException("Unterminated string at " + start);
+				}
+				complete = depth == 0;
+				break;
+			default:
+				if (depth == 0) {
+					while (i + 1 < length && "{}[]\", \t\n\r".indexOf(json.charAt(i + 1)) == -1) {
+						i++;
+					}
+					complete = true;
+				}
+			}
+		}
+		if (depth > 0) {
+			throw new IllegalArgumentException("Unclosed '" + open[depth - 1] + "'");
+		}
+		if (!complete) {
+			throw new IllegalArgumentException("No value");
+		}
+	}
+
+	/**
+	 * Parse the text and pass its tokens on, for sinks that can't copy it.
+	 */
+	static void copy(CharSequence json, JsonSink out) throws IOException {
+		JsonReader in = new JsonReader(new StringReader(json.toString()));
+		in.setLenient(true);
+		int depth = 0;
+		do {
+			JsonToken token = in.peek();
+			switch (token) {
+			case BEGIN_OBJECT:
+				in.beginObject();
+				out.beginObject();
+				depth++;
+				break;
+			case END_OBJECT:
+				in.endObject();
+				out.endObject();
+				depth--;
+				break;
+			case BEGIN_ARRAY:
+				in.beginArray();
+				out.beginArray();
+				depth++;
+				break;
+			case END_ARRAY:
+				in.endArray();
+				out.endArray();
+				depth--;
+				break;
+			case NAME:
+				out.name(in.nextName());
+				break;
+			case STRING:
+				out.value(in.nextString());
+				break;
+			case NUMBER:
+				number(in.nextString(), out);
+				break;
+			case BOOLEAN:
+				out.value(in.nextBoolean());
+				break;
+			case NULL:
+				in.nextNull();
+				out.nullValue();
+				break;
+			default:
+				throw new IllegalStateException("Unexpected " + token);
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Integers keep their exact value, anything else becomes a double.
+	 */
+	private static void number(String number, JsonSink out) throws IOException {
+		if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+			try {
+				out.value(Long.parseLong(number));
+			} catch (NumberFormatException e) {
+				out.value(new BigInteger(number));
+			}
+		} else {
+			out.value(Double.parseDouble(number));
+		}
+	}
+}
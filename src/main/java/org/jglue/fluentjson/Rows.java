@@ -0,0 +1,244 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.time.temporal.Temporal;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Objects with the same keys, held as a column of simple values per key and
+ * written as one object per row. A column only holds the arrays that its
+ * values need, so a column of longs is just a long[].
+ *
+ * @author Bryn Cooke
+ *
+ * @param <P>
+ *            The parent type.
+ * @param <R>
+ *            The root type.
+ */
+final class Rows<P, R> implements JsonRowsBuilder<P, R> {
+
+	private final P parent;
+	private final Node node;
+
+	/**
+	 * Each column is either a String or a {@link JsonKey}.
+	 */
+	private final Object[] columns;
+	private final Column[] cells;
+
+	/**
+	 * The number of values added.
+	 */
+	private int count;
+	private boolean frozen;
+
+	/**
+	 * @param node
+	 *            The array the rows are in, which counts them as changes to
+	 *            it.
+	 */
+	Rows(P parent, Node node, Object[] columns) {
+		this.parent = parent;
+		this.node = node;
+		this.columns = columns(columns);
+		cells = new Column[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			cells[i] = new Column();
+		}
+	}
+
+	static Object[] columns(Object[] columns) {
+		if (columns == null || columns.length == 0) {
+			throw new IllegalArgumentException("Rows must have at least one column");
+		}
+		for (Object column : columns) {
+			if (column == null) {
+				throw new IllegalArgumentException("Column must not be null");
+			}
+		}
+		return columns.clone();
+	}
+
+	void freeze() {
+		frozen = true;
+	}
+
+	private JsonRowsBuilder<P, R> add(byte type, long value, Object ref) {
+		if (frozen) {
+			throw new IllegalStateException("Frozen builders can't be changed");
+		}
+		node.modCount++;
+		cells[count % cells.length].add(type, value, ref);
+		count++;
+		return this;
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(boolean value) {
+		return add(value ? Node.TRUE : Node.FALSE, 0, null);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(int value) {
+		return add(Node.LONG, value, null);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(long value) {
+		return add(Node.LONG, value, null);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(double value) {
+		return add(Node.DOUBLE, Double.doubleToRawLongBits(value), null);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(float value) {
+		return add(Node.FLOAT, Float.floatToRawIntBits(value), null);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(Number value) {
+		return add(value == null ? Node.NULL : Node.NUMBER, 0, value);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(String value) {
+		return add(value == null ? Node.NULL : Node.STRING, 0, value);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(Date value) {
+		if (value == null) {
+			return addNull();
+		}
+		return add(Node.DATE, value.getTime(), JsonBuilderFactory.getDatePrecision());
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> add(Temporal value) {
+		return add(value == null ? Node.NULL : Node.TEMPORAL, 0, value);
+	}
+
+	@Override
+	public JsonRowsBuilder<P, R> addNull() {
+		return add(Node.NULL, 0, null);
+	}
+
+	@Override
+	public P end() {
+		complete();
+		return parent;
+	}
+
+	private void complete() {
+		if (count % cells.length != 0) {
+			throw new IllegalStateException("The last row doesn't have a value for every column");
+		}
+	}
+
+	static void name(JsonSink out, Object column) throws IOException {
+		if (column instanceof JsonKey) {
+			out.name((JsonKey) column);
+		} else {
+			out.name((String) column);
+		}
+	}
+
+	/**
+	 * Write every row as an element of the enclosing array, failing like
+	 * {@link #end()} if the last row is incomplete.
+	 */
+	void write(JsonSink out) throws IOException {
+		complete();
+		int rows = count / cells.length;
+		for (int row = 0; row < rows; row++) {
+			out.beginObject();
+			for (int column = 0; column < cells.length; column++) {
+				name(out, columns[column]);
+				cells[column].write(out, row);
+			}
+			out.endObject();
+		}
+	}
+
+	/**
+	 * The values for one key. Type tags are only held once a column has more
+	 * than one type, and primitive bits and references only once a value
+	 * needs them.
+	 */
+	private static final class Column {
+		private static final byte NONE = -1;
+
+		private int size;
+		private int capacity;
+		private byte type = NONE;
+		private byte[] types;
+		private long[] values;
+		private Object[] refs;
+
+		void add(byte type, long value, Object ref) {
+			if (size == capacity) {
+				grow();
+			}
+			if (this.type == NONE) {
+				this.type = type;
+			} else if (types == null && type != this.type) {
+				types = new byte[capacity];
+				Arrays.fill(types, 0, size, this.type);
+			}
+			if (types != null) {
+				types[size] = type;
+			}
+			if (values == null && value != 0) {
+				values = new long[capacity];
+			}
+			if (values != null) {
+				values[size] = value;
+			}
+			if (refs == null && ref != null) {
+				refs = new Object[capacity];
+			}
+			if (refs != null) {
+				refs[size] = ref;
+			}
+			size++;
+		}
+
+		private void grow() {
+			capacity = Math.max(16, capacity * 2);
+			if (types != null) {
+				types = Arrays.copyOf(types, capacity);
+			}
+			if (values != null) {
+				values = Arrays.copyOf(values, capacity);
+			}
+			if (refs != null) {
+				refs = Arrays.copyOf(refs, capacity);
+			}
+		}
+
+		void write(JsonSink out, int row) throws IOException {
+			Node.write(out, types == null ? type : types[row], values == null ? 0 : values[row],
+					refs == null ? null : refs[row]);
+		}
+	}
+}
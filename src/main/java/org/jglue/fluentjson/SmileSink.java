@@ -0,0 +1,257 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Sink that encodes Smile. Names and string values are not shared, so the
+ * header declares neither.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class SmileSink extends BinarySink {
+
+	private static final int EMPTY_STRING = 0x20;
+	private static final int NULL = 0x21;
+	private static final int FALSE = 0x22;
+	private static final int TRUE = 0x23;
+	private static final int INT = 0x24;
+	private static final int LONG = 0x25;
+	private static final int BIG_INTEGER = 0x26;
+	private static final int FLOAT = 0x28;
+	private static final int DOUBLE = 0x29;
+	private static final int BIG_DECIMAL = 0x2a;
+	private static final int SMALL_INT = 0xc0;
+	private static final int TINY_ASCII = 0x40;
+	private static final int SHORT_ASCII = 0x60;
+	private static final int TINY_UNICODE = 0x80;
+	private static final int SHORT_UNICODE = 0xa0;
+	private static final int LONG_ASCII = 0xe0;
+	private static final int LONG_UNICODE = 0xe4;
+	private static final int START_ARRAY = 0xf8;
+	private static final int END_ARRAY = 0xf9;
+	private static final int START_OBJECT = 0xfa;
+	private static final int END_OBJECT = 0xfb;
+	private static final int END_STRING = 0xfc;
+
+	private static final int NAME_SHORT_ASCII = 0x80;
+	private static final int NAME_SHORT_UNICODE = 0xc0;
+	private static final int NAME_LONG_UNICODE = 0x34;
+
+	SmileSink() {
+		super(0);
+		write(':');
+		write(')');
+		write('\n');
+		write(0);
+	}
+
+	/**
+	 * Smile marks the ends of objects and arrays rather than giving their
+	 * lengths.
+	 */
+	@Override
+	protected int header(byte[] to, boolean object, int count) {
+		return 0;
+	}
+
+	@Override
+	public void beginObject() {
+		begin(true);
+		write(START_OBJECT);
+	}
+
+	@Override
+	public void endObject() {
+		end();
+		write(END_OBJECT);
+	}
+
+	@Override
+	public void beginArray() {
+		begin(false);
+		write(START_ARRAY);
+	}
+
+	@Override
+	public void endArray() {
+		end();
+		write(END_ARRAY);
+	}
+
+	@Override
+	public void name(String name) {
+		int length = utf8Length(name);
+		if (length == 0) {
+			write(EMPTY_STRING);
+			return;
+		}
+		boolean ascii = length == name.length();
+		if (ascii && length <= 64) {
+			write(NAME_SHORT_ASCII + length - 1);
+			utf8(name, length);
+		} else if (!ascii && length <= 57) {
+			write(NAME_SHORT_UNICODE + length - 2);
+			utf8(name, length);
+		} else {
+			write(NAME_LONG_UNICODE);
+			utf8(name, length);
+			write(END_STRING);
+		}
+	}
+
+	@Override
+	public void nullValue() {
+		element();
+		write(NULL);
+	}
+
+	@Override
+	public void value(boolean value) {
+		element();
+		write(value ? TRUE : FALSE);
+	}
+
+	@Override
+	public void value(long value) {
+		element();
+		if (value >= -16 && value <= 15) {
+			write(SMALL_INT + (int) zigzag(value));
+		} else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			write(INT);
+			vint(zigzag(value));
+		} else {
+			write(LONG);
+			vint(zigzag(value));
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Write an unsigned number in big endian groups of 7 bits, except for the
+	 * last byte which holds 6 bits and has its high bit set.
+	 */
+	private void vint(long value) {
+		int groups = 0;
+		for (long rest = value >>> 6; rest != 0; rest >>>= 7) {
+			groups++;
+		}
+		ensure(groups + 1);
+		for (int i = groups - 1; i >= 0; i--) {
+			buf[pos++] = (byte) ((value >>> (6 + i * 7)) & 0x7f);
+		}
+		buf[pos++] = (byte) (0x80 | (value & 0x3f));
+	}
+
+	/**
+	 * Write bits in big endian groups of 7, so that no byte has its high bit
+	 * set.
+	 */
+	private void sevenBits(long bits, int bytes) {
+		ensure(bytes);
+		for (int i = bytes - 1; i >= 0; i--) {
+			buf[pos++] = (byte) ((bits >>> (i * 7)) & 0x7f);
+		}
+	}
+
+	@Override
+	public void value(double value) {
+		element();
+		write(DOUBLE);
+		sevenBits(Double.doubleToRawLongBits(value), 10);
+	}
+
+	@Override
+	public void value(float value) {
+		element();
+		write(FLOAT);
+		sevenBits(Float.floatToRawIntBits(value) & 0xffffffffL, 5);
+	}
+
+	@Override
+	public void value(String value) {
+		if (value == null) {
+			nullValue();
+			return;
+		}
+		element();
+		int length = utf8Length(value);
+		boolean ascii = length == value.length();
+		if (length == 0) {
+			write(EMPTY_STRING);
+		} else if (ascii && length <= 32) {
+			write(TINY_ASCII + length - 1);
+			utf8(value, length);
+		} else if (ascii && length <= 64) {
+			write(SHORT_ASCII + length - 33);
+			utf8(value, length);
+		} else if (!ascii && length <= 33) {
+			write(TINY_UNICODE + length - 2);
+			utf8(value, length);
+		} else if (!ascii && length <= 65) {
+			write(SHORT_UNICODE + length - 34);
+			utf8(value, length);
+		} else {
+			write(ascii ? LONG_ASCII : LONG_UNICODE);
+			utf8(value, length);
+			write(END_STRING);
+		}
+	}
+
+	@Override
+	protected void bigInteger(BigInteger value) {
+		element();
+		write(BIG_INTEGER);
+		binary(value.toByteArray());
+	}
+
+	@Override
+	protected void decimal(BigDecimal value) {
+		element();
+		write(BIG_DECIMAL);
+		vint(zigzag(value.scale()));
+		binary(value.unscaledValue().toByteArray());
+	}
+
+	/**
+	 * Write the length of the bytes followed by the bytes split in to groups
+	 * of 7 bits, with any bits left over in the last byte.
+	 */
+	private void binary(byte[] bytes) {
+		vint(bytes.length);
+		ensure(bytes.length + bytes.length / 7 + 1);
+		int bits = 0;
+		int pending = 0;
+		for (byte b : bytes) {
+			pending = (pending << 8) | (b & 0xff);
+			bits += 8;
+			while (bits >= 7) {
+				bits -= 7;
+				buf[pos++] = (byte) ((pending >>> bits) & 0x7f);
+			}
+			pending &= (1 << bits) - 1;
+		}
+		if (bits > 0) {
+			buf[pos++] = (byte) pending;
+		}
+	}
+}
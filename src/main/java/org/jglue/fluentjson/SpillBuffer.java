@@ -0,0 +1,260 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds a document that is too large for the heap as UTF-8, so that it can be
+ * built first and written afterwards. The document is encoded as it is added,
+ * in to direct buffers outside the heap until they reach a limit, and then in
+ * to a temporary file. Writing to a channel copies the file with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+ * usually avoids copying through the JVM at all.
+ * 
+ * <pre>
+ * try (SpillBuffer buffer = SpillBuffer.create(256 * 1024 * 1024)) {
+ * 	JsonArrayBuilder&lt;?, Void&gt; rows = buffer.buildArray();
+ * 	for (Row row : rows()) {
+ * 		rows.addObject().add(&quot;id&quot;, row.getId()).end();
+ * 	}
+ * 	rows.end();
+ * 	buffer.write(channel);
+ * }
+ * </pre>
+ * 
+ * The builders are streaming builders, so only the innermost open object or
+ * array may be added to. Closing the buffer deletes the file.
+ * 
+ * @author Bryn Cooke
+ *
+ */
+public final class SpillBuffer implements Closeable {
+
+	private static final int SEGMENT_SIZE = 1024 * 1024;
+
+	private final long memoryLimit;
+	private final Path directory;
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private long inMemory;
+	private FileChannel file;
+	private Sink sink;
+	private boolean closed;
+
+	private SpillBuffer(long memoryLimit, Path directory) {
+		this.memoryLimit = memoryLimit;
+		this.directory = directory;
+	}
+
+	/**
+	 * @param memoryLimit
+	 *            How many bytes to hold in direct buffers before the rest is
+	 *            written to a file.
+	 * @return a buffer whose file is in the default temporary directory.
+	 */
+	public static SpillBuffer create(long memoryLimit) {
+		return create(memoryLimit, null);
+	}
+
+	/**
+	 * @param memoryLimit
+	 *            How many bytes to hold in direct buffers before the rest is
+	 *            written to a file.
+	 * @param directory
+	 *            Where to create the file, or null for the default temporary
+	 *            directory.
+	 * @return a buffer.
+	 */
+	public static SpillBuffer create(long memoryLimit, Path directory) {
+		if (memoryLimit < 0) {
+			throw new IllegalArgumentException("Memory limit must not be negative");
+		}
+		return new SpillBuffer(memoryLimit, directory);
+	}
+
+	/**
+	 * @return the builder for the object held by this buffer.
+	 */
+	public JsonObjectBuilder<?, Void> buildObject() {
+		return JsonStreamBuilder.object(open());
+	}
+
+	/**
+	 * @return the builder for the array held by this buffer.
+	 */
+	public JsonArrayBuilder<?, Void> buildArray() {
+		return JsonStreamBuilder.array(open());
+	}
+
+	private Sink open() {
+		if (closed) {
+			throw new IllegalStateException("The buffer has been closed");
+		}
+		if (sink != null) {
+			throw new IllegalStateException("A buffer can only hold one document");
+		}
+		sink = new Sink();
+		return sink;
+	}
+
+	/**
+	 * @return the number of bytes held.
+	 */
+	public long size() {
+		return sink == null ? 0 : sink.length();
+	}
+
+	private void complete() {
+		if (closed) {
+			throw new IllegalStateException("The buffer has been closed");
+		}
+		if (sink == null || !sink.finished) {
+			throw new IllegalStateException("The document must be ended before it is written");
+		}
+	}
+
+	/**
+	 * Write the document, which must have been ended. The buffer is left as
+	 * it was, so the document can be written more than once.
+	 * 
+	 * @param out
+	 *            The channel to write to.
+	 * @throws IOException
+	 *             If there was a problem writing.
+	 */
+	public void write(WritableByteChannel out) throws IOException {
+		complete();
+		for (ByteBuffer segment : segments) {
+			ByteBuffer content = segment.duplicate();
+			content.flip();
+			while (content.hasRemaining()) {
+				out.write(content);
+			}
+		}
+		if (file != null) {
+			long size = file.size();
+			for (long position = 0; position < size;) {
+				position += file.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+	/**
+	 * Write the document, which must have been ended. The buffer is left as
+	 * it was, so the document can be written more than once. The stream is
+	 * not flushed or closed.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @throws IOException
+	 *             If there was a problem writing.
+	 */
+	public void write(OutputStream out) throws IOException {
+		write(Channels.newChannel(out));
+	}
+
+	/**
+	 * Delete the file and let go of the direct buffers.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		segments.clear();
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+	/**
+	 * Encodes in to a heap buffer, which is drained in to direct segments and
+	 * then the file.
+	 */
+	private final class Sink extends Utf8Sink {
+		private final ByteBuffer buffer;
+		private boolean finished;
+
+		Sink() {
+			super(new byte[8192], 0, 8192);
+			buffer = ByteBuffer.wrap(buf);
+		}
+
+		@Override
+		protected void drain() throws IOException {
+			if (closed) {
+				throw new IllegalStateException("The buffer has been closed");
+			}
+			buffer.limit(pos).position(0);
+			while (buffer.hasRemaining() && inMemory < memoryLimit) {
+				ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+				if (segment == null || !segment.hasRemaining()) {
+					segment = ByteBuffer.allocateDirect((int) Math.min(SEGMENT_SIZE, memoryLimit - inMemory));
+					segments.add(segment);
+				}
+				int length = Math.min(buffer.remaining(), segment.remaining());
+				ByteBuffer part = buffer.duplicate();
+				part.limit(part.position() + length);
+				segment.put(part);
+				buffer.position(buffer.position() + length);
+				inMemory += length;
+			}
+			if (buffer.hasRemaining()) {
+				if (file == null) {
+					Path path = directory == null ? Files.createTempFile("fluent-json", ".spill")
+							: Files.createTempFile(directory, "fluent-json", ".spill");
+					file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+							StandardOpenOption.DELETE_ON_CLOSE);
+				}
+				while (buffer.hasRemaining()) {
+					file.write(buffer);
+				}
+			}
+			drained += pos;
+			pos = 0;
+		}
+
+		@Override
+		void finish() throws IOException {
+			drain();
+			finished = true;
+		}
+
+		/**
+		 * Streaming builders flush when their root ends, which is the end of
+		 * the document unless the root was nested in it, such as for a lazy
+		 * array.
+		 */
+		@Override
+		public void flush() throws IOException {
+			if (depth() == 0) {
+				finish();
+			} else {
+				drain();
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+/**
+ * Adds an object to an array itself instead of returning a builder for it,
+ * so that mapping many objects doesn't create a builder per object. Builders
+ * pass themselves in when mapping with one of these, and the builder may be
+ * streaming.
+ * 
+ * <pre>
+ * StreamingMapper&lt;Person&gt; mapper = (person, out) -&gt; out.addObject()
+ * 		.add(&quot;name&quot;, person.getName())
+ * 		.end();
+ * </pre>
+ * 
+ * @author Bryn Cooke
+ *
+ * @param <T>
+ *            The type of the object to map.
+ */
+public interface StreamingMapper<T> extends Mapper<T> {
+
+	/**
+	 * Add the object to the array as exactly one element.
+	 * 
+	 * @param o
+	 *            the object to transform.
+	 * @param out
+	 *            the array to add to.
+	 */
+	public void map(T o, JsonArrayBuilder<?, ?> out);
+
+	/**
+	 * Map a single object to a builder of its own.
+	 */
+	@Override
+	public default JsonBuilder map(T o) {
+		return JsonBuilderFactory.element(this, o);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.Arrays;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Sink that builds a Gson tree.
+ *
+ * @author Bryn Cooke
+ *
+ */
+final class TreeSink implements JsonSink {
+
+	private JsonElement[] open = new JsonElement[16];
+	private int depth;
+	private String name;
+	private JsonElement root;
+
+	/**
+	 * @return the tree once the document has been written.
+	 */
+	JsonElement root() {
+		return root;
+	}
+
+	private void add(JsonElement value) {
+		if (depth == 0) {
+			root = value;
+		} else if (open[depth - 1] instanceof JsonObject) {
+			((JsonObject) open[depth - 1]).add(name, value);
+		} else {
+			((JsonArray) open[depth - 1]).add(value);
+		}
+	}
+
+	private void begin(JsonElement scope) {
+		add(scope);
+		if (depth == open.length) {
+			open = Arrays.copyOf(open, depth * 2);
+		}
+		open[depth++] = scope;
+	}
+
+	private void end() {
+		open[--depth] = null;
+	}
+
+	@Override
+	public void beginObject() {
+		begin(new JsonObject());
+	}
+
+	@Override
+	public void endObject() {
+		end();
+	}
+
+	@Override
+	public void beginArray() {
+		begin(new JsonArray());
+	}
+
+	@Override
+	public void endArray() {
+		end();
+	}
+
+	@Override
+	public void name(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public void nullValue() {
+		add(JsonNull.INSTANCE);
+	}
+
+	@Override
+	public void value(boolean value) {
+		add(new JsonPrimitive(value));
+	}
+
+	@Override
+	public void value(long value) {
+		add(new JsonPrimitive(value));
+	}
+
+	@Override
+	public void value(double value) {
+		add(new JsonPrimitive(value));
+	}
+
+	@Override
+	public void value(float value) {
+		add(new JsonPrimitive(value));
+	}
+
+	@Override
+	public void value(Number value) {
+		add(value == null ? JsonNull.INSTANCE : new JsonPrimitive(value));
+	}
+
+	@Override
+	public void value(String value) {
+		add(value == null ? JsonNull.INSTANCE : new JsonPrimitive(value));
+	}
+
+	@Override
+	public void flush() {
+	}
+}
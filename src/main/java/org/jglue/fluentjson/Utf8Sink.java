@@ -0,0 +1,826 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.temporal.Temporal;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Sink that encodes json as UTF-8 bytes itself rather than going through a
+ * {@link java.io.Writer}. Output is the same as Gson's
+ * {@link com.google.gson.stream.JsonWriter}, and runs of ASCII that need no
+ * escaping are copied a char at a time with a single check each.
+ *
+ * @author Bryn Cooke
+ *
+ */
+abstract class Utf8Sink implements JsonSink {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The char to write after a backslash, 'u' for a unicode escape or 0 if no
+	 * escape is needed.
+	 */
+	private static final byte[] ESCAPES = new byte[128];
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ESCAPES[c] = 'u';
+		}
+		ESCAPES['"'] = '"';
+		ESCAPES['\\'] = '\\';
+		ESCAPES['\t'] = 't';
+		ESCAPES['\b'] = 'b';
+		ESCAPES['\n'] = 'n';
+		ESCAPES['\r'] = 'r';
+		ESCAPES['\f'] = 'f';
+	}
+
+	protected byte[] buf;
+	protected int pos;
+	protected int limit;
+	/**
+	 * Bytes already passed on by {@link #drain()}.
+	 */
+	protected long drained;
+
+	/**
+	 * Whether anything has been written in each open scope, so that commas
+	 * can be inserted.
+	 */
+	private boolean[] started = new boolean[32];
+	private int depth;
+	private boolean afterName;
+	private final byte[] digits = new byte[20];
+	private final char[] chars = new char[DateEncoder.MAX_LENGTH];
+
+	protected Utf8Sink(byte[] buf, int pos, int limit) {
+		this.buf = buf;
+		this.pos = pos;
+		this.limit = limit;
+	}
+
+	static Utf8Sink of(OutputStream out) {
+		return new StreamSink(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * @param expected
+	 *            The expected length of the output, so that small documents
+	 *            don't pay for a full size buffer.
+	 */
+	static Utf8Sink of(OutputStream out, int expected) {
+		return new StreamSink(out, Math.max(16, Math.min(BUFFER_SIZE, expected)));
+	}
+
+	static Utf8Sink of(WritableByteChannel out) {
+		return new ChannelSink(out);
+	}
+
+	static Utf8Sink of(ByteBuffer out) {
+		if (out.hasArray()) {
+			return new HeapBufferSink(out);
+		}
+		return new DirectBufferSink(out);
+	}
+
+	/**
+	 * Make room in the buffer, which must be empty on return unless there is
+	 * nowhere to put its content.
+	 */
+	protected abstract void drain() throws IOException;
+
+	/**
+	 * Pass on everything written so far and end the output, once the whole
+	 * document has been written.
+	 */
+	abstract void finish() throws IOException;
+
+	/**
+	 * @return the number of bytes written so far.
+	 */
+	long length() {
+		return drained + pos;
+	}
+
+	/**
+	 * @return the number of objects and arrays that are open.
+	 */
+	int depth() {
+		return depth;
+	}
+
+	/**
+	 * Pass on everything written so far without ending the output, as this
+	 * may be called part way through a document.
+	 */
+	@Override
+	public void flush() throws IOException {
+		pending();
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (limit - pos < bytes) {
+			drain();
+			if (limit - pos < bytes) {
+				throw new BufferOverflowException();
+			}
+		}
+	}
+
+	private void write(byte b) throws IOException {
+		if (pos == limit) {
+			ensure(1);
+		}
+		buf[pos++] = b;
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (pos == limit) {
+				ensure(1);
+			}
+			int n = Math.min(len, limit - pos);
+			System.arraycopy(b, off, buf, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void writeAscii(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			write((byte) s.charAt(i));
+		}
+	}
+
+	private void beforeValue() throws IOException {
+		if (afterName) {
+			afterName = false;
+		} else if (depth > 0) {
+			if (started[depth]) {
+				write((byte) ',');
+			}
+			started[depth] = true;
+		}
+	}
+
+	private void push() {
+		if (++depth == started.length) {
+			started = Arrays.copyOf(started, depth * 2);
+		}
+		started[depth] = false;
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		beforeValue();
+		write((byte) '{');
+		push();
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		depth--;
+		write((byte) '}');
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		beforeValue();
+		write((byte) '[');
+		push();
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		depth--;
+		write((byte) ']');
+	}
+
+	@Override
+	public void name(String name) throws IOException {
+		JsonKey key = JsonKey.cached(name);
+		if (key != null) {
+			name(key);
+			return;
+		}
+		if (started[depth]) {
+			write((byte) ',');
+		}
+		started[depth] = true;
+		long drained = this.drained;
+		int start = pos;
+		string(name);
+		write((byte) ':');
+		if (drained == this.drained) {
+			// Still in the buffer, so the encoded key can be cached as it is.
+			JsonKey.cache(name, Arrays.copyOfRange(buf, start, pos));
+		}
+		afterName = true;
+	}
+
+	@Override
+	public void name(JsonKey key) throws IOException {
+		if (started[depth]) {
+			write((byte) ',');
+		}
+		started[depth] = true;
+		write(key.utf8, 0, key.utf8.length);
+		afterName = true;
+	}
+
+	/**
+	 * @return the quoted and escaped name followed by a colon.
+	 */
+	static byte[] encodeName(String name) {
+		ArraySink sink = new ArraySink(name.length() + 3);
+		Utf8Sink out = sink;
+		try {
+			out.string(name);
+			out.write((byte) ':');
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return sink.take();
+	}
+
+	/**
+	 * Write the comma, if any, for a value that will be written elsewhere.
+	 */
+	void beforeSlot() throws IOException {
+		beforeValue();
+	}
+
+	@Override
+	public void frozen(Node node) throws IOException {
+		byte[] utf8 = node.serialized.utf8;
+		beforeValue();
+		write(utf8, 0, utf8.length);
+	}
+
+	/**
+	 * Json text is copied without escaping, as it is already json.
+	 */
+	@Override
+	public void rawValue(CharSequence json) throws IOException {
+		beforeValue();
+		int length = json.length();
+		int i = 0;
+		while (i < length) {
+			if (pos == limit) {
+				ensure(1);
+			}
+			int end = Math.min(length, i + limit - pos);
+			byte[] buf = this.buf;
+			int pos = this.pos;
+			char c = 0;
+			while (i < end && (c = json.charAt(i)) < 0x80) {
+				buf[pos++] = (byte) c;
+				i++;
+			}
+			this.pos = pos;
+			if (i < end) {
+				i = encodeRaw(c, json, i, length) + 1;
+			}
+		}
+	}
+
+	/**
+	 * Write a char of json text that needs more than one byte.
+	 *
+	 * @return the index of the last char consumed.
+	 */
+	private int encodeRaw(char c, CharSequence s, int i, int length) throws IOException {
+		if (c < 0x800) {
+			ensure(2);
+			buf[pos++] = (byte) (0xc0 | (c >> 6));
+			buf[pos++] = (byte) (0x80 | (c & 0x3f));
+		} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+			int codePoint = Character.toCodePoint(c, s.charAt(++i));
+			ensure(4);
+			buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+			buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+			buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+			buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+		} else if (Character.isSurrogate(c)) {
+			write((byte) '?');
+		} else {
+			ensure(3);
+			buf[pos++] = (byte) (0xe0 | (c >> 12));
+			buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			buf[pos++] = (byte) (0x80 | (c & 0x3f));
+		}
+		return i;
+	}
+
+	/**
+	 * Write bytes that are already encoded json.
+	 */
+	void raw(byte[] bytes, int off, int len) throws IOException {
+		write(bytes, off, len);
+	}
+
+	@Override
+	public void nullValue() throws IOException {
+		beforeValue();
+		writeAscii("null");
+	}
+
+	@Override
+	public void value(boolean value) throws IOException {
+		beforeValue();
+		writeAscii(value ? "true" : "false");
+	}
+
+	@Override
+	public void value(long value) throws IOException {
+		beforeValue();
+		digits(value);
+	}
+
+	private void digits(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			writeAscii(Long.toString(value));
+			return;
+		}
+		boolean negative = value < 0;
+		if (negative) {
+			value = -value;
+		}
+		int i = digits.length;
+		do {
+			digits[--i] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		if (negative) {
+			digits[--i] = '-';
+		}
+		write(digits, i, digits.length - i);
+	}
+
+	@Override
+	public void value(double value) throws IOException {
+		finite(value);
+		beforeValue();
+		writeAscii(Double.toString(value));
+	}
+
+	@Override
+	public void value(float value) throws IOException {
+		finite(value);
+		beforeValue();
+		writeAscii(Float.toString(value));
+	}
+
+	private static void finite(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		}
+	}
+
+	/**
+	 * The elements are written directly rather than as separate values, so
+	 * that there is no per element bookkeeping.
+	 */
+	@Override
+	public void primitives(Object array, int offset, int length) throws IOException {
+		beforeValue();
+		write((byte) '[');
+		int end = offset + length;
+		if (array instanceof int[]) {
+			int[] values = (int[]) array;
+			for (int i = offset; i < end; i++) {
+				if (i != offset) {
+					write((byte) ',');
+				}
+				digits(values[i]);
+			}
+		} else if (array instanceof long[]) {
+			long[] values = (long[]) array;
+			for (int i = offset; i < end; i++) {
+				if (i != offset) {
+					write((byte) ',');
+				}
+				digits(values[i]);
+			}
+		} else if (array instanceof double[]) {
+			double[] values = (double[]) array;
+			for (int i = offset; i < end; i++) {
+				finite(values[i]);
+				if (i != offset) {
+					write((byte) ',');
+				}
+				writeAscii(Double.toString(values[i]));
+			}
+		} else if (array instanceof float[]) {
+			float[] values = (float[]) array;
+			for (int i = offset; i < end; i++) {
+				finite(values[i]);
+				if (i != offset) {
+					write((byte) ',');
+				}
+				writeAscii(Float.toString(values[i]));
+			}
+		} else {
+			boolean[] values = (boolean[]) array;
+			for (int i = offset; i < end; i++) {
+				if (i != offset) {
+					write((byte) ',');
+				}
+				writeAscii(values[i] ? "true" : "false");
+			}
+		}
+		write((byte) ']');
+	}
+
+	@Override
+	public void value(Number value) throws IOException {
+		if (value == null) {
+			nullValue();
+			return;
+		}
+		String string = value.toString();
+		if (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN")) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		}
+		beforeValue();
+		writeAscii(string);
+	}
+
+	@Override
+	public void value(String value) throws IOException {
+		if (value == null) {
+			nullValue();
+			return;
+		}
+		beforeValue();
+		string(value);
+	}
+
+	@Override
+	public void date(long millis, DatePrecision precision) throws IOException {
+		beforeValue();
+		chars(DateEncoder.encode(millis, precision, chars, 0));
+	}
+
+	@Override
+	public void temporal(Temporal value) throws IOException {
+		int length = DateEncoder.encode(value, chars, 0);
+		if (length < 0) {
+			value(value.toString());
+		} else {
+			beforeValue();
+			chars(length);
+		}
+	}
+
+	/**
+	 * Write the start of the char scratch buffer as a string.
+	 */
+	private void chars(int length) throws IOException {
+		for (int i = 0; i < length; i++) {
+			if (chars[i] >= 0x80) {
+				// Only possible for localized fallback formats.
+				string(new String(chars, 0, length));
+				return;
+			}
+		}
+		write((byte) '"');
+		for (int i = 0; i < length; i++) {
+			write((byte) chars[i]);
+		}
+		write((byte) '"');
+	}
+
+	private void string(String s) throws IOException {
+		write((byte) '"');
+		int length = s.length();
+		int i = 0;
+		while (i < length) {
+			if (pos == limit) {
+				ensure(1);
+			}
+			int end = Math.min(length, i + limit - pos);
+			byte[] buf = this.buf;
+			int pos = this.pos;
+			char c = 0;
+			while (i < end && (c = s.charAt(i)) < 0x80 && ESCAPES[c] == 0) {
+				buf[pos++] = (byte) c;
+				i++;
+			}
+			this.pos = pos;
+			if (i < end) {
+				i = encode(c, s, i, length) + 1;
+			}
+		}
+		write((byte) '"');
+	}
+
+	/**
+	 * Write a char that needs escaping or more than one byte.
+	 *
+	 * @return the index of the last char consumed.
+	 */
+	private int encode(char c, String s, int i, int length) throws IOException {
+		if (c < 0x80) {
+			byte escape = ESCAPES[c];
+			if (escape == 'u') {
+				unicodeEscape(c);
+			} else {
+				ensure(2);
+				buf[pos++] = '\\';
+				buf[pos++] = escape;
+			}
+		} else if (c < 0x800) {
+			ensure(2);
+			buf[pos++] = (byte) (0xc0 | (c >> 6));
+			buf[pos++] = (byte) (0x80 | (c & 0x3f));
+		} else if (c == 0x2028 || c == 0x2029) {
+			unicodeEscape(c);
+		} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+			int codePoint = Character.toCodePoint(c, s.charAt(++i));
+			ensure(4);
+			buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+			buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+			buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+			buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+		} else if (Character.isSurrogate(c)) {
+			// Unpaired surrogates are replaced as the JDK's UTF-8 encoder does.
+			write((byte) '?');
+		} else {
+			ensure(3);
+			buf[pos++] = (byte) (0xe0 | (c >> 12));
+			buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			buf[pos++] = (byte) (0x80 | (c & 0x3f));
+		}
+		return i;
+	}
+
+	private void unicodeEscape(char c) throws IOException {
+		ensure(6);
+		buf[pos++] = '\\';
+		buf[pos++] = 'u';
+		buf[pos++] = HEX[c >> 12];
+		buf[pos++] = HEX[(c >> 8) & 0xf];
+		buf[pos++] = HEX[(c >> 4) & 0xf];
+		buf[pos++] = HEX[c & 0xf];
+	}
+
+	/**
+	 * Grows its array as needed.
+	 */
+	static final class ArraySink extends Utf8Sink {
+
+		ArraySink(int size) {
+			super(new byte[size], 0, size);
+		}
+
+		@Override
+		protected void drain() {
+			buf = Arrays.copyOf(buf, buf.length * 2 + 4);
+			limit = buf.length;
+		}
+
+		@Override
+		void finish() {
+		}
+
+		/**
+		 * @return everything written since the last call.
+		 */
+		byte[] take() {
+			byte[] bytes = Arrays.copyOf(buf, pos);
+			pos = 0;
+			return bytes;
+		}
+	}
+
+	private static final class StreamSink extends Utf8Sink {
+		private final OutputStream out;
+
+		StreamSink(OutputStream out, int size) {
+			super(new byte[size], 0, size);
+			this.out = out;
+		}
+
+		@Override
+		protected void drain() throws IOException {
+			out.write(buf, 0, pos);
+			drained += pos;
+			pos = 0;
+		}
+
+		@Override
+		public void pending() throws IOException {
+			drain();
+			out.flush();
+		}
+
+		@Override
+		void finish() throws IOException {
+			drain();
+		}
+	}
+
+	private static final class ChannelSink extends Utf8Sink {
+		private final WritableByteChannel out;
+		private final ByteBuffer buffer;
+
+		ChannelSink(WritableByteChannel out) {
+			super(new byte[BUFFER_SIZE], 0, BUFFER_SIZE);
+			this.out = out;
+			this.buffer = ByteBuffer.wrap(buf);
+		}
+
+		@Override
+		protected void drain() throws IOException {
+			buffer.limit(pos).position(0);
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			drained += pos;
+			pos = 0;
+		}
+
+		@Override
+		public void pending() throws IOException {
+			drain();
+		}
+
+		@Override
+		void finish() throws IOException {
+			drain();
+		}
+	}
+
+	/**
+	 * Deflates each buffer full as it is drained, framing the result as gzip
+	 * if asked to.
+	 */
+	static final class DeflaterSink extends Utf8Sink {
+		private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+		private final OutputStream out;
+		private final boolean gzip;
+		private final byte[] compressed;
+		private final CRC32 crc = new CRC32();
+		private Deflater deflater;
+
+		DeflaterSink(OutputStream out, Compression compression) throws IOException {
+			super(new byte[compression.getBufferSize()], 0, compression.getBufferSize());
+			this.out = out;
+			this.gzip = compression.isGzip();
+			this.compressed = new byte[compression.getBufferSize()];
+			this.deflater = DeflaterPool.acquire(compression.getLevel());
+			if (gzip) {
+				try {
+					out.write(GZIP_HEADER);
+				} catch (IOException | RuntimeException e) {
+					release();
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		protected void drain() throws IOException {
+			if (gzip) {
+				crc.update(buf, 0, pos);
+			}
+			deflater.setInput(buf, 0, pos);
+			while (!deflater.needsInput()) {
+				deflate();
+			}
+			drained += pos;
+			pos = 0;
+		}
+
+		private void deflate() throws IOException {
+			int length = deflater.deflate(compressed, 0, compressed.length);
+			if (length > 0) {
+				out.write(compressed, 0, length);
+			}
+		}
+
+		/**
+		 * A sync flush ends the deflate block so that what has been written
+		 * so far can be inflated before the rest arrives.
+		 */
+		@Override
+		public void pending() throws IOException {
+			drain();
+			int length;
+			do {
+				length = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH);
+				out.write(compressed, 0, length);
+			} while (length == compressed.length);
+			out.flush();
+		}
+
+		@Override
+		void finish() throws IOException {
+			drain();
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate();
+			}
+			if (gzip) {
+				int size = (int) drained;
+				int crc = (int) this.crc.getValue();
+				byte[] trailer = { (byte) crc, (byte) (crc >> 8), (byte) (crc >> 16), (byte) (crc >> 24), (byte) size,
+						(byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) };
+				out.write(trailer);
+			}
+			release();
+		}
+
+		/**
+		 * Return the deflater to the pool, whether or not the document was
+		 * finished.
+		 */
+		void release() {
+			if (deflater != null) {
+				DeflaterPool.release(deflater);
+				deflater = null;
+			}
+		}
+	}
+
+	/**
+	 * Writes straight into the array backing the buffer.
+	 */
+	private static final class HeapBufferSink extends Utf8Sink {
+		private final ByteBuffer out;
+		private final int start;
+
+		HeapBufferSink(ByteBuffer out) {
+			super(out.array(), out.arrayOffset() + out.position(), out.arrayOffset() + out.limit());
+			this.out = out;
+			this.start = pos;
+		}
+
+		@Override
+		protected void drain() {
+			// There is nowhere else to put the content.
+		}
+
+		@Override
+		long length() {
+			return pos - start;
+		}
+
+		@Override
+		void finish() {
+			out.position(pos - out.arrayOffset());
+		}
+	}
+
+	/**
+	 * Direct buffers can't be addressed as an array, so content is copied in
+	 * a chunk at a time.
+	 */
+	private static final class DirectBufferSink extends Utf8Sink {
+		private final ByteBuffer out;
+
+		DirectBufferSink(ByteBuffer out) {
+			super(new byte[BUFFER_SIZE], 0, BUFFER_SIZE);
+			this.out = out;
+		}
+
+		@Override
+		protected void drain() {
+			out.put(buf, 0, pos);
+			drained += pos;
+			pos = 0;
+		}
+
+		@Override
+		void finish() {
+			drain();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class TestBinaryOutput {
+
+	private JsonObjectBuilder<?, JsonObject> document() {
+		return JsonBuilderFactory.buildObject().add("a", 1).addArray("b").add(true).addNull().add(-1.5).add("é")
+				.end().add("c", "x");
+	}
+
+	private static String hex(JsonBuilder builder, Format format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		builder.write(out, format);
+		StringBuilder hex = new StringBuilder();
+		for (byte b : out.toByteArray()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	@Test
+	public void testJson() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		document().write(out, Format.JSON);
+		Assert.assertEquals(document().toString(), out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testCbor() throws IOException {
+		Assert.assertEquals("a3" + "6161" + "01" + "6162" + "84" + "f5" + "f6" + "fbbff8000000000000" + "62c3a9"
+				+ "6163" + "6178", hex(document(), Format.CBOR));
+	}
+
+	@Test
+	public void testMessagePack() throws IOException {
+		Assert.assertEquals("83" + "a161" + "01" + "a162" + "94" + "c3" + "c0" + "cbbff8000000000000" + "a2c3a9"
+				+ "a163" + "a178", hex(document(), Format.MESSAGE_PACK));
+	}
+
+	@Test
+	public void testSmile() throws IOException {
+		Assert.assertEquals("3a290a00" + "fa" + "8061" + "c2" + "8062" + "f8" + "23" + "21" + "29013f7c00000000000000"
+				+ "80c3a9" + "f9" + "8063" + "4078" + "fb", hex(document(), Format.SMILE));
+	}
+
+	@Test
+	public void testLengths() throws IOException {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < 20; i++) {
+			builder.add(i);
+		}
+		builder.addArray().end();
+		String ints = "000102030405060708090a0b0c0d0e0f10111213";
+		Assert.assertEquals("95" + ints + "80", hex(builder, Format.CBOR));
+		Assert.assertEquals("dc0015" + ints + "90", hex(builder, Format.MESSAGE_PACK));
+	}
+
+	@Test
+	public void testNumbers() throws IOException {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray().add(-1000).add(Long.MAX_VALUE)
+				.add(0.5f).add(BigInteger.ONE.shiftLeft(64)).add(new BigDecimal("1.50"));
+		Assert.assertEquals("85" + "3903e7" + "1b7fffffffffffffff" + "fa3f000000" + "c249010000000000000000"
+				+ "c4822118" + "96", hex(builder, Format.CBOR));
+		Assert.assertEquals("95" + "d1fc18" + "cf7fffffffffffffff" + "ca3f000000" + "b4" + "3138343436373434303733373039353531363136"
+				+ "cb3ff8000000000000", hex(builder, Format.MESSAGE_PACK));
+		Assert.assertEquals("3a290a00" + "f8" + "241f8f" + "25" + "03" + "7f7f7f7f7f7f7f7f" + "be" + "28" + "0378000000"
+				+ "26" + "89" + "0040000000000000000000" + "2a" + "84" + "82" + "002502" + "f9", hex(builder, Format.SMILE));
+	}
+}
@@ -15,14 +15,22 @@
  */
 package org.jglue.fluentjson;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -31,6 +39,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonWriter;
 
 public class TestBuilderFactory {
@@ -222,4 +231,599 @@ public class TestBuilderFactory {
         Assert.assertEquals("{\"name\":\"Joe\",\"tastes\":[\"chicken\",\"pasta\"]}", json.toString());
         
 	}
+
+	@Test
+	public void testStreamObject() throws IOException {
+		List<A> aList = Arrays.asList(new A[] { new A(), new A() });
+		StringWriter writer = new StringWriter();
+		JsonBuilderFactory.streamObject(writer).add("Prop1", "1").add("Prop2", 2).addNull("Prop3")
+				.add("Prop4", (String) null).addObject("Prop5").add("NP1", 4).end().addArray("Foo").addObject().end()
+				.add("AE1").end().add("Prop6", new Date(0)).add("Prop7", new AbstractMapper<A>() {
+
+					@Override
+					public JsonBuilder map(A t) {
+						return buildObject().add("b", t.b);
+					}
+				}, aList).end();
+		Assert.assertEquals(
+				"{\"Prop1\":\"1\",\"Prop2\":2,\"Prop3\":null,\"Prop4\":null,\"Prop5\":{\"NP1\":4},\"Foo\":[{},\"AE1\"],\"Prop6\":\"1970-01-01T00:00Z\",\"Prop7\":[{\"b\":\"hello\"},{\"b\":\"hello\"}]}",
+				writer.toString());
+	}
+
+	@Test
+	public void testStreamArray() throws IOException {
+		StringWriter writer = new StringWriter();
+		JsonBuilderFactory.streamArray(writer).addNull().add("1").add(2).add('c').add(true).addObject().add("NP1", 4).end()
+				.addArray().add(JsonBuilderFactory.buildObject().add("b", "hello")).end().end();
+		Assert.assertEquals("[null,\"1\",2,\"c\",true,{\"NP1\":4},[{\"b\":\"hello\"}]]", writer.toString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testStreamAddToParentWithOpenChild() {
+		JsonObjectBuilder<?, Void> root = JsonBuilderFactory.streamObject(new StringWriter());
+		root.addObject("child");
+		root.add("sibling", 1);
+	}
+
+	@Test
+	public void testAddStreamBuilder() {
+		JsonArrayBuilder<?, Void> stream = JsonBuilderFactory.streamArray(new StringWriter());
+		try {
+			JsonBuilderFactory.buildArray().add(stream);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(JsonStreamBuilder.class.getName()));
+		}
+		try {
+			JsonBuilderFactory.buildObject().add("a", Arrays.asList(stream));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			JsonBuilderFactory.streamArray(new StringWriter()).add(stream);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			CachingMapper.of((String o) -> stream).map("a");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testPrimitives() {
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().add("int", 1).add("long", 2L)
+				.add("double", 3.5d).add("float", 0.1f).add("boolean", false).add("char", 'c').addArray("arr").add(1)
+				.add(2L).add(3.5d).add(0.1f).add(true).add('c').end();
+		String expected = "{\"int\":1,\"long\":2,\"double\":3.5,\"float\":0.1,\"boolean\":false,\"char\":\"c\",\"arr\":[1,2,3.5,0.1,true,\"c\"]}";
+		Assert.assertEquals(expected, builder.toString());
+		Assert.assertEquals(expected, builder.getJson().toString());
+	}
+
+	@Test
+	public void testReplaceKey() {
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject();
+		for (int i = 0; i < 20; i++) {
+			builder.add("k" + i, i);
+		}
+		builder.add("k0", "first").add("k19", "last");
+		Assert.assertTrue(builder.toString().startsWith("{\"k0\":\"first\",\"k1\":1,"));
+		Assert.assertTrue(builder.toString().endsWith(",\"k18\":18,\"k19\":\"last\"}"));
+
+		for (int i = 20; i < 1000; i++) {
+			if (i % 2 == 0) {
+				builder.add("k" + i, i);
+			} else {
+				builder.add(JsonKey.of("k" + i), i);
+			}
+		}
+		for (int i = 0; i < 1000; i += 7) {
+			builder.add(JsonKey.of("k" + i), -i);
+		}
+		JsonObject json = builder.getJson();
+		Assert.assertEquals(1000, json.entrySet().size());
+		Assert.assertEquals(-994, json.get("k994").getAsInt());
+		Assert.assertEquals(995, json.get("k995").getAsInt());
+	}
+
+	@Test
+	public void testParallelMapping() throws InterruptedException {
+		List<Integer> numbers = new ArrayList<Integer>();
+		JsonArray expected = new JsonArray();
+		for (int i = 0; i < 10000; i++) {
+			numbers.add(i);
+			expected.add(new JsonPrimitive(i * 2));
+		}
+		Mapper<Integer> doubler = new AbstractMapper<Integer>() {
+
+			@Override
+			public JsonBuilder map(Integer o) {
+				return buildPrimitive(o * 2);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Assert.assertEquals(expected, JsonBuilderFactory.buildArray(doubler, numbers, executor).getJson());
+			Assert.assertEquals(expected, JsonBuilderFactory.buildArray(doubler, numbers.parallelStream()).getJson());
+			Assert.assertEquals(expected, JsonBuilderFactory.buildArray(doubler, numbers.spliterator(), true).getJson());
+			Assert.assertEquals(expected, JsonBuilderFactory.buildObject().add("a", doubler, numbers, executor).getJson()
+					.get("a"));
+			StringWriter writer = new StringWriter();
+			JsonBuilderFactory.streamArray(writer).addAll(doubler, numbers, executor).end();
+			Assert.assertEquals(expected.toString(), writer.toString());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelMappingFailure() {
+		List<Integer> numbers = new ArrayList<Integer>();
+		for (int i = 0; i < 10000; i++) {
+			numbers.add(i);
+		}
+		final RuntimeException failure = new IllegalStateException("Couldn't map");
+		final AtomicInteger mapped = new AtomicInteger();
+		Mapper<Integer> mapper = o -> {
+			mapped.incrementAndGet();
+			if (o == 0) {
+				throw failure;
+			}
+			return JsonBuilderFactory.buildPrimitive(o);
+		};
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			JsonBuilderFactory.buildArray(mapper, numbers, executor);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertSame(failure, e);
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals(1, mapped.get());
+		try {
+			JsonBuilderFactory.buildArray(mapper, numbers.parallelStream());
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertSame(failure, e);
+		}
+	}
+
+	@Test
+	public void testStreamingMapper() {
+		StreamingMapper<Integer> mapper = (o, out) -> out.addObject().add("v", o).end();
+		List<Integer> numbers = Arrays.asList(1, 2);
+		String expected = "[{\"v\":1},{\"v\":2}]";
+		Assert.assertEquals(expected, JsonBuilderFactory.buildArray(mapper, numbers).toString());
+		Assert.assertEquals(expected, JsonBuilderFactory.buildArray(mapper, numbers.stream()).toString());
+		Assert.assertEquals(expected, JsonBuilderFactory.buildArray().add(mapper, 1, 2).toString());
+		Assert.assertEquals("{\"a\":" + expected + "}", JsonBuilderFactory.buildObject().add("a", mapper, numbers)
+				.toString());
+		Assert.assertEquals("{\"v\":3}", mapper.map(3).toString());
+
+		StringWriter writer = new StringWriter();
+		JsonBuilderFactory.streamObject(writer).add("a", mapper, numbers).add("b", mapper, numbers.stream()).end();
+		Assert.assertEquals("{\"a\":" + expected + ",\"b\":" + expected + "}", writer.toString());
+	}
+
+	@Test
+	public void testStreamingMapperPrimitive() {
+		StreamingMapper<Integer> mapper = (o, out) -> out.add(o * 2);
+		Assert.assertEquals("[2,4]", JsonBuilderFactory.buildArray().add(mapper.map(1)).add(mapper.map(2)).toString());
+	}
+
+	@Test
+	public void testStreamingMapperRaw() {
+		StreamingMapper<Integer> mapper = (o, out) -> out.addRaw("{\"v\":" + o + "}");
+		Assert.assertEquals("{\"a\":{\"v\":1}}", JsonBuilderFactory.buildObject().add("a", mapper, 1).toString());
+		Assert.assertEquals("[{\"v\":1}]", JsonBuilderFactory.buildArray().add(mapper.map(1)).toString());
+		StringWriter writer = new StringWriter();
+		JsonBuilderFactory.streamArray(writer).add(mapper.map(3)).end();
+		Assert.assertEquals("[{\"v\":3}]", writer.toString());
+	}
+
+	@Test
+	public void testStreamingMapperPrimitiveArray() {
+		StreamingMapper<Integer> mapper = (o, out) -> out.add(new int[] { o, o * 2 });
+		List<Integer> numbers = new ArrayList<Integer>();
+		StringBuilder expected = new StringBuilder("[");
+		for (int i = 0; i < 10000; i++) {
+			numbers.add(i);
+			expected.append(i == 0 ? "" : ",").append("[").append(i).append(",").append(i * 2).append("]");
+		}
+		expected.append("]");
+		Assert.assertEquals("{\"a\":[1,2]}", JsonBuilderFactory.buildObject().add("a", mapper, 1).toString());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Assert.assertEquals(expected.toString(), JsonBuilderFactory.buildArray(mapper, numbers, executor)
+					.toString());
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals(5, JsonBuilderFactory.freeze(mapper.map(1)));
+		StreamingMapper<Integer> lazy = (o, out) -> out.addLazy(Mapper.NUMBER, Arrays.<Number> asList(o));
+		Assert.assertEquals(-1, JsonBuilderFactory.freeze(lazy.map(1)));
+		Assert.assertEquals("[[1]]", JsonBuilderFactory.buildArray().add(lazy.map(1)).toString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testStreamingMapperNoElement() {
+		StreamingMapper<Integer> mapper = (o, out) -> {
+		};
+		mapper.map(1);
+	}
+
+	@Test
+	public void testLazy() throws IOException {
+		final int[] iterations = new int[1];
+		Iterable<String> objects = () -> {
+			iterations[0]++;
+			return Arrays.asList("a", "b").iterator();
+		};
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().addLazy("l", Mapper.STRING, objects)
+				.addArray("a").addLazy(Mapper.STRING, objects).end();
+		Assert.assertEquals(0, iterations[0]);
+		String expected = "{\"l\":[\"a\",\"b\"],\"a\":[[\"a\",\"b\"]]}";
+		Assert.assertEquals(expected, builder.toString());
+		Assert.assertEquals(2, iterations[0]);
+		StringWriter writer = new StringWriter();
+		builder.write(writer);
+		Assert.assertEquals(expected, writer.toString());
+		Assert.assertEquals(new JsonParser().parse(expected), builder.getJson());
+		Assert.assertEquals(6, iterations[0]);
+	}
+
+	@Test
+	public void testLazyStream() {
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().addLazy("l", Mapper.NUMBER,
+				Arrays.<Number> asList(1, 2).stream().map(n -> n.intValue() * 2));
+		Assert.assertEquals("{\"l\":[2,4]}", builder.toString());
+		try {
+			builder.toString();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Streams can only be consumed once
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testDeep() {
+		int depth = 100000;
+		JsonArrayBuilder<?, JsonArray> root = JsonBuilderFactory.buildArray();
+		JsonArrayBuilder builder = root;
+		for (int i = 1; i < depth; i++) {
+			builder = builder.addArray();
+		}
+		builder.add(1);
+		String json = root.toString();
+		Assert.assertEquals(depth * 2 + 1, json.length());
+		Assert.assertEquals('1', json.charAt(depth));
+
+		JsonElement element = root.getJson();
+		for (int i = 1; i < depth; i++) {
+			element = element.getAsJsonArray().get(0);
+		}
+		Assert.assertEquals(new JsonPrimitive(1), element.getAsJsonArray().get(0));
+	}
+
+	@Test
+	public void testMaxDepth() {
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().addArray("a").addObject().end()
+				.end();
+		try {
+			JsonBuilderFactory.setMaxDepth(3);
+			Assert.assertEquals("{\"a\":[{}]}", builder.toString());
+			JsonBuilderFactory.setMaxDepth(2);
+			try {
+				builder.toString();
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				// Nested too deeply
+			}
+		} finally {
+			JsonBuilderFactory.setMaxDepth(Integer.MAX_VALUE);
+		}
+	}
+
+	@Test
+	public void testFreeze() throws IOException {
+		JsonObjectBuilder<?, JsonObject> fragment = JsonBuilderFactory.buildObject().add("k", "é\"").addArray("a")
+				.add(1).end().freeze();
+		String json = "{\"k\":\"é\\\"\",\"a\":[1]}";
+		Assert.assertEquals(json, fragment.toString());
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().add("f", fragment).addArray("l")
+				.add(fragment).add(fragment).end();
+		String expected = "{\"f\":" + json + ",\"l\":[" + json + "," + json + "]}";
+		Assert.assertEquals(expected, builder.toString());
+		StringWriter writer = new StringWriter();
+		builder.write(writer);
+		Assert.assertEquals(expected, writer.toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		builder.write(out);
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertEquals(new JsonParser().parse(expected), builder.getJson());
+		out.reset();
+		JsonBuilderFactory.streamObject(out).add("f", fragment).end();
+		Assert.assertEquals("{\"f\":" + json + "}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		writer = new StringWriter();
+		fragment.write(writer);
+		Assert.assertEquals(json, writer.toString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFrozenChange() {
+		JsonBuilderFactory.buildObject().addArray("a").freeze().add(1);
+	}
+
+	@Test
+	public void testRaw() throws IOException {
+		String raw = "{\"a\": [1, 2.5, 12345678901234567890, \"é\\\"😀\"], \"b\": {\"c\": null, \"d\": true}}";
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().addRaw("r", raw)
+				.addRaw(JsonKey.of("n"), "42").addRaw("x", null).addArray("l").addRaw("\"s\"").addRaw(raw).end();
+		String expected = "{\"r\":" + raw + ",\"n\":42,\"x\":null,\"l\":[\"s\"," + raw + "]}";
+		Assert.assertEquals(expected, builder.toString());
+		StringWriter writer = new StringWriter();
+		builder.write(writer);
+		Assert.assertEquals(expected, writer.toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		builder.write(out);
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertEquals(new JsonParser().parse(expected), builder.getJson());
+		out.reset();
+		JsonBuilderFactory.streamObject(out).addRaw("r", raw).addArray("l").addRaw("1").end().end();
+		Assert.assertEquals("{\"r\":" + raw + ",\"l\":[1]}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testRawValidation() {
+		JsonBuilderFactory.setValidateRaw(true);
+		try {
+			JsonBuilderFactory.buildArray().addRaw("{\"a\": [\"]}\"]}").addRaw(" 1.5e3 ").addRaw("\"\\\"\"");
+			for (String invalid : new String[] { "", " ", "{", "[}", "]", "\"a", "1 2", "{} []" }) {
+				try {
+					JsonBuilderFactory.buildArray().addRaw(invalid);
+					Assert.fail(invalid);
+				} catch (IllegalArgumentException e) {
+					// Expected
+				}
+			}
+		} finally {
+			JsonBuilderFactory.setValidateRaw(false);
+		}
+		JsonBuilderFactory.buildArray().addRaw("{");
+	}
+
+	@Test
+	public void testAsync() throws IOException {
+		CompletableFuture<JsonBuilder> first = CompletableFuture
+				.supplyAsync(() -> JsonBuilderFactory.buildObject().add("a", 1));
+		CompletableFuture<JsonArrayBuilder<?, JsonArray>> second = new CompletableFuture<JsonArrayBuilder<?, JsonArray>>();
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().add("id", 1).addAsync("first", first)
+				.addAsync("second", second).addArray("l").addAsync(CompletableFuture.completedFuture(null)).end();
+		first.join();
+		List<String> flushed = new ArrayList<String>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.add(new String(toByteArray(), StandardCharsets.UTF_8));
+				second.complete(JsonBuilderFactory.buildArray().add(2));
+			}
+		};
+		builder.write(out);
+		Assert.assertEquals(Arrays.asList("{\"id\":1,\"first\":{\"a\":1},\"second\":"), flushed);
+		String expected = "{\"id\":1,\"first\":{\"a\":1},\"second\":[2],\"l\":[null]}";
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertEquals(expected, builder.toString());
+		Assert.assertEquals(new JsonParser().parse(expected), builder.getJson());
+		out = new ByteArrayOutputStream();
+		JsonBuilderFactory.streamArray(out).addAsync(second).end();
+		Assert.assertEquals("[[2]]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testGetJsonSnapshot() {
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().add("a", 1);
+		JsonArrayBuilder<?, JsonObject> nested = builder.addArray("l");
+		JsonObject first = builder.getJson();
+		Assert.assertSame(first, builder.getJson());
+		Assert.assertSame(first, nested.getJson());
+
+		nested.add(2);
+		JsonObject second = builder.getJson();
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals("{\"a\":1,\"l\":[]}", first.toString());
+		Assert.assertEquals("{\"a\":1,\"l\":[2]}", second.toString());
+
+		second.addProperty("b", 2);
+		Assert.assertEquals("{\"a\":1,\"l\":[2]}", builder.toString());
+
+		JsonArrayBuilder<?, JsonArray> array = JsonBuilderFactory.buildArray();
+		JsonRowsBuilder<?, JsonArray> rows = array.addRows("v");
+		JsonArray before = array.getJson();
+		rows.add(1);
+		Assert.assertEquals("[{\"v\":1}]", array.getJson().toString());
+		Assert.assertEquals("[]", before.toString());
+	}
+
+	@Test
+	public void testGetJsonAfterChildEdited() {
+		JsonObjectBuilder<?, JsonObject> child = JsonBuilderFactory.buildObject().add("x", 1);
+		JsonObjectBuilder<?, JsonObject> parent = JsonBuilderFactory.buildObject().add("c", child);
+		Assert.assertEquals("{\"c\":{\"x\":1}}", parent.getJson().toString());
+		child.add("y", 2);
+		Assert.assertEquals("{\"c\":{\"x\":1,\"y\":2}}", parent.getJson().toString());
+		Assert.assertEquals(parent.toString(), parent.getJson().toString());
+
+		JsonArrayBuilder<?, JsonArray> array = JsonBuilderFactory.buildArray();
+		JsonRowsBuilder<?, JsonArray> rows = array.addRows("v");
+		JsonArrayBuilder<?, JsonArray> outer = JsonBuilderFactory.buildArray().add(array);
+		Assert.assertEquals("[[]]", outer.getJson().toString());
+		rows.add(1);
+		Assert.assertEquals("[[{\"v\":1}]]", outer.getJson().toString());
+	}
+
+	private static String write(JsonBuilder builder, boolean indent, boolean htmlSafe, boolean serializeNulls)
+			throws IOException {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		if (indent) {
+			writer.setIndent("  ");
+		}
+		writer.setHtmlSafe(htmlSafe);
+		writer.setSerializeNulls(serializeNulls);
+		builder.write(writer);
+		return out.toString();
+	}
+
+	@Test
+	public void testFrozenWriterSettings() throws IOException {
+		for (int settings = 0; settings < 8; settings++) {
+			boolean indent = (settings & 1) != 0;
+			boolean htmlSafe = (settings & 2) != 0;
+			boolean serializeNulls = (settings & 4) != 0;
+			JsonObjectBuilder<?, JsonObject> plain = JsonBuilderFactory.buildObject().add("a", 1)
+					.add("o", JsonBuilderFactory.buildObject().add("h", "<b>").addNull("n").add("x", 2))
+					.add("r", JsonBuilderFactory.buildObject().add("h", "<i>").addNull("n"));
+			JsonObjectBuilder<?, JsonObject> spliced = JsonBuilderFactory.buildObject().add("a", 1)
+					.add("o", JsonBuilderFactory.buildObject().add("h", "<b>").addNull("n").add("x", 2).freeze())
+					.addRaw("r", "{\"h\":\"<i>\",\"n\":null}");
+			Assert.assertEquals(write(plain, indent, htmlSafe, serializeNulls),
+					write(spliced, indent, htmlSafe, serializeNulls));
+		}
+	}
+
+	@Test
+	public void testRows() throws IOException {
+		JsonArrayBuilder<?, JsonArray> rows = JsonBuilderFactory.buildArray().add(0).addRows("id", "name")
+				.add(1).add("a").add(2L).addNull().end().addRows(JsonKey.of("d")).add(1.5).end().add(3);
+		JsonArrayBuilder<?, JsonArray> objects = JsonBuilderFactory.buildArray().add(0).addObject().add("id", 1)
+				.add("name", "a").end().addObject().add("id", 2).addNull("name").end().addObject().add("d", 1.5).end()
+				.add(3);
+		String expected = objects.toString();
+		Assert.assertEquals("[0,{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":null},{\"d\":1.5},3]", expected);
+		Assert.assertEquals(expected, rows.toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		rows.write(out);
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertEquals(objects.getJson(), rows.getJson());
+
+		out.reset();
+		JsonBuilderFactory.streamArray(out).add(0).addRows("id", "name").add(1).add("a").add(2L).addNull().end()
+				.addRows(JsonKey.of("d")).add(1.5).end().add(3).end();
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testPrimitiveArrays() throws IOException {
+		int[] ints = { 1, -2, Integer.MIN_VALUE };
+		double[] doubles = { 0.5, -1e300, 3 };
+		JsonObjectBuilder<?, JsonObject> arrays = JsonBuilderFactory.buildObject().add("i", ints)
+				.add("l", new long[] { Long.MIN_VALUE, 0 }).add("d", doubles).add("f", new float[] { 0.1f })
+				.add("b", new boolean[] { true, false }).add("slice", new long[] { 1, 2, 3, 4 }, 1, 2)
+				.add("empty", new int[0]).add("null", (int[]) null).addArray("nested").add(doubles, 2, 1)
+				.add(new boolean[0], 0, 0).add((float[]) null).end();
+		ints[0] = 100;
+		String expected = "{\"i\":[1,-2,-2147483648],\"l\":[-9223372036854775808,0],\"d\":[0.5,-1.0E300,3.0],"
+				+ "\"f\":[0.1],\"b\":[true,false],\"slice\":[2,3],\"empty\":[],\"null\":null,"
+				+ "\"nested\":[[3.0],[],null]}";
+		Assert.assertEquals(expected, arrays.toString());
+		Assert.assertEquals(expected, arrays.getJson().toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		arrays.write(out);
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		out.reset();
+		JsonBuilderFactory.streamObject(out).add("i", new int[] { 1, -2, Integer.MIN_VALUE })
+				.add("l", new long[] { Long.MIN_VALUE, 0 }).add("d", doubles).add("f", new float[] { 0.1f })
+				.add("b", new boolean[] { true, false }).add("slice", new long[] { 1, 2, 3, 4 }, 1, 2)
+				.add("empty", new int[0]).add("null", (int[]) null).addArray("nested").add(doubles, 2, 1)
+				.add(new boolean[0], 0, 0).add((float[]) null).end().end();
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testPrimitiveArrayBounds() {
+		for (int[] slice : new int[][] { { -1, 1 }, { 0, -1 }, { 2, 2 }, { 4, 0 } }) {
+			try {
+				JsonBuilderFactory.buildArray().add(new int[3], slice[0], slice[1]);
+				Assert.fail();
+			} catch (IndexOutOfBoundsException e) {
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			JsonObjectBuilder<?, Void> stream = JsonBuilderFactory.streamObject(out);
+			try {
+				stream.add("k", new int[3], slice[0], slice[1]);
+				Assert.fail();
+			} catch (IndexOutOfBoundsException e) {
+			}
+			stream.end();
+			Assert.assertEquals("{}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPrimitiveArrayNaN() throws IOException {
+		JsonBuilderFactory.buildArray().add(new double[] { 1, Double.NaN }).write(new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void testMixedRows() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		JsonRowsBuilder<?, JsonArray> rows = builder.addRows("v");
+		for (int i = 0; i < 40; i++) {
+			rows.add(i);
+		}
+		rows.add(0).add(1.5).add(0.5f).add(true).add(false).addNull().add("s").add(new BigDecimal("1.0"))
+				.add(Instant.ofEpochSecond(0)).end();
+		String json = builder.toString();
+		Assert.assertTrue(json.startsWith("[{\"v\":0},{\"v\":1},"));
+		Assert.assertTrue(json.endsWith(",{\"v\":39},{\"v\":0},{\"v\":1.5},{\"v\":0.5},{\"v\":true},{\"v\":false},"
+				+ "{\"v\":null},{\"v\":\"s\"},{\"v\":1.0},{\"v\":\"1970-01-01T00:00:00Z\"}]"));
+		builder.freeze();
+		try {
+			rows.add(1);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testIncompleteRow() {
+		for (JsonArrayBuilder<?, ?> builder : Arrays.<JsonArrayBuilder<?, ?>> asList(JsonBuilderFactory.buildArray(),
+				JsonBuilderFactory.streamArray(new ByteArrayOutputStream()))) {
+			try {
+				builder.addRows("a", "b").add(1).end();
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testWriteIncompleteRow() throws IOException {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		builder.addRows("a", "b").add(1).add(2).add(3);
+		try {
+			builder.toString();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("The last row doesn't have a value for every column", e.getMessage());
+		}
+		try {
+			builder.write(new ByteArrayOutputStream());
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			builder.getJson();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
 }
@@ -0,0 +1,82 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCachingMapper {
+
+	private final AtomicInteger mapped = new AtomicInteger();
+
+	private final Mapper<String> mapper = s -> {
+		mapped.incrementAndGet();
+		return JsonBuilderFactory.buildObject().add("s", s);
+	};
+
+	@Test
+	public void testIdentity() {
+		CachingMapper<String> cache = CachingMapper.of(mapper);
+		String a = new String("a");
+		JsonBuilder first = cache.map(a);
+		Assert.assertSame(first, cache.map(a));
+		Assert.assertNotSame(first, cache.map(new String("a")));
+		Assert.assertEquals(2, mapped.get());
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertEquals(2, cache.getSize());
+		Assert.assertEquals("{\"s\":\"a\"}", first.toString());
+		Assert.assertEquals("[{\"s\":\"a\"},{\"s\":\"a\"}]",
+				JsonBuilderFactory.buildArray().add(first).add(cache.map(a)).toString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFrozen() {
+		((JsonObjectBuilder<?, ?>) CachingMapper.of(mapper).map("a")).add("b", 1);
+	}
+
+	@Test
+	public void testEviction() {
+		CachingMapper<String> cache = CachingMapper.of(mapper).keyedBy(s -> s).maximumSize(2);
+		cache.map("a");
+		cache.map("b");
+		cache.map("a");
+		cache.map("c");
+		Assert.assertEquals(1, cache.getEvictions());
+		cache.map("a");
+		Assert.assertEquals(3, mapped.get());
+		cache.map("b");
+		Assert.assertEquals(4, mapped.get());
+		Assert.assertEquals(2, cache.getSize());
+		cache.clear();
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testMaximumBytes() {
+		CachingMapper<String> cache = CachingMapper.of(mapper).keyedBy(s -> s).maximumBytes(20);
+		cache.map("a");
+		Assert.assertEquals(9, cache.getWeight());
+		cache.map("b");
+		cache.map("c");
+		Assert.assertEquals(18, cache.getWeight());
+		Assert.assertEquals(1, cache.getEvictions());
+		cache.map("too long to cache");
+		Assert.assertEquals(2, cache.getSize());
+	}
+}
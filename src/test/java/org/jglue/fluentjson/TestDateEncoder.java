@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.Temporal;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+
+public class TestDateEncoder {
+
+	private static final long[] MILLIS = { 0, -1, 1, 59999, 60000, 951782400000L, -12212553600001L, -12212553600000L,
+			253402300799999L, 253402300800000L, -62167219200000L };
+
+	@Test
+	public void testDates() {
+		Random random = new Random(0);
+		for (DatePrecision precision : DatePrecision.values()) {
+			SimpleDateFormat format = new SimpleDateFormat(precision.pattern);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			for (long millis : MILLIS) {
+				Assert.assertEquals(format.format(new Date(millis)), DateEncoder.encode(millis, precision));
+			}
+			for (int i = 0; i < 10000; i++) {
+				long millis = random.nextLong() % 300000000000000L;
+				Assert.assertEquals(format.format(new Date(millis)), DateEncoder.encode(millis, precision));
+			}
+		}
+	}
+
+	@Test
+	public void testTemporals() {
+		Random random = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			long seconds = random.nextLong() % 300000000000L;
+			int nanos = random.nextInt(1000000000);
+			switch (i % 4) {
+			case 0:
+				break;
+			case 1:
+				nanos -= nanos % 1000;
+				break;
+			case 2:
+				nanos -= nanos % 1000000;
+				break;
+			default:
+				nanos = 0;
+				if (i % 8 == 3) {
+					seconds -= seconds % 60;
+				}
+			}
+			Instant instant = Instant.ofEpochSecond(seconds, nanos);
+			ZoneOffset offset = ZoneOffset.ofTotalSeconds(random.nextInt(18 * 3600) * (i % 3 - 1));
+			assertEncoded(instant);
+			assertEncoded(LocalDate.ofEpochDay(seconds / 86400));
+			assertEncoded(LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC));
+			assertEncoded(OffsetDateTime.ofInstant(instant, offset));
+		}
+	}
+
+	private void assertEncoded(Temporal value) {
+		Assert.assertEquals(value.toString(), DateEncoder.encode(value));
+	}
+
+	@Test
+	public void testPrecision() {
+		Date date = new Date(1234);
+		try {
+			JsonBuilderFactory.setDatePrecision(DatePrecision.MILLISECONDS);
+			JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray().add(date);
+			JsonBuilderFactory.setDatePrecision(DatePrecision.SECONDS);
+			builder.add(date);
+			Assert.assertEquals("[\"1970-01-01T00:00:01.234Z\",\"1970-01-01T00:00:01Z\"]", builder.toString());
+		} finally {
+			JsonBuilderFactory.setDatePrecision(DatePrecision.MINUTES);
+		}
+	}
+}
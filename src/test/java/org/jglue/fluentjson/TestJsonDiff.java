@@ -0,0 +1,224 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class TestJsonDiff {
+
+	/**
+	 * @return the document as maps, lists and primitives.
+	 */
+	private static Object value(JsonElement element) {
+		if (element.isJsonObject()) {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				map.put(entry.getKey(), value(entry.getValue()));
+			}
+			return map;
+		}
+		if (element.isJsonArray()) {
+			List<Object> list = new ArrayList<Object>();
+			for (JsonElement e : element.getAsJsonArray()) {
+				list.add(value(e));
+			}
+			return list;
+		}
+		return element;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object apply(Object document, JsonArray patch) {
+		List<Object> root = new ArrayList<Object>();
+		root.add(document);
+		for (JsonElement element : patch) {
+			JsonObject operation = element.getAsJsonObject();
+			String op = operation.get("op").getAsString();
+			String[] tokens = operation.get("path").getAsString().split("/", -1);
+			Object parent = root;
+			Object key = 0;
+			for (int i = 1; i <= tokens.length; i++) {
+				parent = parent instanceof Map ? ((Map<String, Object>) parent).get(key) : ((List<Object>) parent)
+						.get((Integer) key);
+				if (i == tokens.length) {
+					break;
+				}
+				String token = tokens[i].replace("~1", "/").replace("~0", "~");
+				key = parent instanceof Map ? token : (Object) Integer.parseInt(token);
+				if (i == tokens.length - 1) {
+					break;
+				}
+			}
+			if (tokens.length == 1) {
+				parent = root;
+			}
+			Object value = operation.has("value") ? value(operation.get("value")) : null;
+			if (parent instanceof Map) {
+				Map<String, Object> map = (Map<String, Object>) parent;
+				if (op.equals("remove")) {
+					map.remove(key);
+				} else {
+					map.put((String) key, value);
+				}
+			} else {
+				List<Object> list = (List<Object>) parent;
+				int index = (Integer) key;
+				if (op.equals("remove")) {
+					list.remove(index);
+				} else if (op.equals("add")) {
+					list.add(index, value);
+				} else {
+					list.set(index, value);
+				}
+			}
+		}
+		return root.get(0);
+	}
+
+	private static void check(JsonBuilder before, JsonBuilder after) {
+		JsonArray patch = JsonBuilderFactory.diff(before, after).getJson();
+		JsonParser parser = new JsonParser();
+		Object patched = apply(value(parser.parse(before.toString())), patch);
+		Assert.assertEquals(patch.toString(), value(parser.parse(after.toString())), patched);
+	}
+
+	@Test
+	public void testObjects() {
+		JsonObjectBuilder<?, JsonObject> before = JsonBuilderFactory.buildObject().add("same", 1).add("changed", "a")
+				.add("removed", true).add("a/b~c", 1).addObject("nested").add("x", 1).addArray("l").add(1).end().end();
+		JsonObjectBuilder<?, JsonObject> after = JsonBuilderFactory.buildObject().add("same", 1L).add("changed", "b")
+				.add("a/b~c", 2).addObject("nested").add("x", 1).addArray("l").add(1).add(2).end().end().add("added",
+						JsonBuilderFactory.buildArray().add(1));
+		check(before, after);
+		Assert.assertEquals("[{\"op\":\"remove\",\"path\":\"/removed\"},"
+				+ "{\"op\":\"replace\",\"path\":\"/changed\",\"value\":\"b\"},"
+				+ "{\"op\":\"replace\",\"path\":\"/a~1b~0c\",\"value\":2},"
+				+ "{\"op\":\"add\",\"path\":\"/added\",\"value\":[1]},"
+				+ "{\"op\":\"add\",\"path\":\"/nested/l/1\",\"value\":2}]",
+				JsonBuilderFactory.diff(before, after).toString());
+		Assert.assertEquals("[]", JsonBuilderFactory.diff(before, before).toString());
+	}
+
+	@Test
+	public void testCollidingHashCodes() {
+		Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+		Assert.assertEquals("[{\"op\":\"replace\",\"path\":\"/k\",\"value\":\"BB\"}]", JsonBuilderFactory.diff(
+				JsonBuilderFactory.buildObject().add("k", "Aa"), JsonBuilderFactory.buildObject().add("k", "BB"))
+				.toString());
+		Assert.assertEquals("[{\"op\":\"remove\",\"path\":\"/Aa\"},{\"op\":\"add\",\"path\":\"/BB\",\"value\":1}]",
+				JsonBuilderFactory.diff(JsonBuilderFactory.buildObject().add("Aa", 1),
+						JsonBuilderFactory.buildObject().add("BB", 1)).toString());
+		Assert.assertEquals("[{\"op\":\"replace\",\"path\":\"/0\",\"value\":\"BB\"}]", JsonBuilderFactory.diff(
+				JsonBuilderFactory.buildArray().add("Aa").add("x"), JsonBuilderFactory.buildArray().add("BB").add("x"))
+				.toString());
+		check(JsonBuilderFactory.buildArray().addObject().add("Aa", "AaAa").end().add("BBBB"), JsonBuilderFactory
+				.buildArray().addObject().add("BB", "BBBB").end().add("AaBB"));
+	}
+
+	@Test
+	public void testRoot() {
+		Assert.assertEquals("[{\"op\":\"replace\",\"path\":\"\",\"value\":[]}]", JsonBuilderFactory
+				.diff(JsonBuilderFactory.buildObject(), JsonBuilderFactory.buildArray()).toString());
+	}
+
+	@Test
+	public void testArrays() {
+		Random random = new Random(42);
+		for (int test = 0; test < 200; test++) {
+			List<Integer> before = new ArrayList<Integer>();
+			for (int i = random.nextInt(30); i > 0; i--) {
+				before.add(random.nextInt(10));
+			}
+			List<Integer> after = new ArrayList<Integer>(before);
+			for (int i = random.nextInt(8); i > 0; i--) {
+				int index = after.isEmpty() ? 0 : random.nextInt(after.size());
+				switch (random.nextInt(3)) {
+				case 0:
+					after.add(index, random.nextInt(10));
+					break;
+				case 1:
+					if (!after.isEmpty()) {
+						after.remove(index);
+					}
+					break;
+				default:
+					if (!after.isEmpty()) {
+						after.set(index, random.nextInt(10));
+					}
+				}
+			}
+			check(array(before), array(after));
+		}
+	}
+
+	private static JsonArrayBuilder<?, JsonArray> array(List<Integer> values) {
+		JsonArrayBuilder<?, JsonArray> array = JsonBuilderFactory.buildArray();
+		for (int value : values) {
+			if (value < 3) {
+				array.addObject().add("id", value).add("v", value * 2).end();
+			} else {
+				array.add(value);
+			}
+		}
+		return array;
+	}
+
+	@Test
+	public void testLargeArray() {
+		JsonArrayBuilder<?, JsonArray> before = JsonBuilderFactory.buildArray();
+		JsonArrayBuilder<?, JsonArray> after = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < 200000; i++) {
+			before.addObject().add("id", i).add("name", "n" + i).end();
+			if (i % 50000 == 0) {
+				after.add("inserted");
+			}
+			if (i != 1000) {
+				after.addObject().add("id", i).add("name", i == 7 ? "changed" : "n" + i).end();
+			}
+		}
+		Assert.assertEquals("[{\"op\":\"add\",\"path\":\"/0\",\"value\":\"inserted\"},"
+				+ "{\"op\":\"remove\",\"path\":\"/1001\"},"
+				+ "{\"op\":\"add\",\"path\":\"/50000\",\"value\":\"inserted\"},"
+				+ "{\"op\":\"add\",\"path\":\"/100001\",\"value\":\"inserted\"},"
+				+ "{\"op\":\"add\",\"path\":\"/150002\",\"value\":\"inserted\"},"
+				+ "{\"op\":\"replace\",\"path\":\"/8/name\",\"value\":\"changed\"}]",
+				JsonBuilderFactory.diff(before, after).toString());
+	}
+
+	@Test
+	public void testTooManyEdits() {
+		List<Integer> before = new ArrayList<Integer>();
+		List<Integer> after = new ArrayList<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			before.add(i % 10);
+			after.add((i * 7 + 3) % 10);
+		}
+		after.add(1);
+		check(array(before), array(after));
+	}
+}
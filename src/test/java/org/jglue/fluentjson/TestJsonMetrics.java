@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class TestJsonMetrics {
+
+	private final List<String> written = new ArrayList<String>();
+	private final List<Mapper<?>> mapped = new ArrayList<Mapper<?>>();
+
+	private final JsonMetrics metrics = new JsonMetrics() {
+
+		@Override
+		public Object writing() {
+			return "writing";
+		}
+
+		@Override
+		public void written(Object started, Output output, int values, int depth, long length, long nanos) {
+			Assert.assertEquals("writing", started);
+			Assert.assertTrue(nanos >= 0);
+			written.add(output + " " + values + " " + depth + " " + length);
+		}
+
+		@Override
+		public void mapped(Object started, Mapper<?> mapper, long nanos) {
+			Assert.assertNull(started);
+			Assert.assertTrue(nanos >= 0);
+			mapped.add(mapper);
+		}
+	};
+
+	private JsonObjectBuilder<?, JsonObject> document() {
+		return JsonBuilderFactory.buildObject().add("a", "é").addArray("b").add(1).addObject().end().end();
+	}
+
+	@After
+	public void tearDown() {
+		JsonBuilderFactory.setMetrics(null);
+	}
+
+	@Test
+	public void testWritten() throws IOException {
+		JsonBuilderFactory.setMetrics(metrics);
+		JsonObjectBuilder<?, JsonObject> builder = document();
+		builder.toString();
+		builder.write(new StringWriter());
+		builder.write(new ByteArrayOutputStream());
+		builder.getJson();
+		Assert.assertEquals(Arrays.asList("TEXT 5 3 20", "TEXT 5 3 20", "UTF8 5 3 21", "TREE 5 3 -1"), written);
+	}
+
+	@Test
+	public void testMapped() {
+		JsonBuilderFactory.setMetrics(metrics);
+		JsonBuilderFactory.buildArray().add(Mapper.STRING, Arrays.asList("a", "b")).add(Mapper.NUMBER, 1, 2, 3);
+		JsonBuilderFactory.streamArray(new ByteArrayOutputStream()).addAll(Mapper.STRING, Arrays.asList("c")).end();
+		Assert.assertEquals(Arrays.<Mapper<?>> asList(Mapper.STRING, Mapper.STRING, Mapper.NUMBER, Mapper.NUMBER,
+				Mapper.NUMBER, Mapper.STRING), mapped);
+	}
+
+	@Test
+	public void testDisabled() {
+		document().toString();
+		JsonBuilderFactory.buildArray().add(Mapper.STRING, Arrays.asList("a", "b"));
+		Assert.assertTrue(written.isEmpty());
+		Assert.assertTrue(mapped.isEmpty());
+	}
+
+	@Test
+	public void testFlightRecorder() throws IOException {
+		JsonBuilderFactory.setMetrics(JsonMetrics.flightRecorder());
+		Path file = Files.createTempFile("fluentjson", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("fluentjson.Write");
+			recording.enable("fluentjson.MapperInvoke");
+			recording.start();
+			JsonBuilderFactory.buildArray().add(Mapper.STRING, Arrays.asList("a")).toString();
+			recording.stop();
+			recording.dump(file);
+			List<String> names = new ArrayList<String>();
+			for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+				names.add(event.getEventType().getName());
+				Assert.assertFalse(event.hasField("time"));
+				Assert.assertFalse(event.getDuration().isNegative());
+				if (event.getEventType().getName().equals("fluentjson.Write")) {
+					Assert.assertEquals("TEXT", event.getString("output"));
+					Assert.assertEquals(3, event.getInt("values"));
+					Assert.assertEquals(7, event.getLong("length"));
+				}
+			}
+			Assert.assertTrue(names.contains("fluentjson.Write"));
+			Assert.assertTrue(names.contains("fluentjson.MapperInvoke"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testFlightRecorderNotRecording() {
+		JsonMetrics metrics = JsonMetrics.flightRecorder();
+		Assert.assertNull(metrics.writing());
+		Assert.assertNull(metrics.mapping());
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestJsonTemplate {
+
+	private JsonObjectBuilder<?, ?> shape(long id, String name, LocalDate born, double score) {
+		return JsonBuilderFactory.buildObject()
+				.add("id", id)
+				.addObject("user")
+					.add("name", name)
+					.add("born", born)
+					.addArray("scores")
+						.add(score)
+						.add(1)
+						.end()
+					.addObject("empty")
+						.end()
+					.end()
+				.add("at", new Date(0))
+				.addNull("none");
+	}
+
+	@Test
+	public void testDefaults() {
+		JsonTemplate template = JsonTemplate.of(shape(1, "a", LocalDate.of(2000, 1, 1), 0.5));
+		Assert.assertEquals(7, template.size());
+		Assert.assertEquals(shape(1, "a", LocalDate.of(2000, 1, 1), 0.5).toString(), template.newValues().toString());
+	}
+
+	@Test
+	public void testFill() {
+		JsonTemplate template = JsonTemplate.of(shape(1, "a", LocalDate.of(2000, 1, 1), 0.5));
+		int id = template.slot("id");
+		int name = template.slot("user", "name");
+		int born = template.slot("user", "born");
+		int score = template.slot("user", "scores", 0);
+		JsonTemplate.Values values = template.newValues().set(id, 42).set(name, "\"Bryn\" é")
+				.set(born, LocalDate.of(1999, 12, 31)).set(score, 2.25);
+		String expected = shape(42, "\"Bryn\" é", LocalDate.of(1999, 12, 31), 2.25).toString();
+		Assert.assertEquals(expected, values.toString());
+
+		ByteBuffer buffer = ByteBuffer.allocate(1000);
+		values.write(buffer);
+		Assert.assertEquals(expected, new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+
+		values.setNull(name);
+		Assert.assertTrue(values.toString().contains("{\"name\":null,"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingSlot() {
+		JsonTemplate.of(shape(1, "a", null, 0)).slot("user");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStreamingShape() {
+		JsonTemplate.of(JsonBuilderFactory.streamObject(new StringWriter()).add("id", 1));
+	}
+
+	@Test
+	public void testArrayRoot() {
+		JsonTemplate template = JsonTemplate.of(JsonBuilderFactory.buildArray().add(1).addArray().add("x").end());
+		Assert.assertEquals("[2,[\"y\"]]", template.newValues().set(template.slot(0), 2).set(template.slot(1, 0), "y")
+				.toString());
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonArray;
+
+public class TestSpillBuffer {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private void fill(JsonArrayBuilder<?, ?> builder) {
+		for (int i = 0; i < 2000; i++) {
+			builder.addObject().add("id", i).add("name", "é" + i).end();
+		}
+		builder.end();
+	}
+
+	private String expected() {
+		JsonArrayBuilder<?, JsonArray> builder = JsonBuilderFactory.buildArray();
+		fill(builder);
+		return builder.toString();
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+		String expected = expected();
+		for (long limit : new long[] { 0, 1000, 1L << 30 }) {
+			File directory = folder.newFolder("spill" + limit);
+			try (SpillBuffer buffer = SpillBuffer.create(limit, directory.toPath())) {
+				fill(buffer.buildArray());
+				Assert.assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, buffer.size());
+				for (int i = 0; i < 2; i++) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					buffer.write(out);
+					Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+				}
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				buffer.write(Channels.newChannel(out));
+				Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+			}
+			Assert.assertEquals(0, directory.list().length);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNotEnded() throws IOException {
+		try (SpillBuffer buffer = SpillBuffer.create(1000)) {
+			buffer.buildObject().add("a", 1);
+			buffer.write(new ByteArrayOutputStream());
+		}
+	}
+}
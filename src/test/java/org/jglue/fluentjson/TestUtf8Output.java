@@ -0,0 +1,393 @@
+/*
+ *    Copyright 2013 Bryn Cooke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jglue.fluentjson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class TestUtf8Output {
+
+	private JsonObjectBuilder<?, JsonObject> document() {
+		char[] longString = new char[20000];
+		Arrays.fill(longString, 'a');
+		longString[8190] = 'é';
+		longString[16383] = '\n';
+		return JsonBuilderFactory.buildObject().add("ascii", "hello").add("escapes", "\"\\\t\b\n\r\f\u0001\u001f/")
+				.add("two", "é¢").add("three", "€\u2028\u2029").add("four", "😀").add("lone", "a\uD83Db\uDE00")
+				.add("ké\"y", 1).add("long", Long.MIN_VALUE).add("negative", -42).add("double", 0.1d).add("float", 0.1f)
+				.add("decimal", new BigDecimal("1.50")).add("true", true).addNull("null").add("date", new Date(0))
+				.add("instant", Instant.ofEpochSecond(1, 5000)).add("big", new String(longString))
+				.addLazy("lazy", Mapper.NUMBER, Arrays.<Number> asList(1, 2)).addArray("arr")
+				.add(1).addObject().end().addArray().end().add("x").end();
+	}
+
+	private byte[] expected() {
+		return document().toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testOutputStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		document().write(out);
+		Assert.assertArrayEquals(expected(), out.toByteArray());
+	}
+
+	@Test
+	public void testChannel() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		document().write(Channels.newChannel(out));
+		Assert.assertArrayEquals(expected(), out.toByteArray());
+	}
+
+	@Test
+	public void testBuffers() throws IOException {
+		byte[] expected = expected();
+		for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(30000), ByteBuffer.allocateDirect(30000) }) {
+			buffer.position(3);
+			document().write(buffer);
+			Assert.assertEquals(3 + expected.length, buffer.position());
+			byte[] actual = new byte[expected.length];
+			buffer.position(3);
+			buffer.get(actual);
+			Assert.assertArrayEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testBufferOverflow() throws IOException {
+		for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(100), ByteBuffer.allocateDirect(100) }) {
+			buffer.position(3);
+			try {
+				document().write(buffer);
+				Assert.fail();
+			} catch (BufferOverflowException e) {
+				Assert.assertEquals(3, buffer.position());
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNaN() throws IOException {
+		JsonBuilderFactory.buildArray().add(Double.NaN).write(new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void testStream() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonBuilderFactory.streamObject(out).add("k", "ü").addArray("a").add(1).add(2).end().end();
+		Assert.assertEquals("{\"k\":\"ü\",\"a\":[1,2]}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testKeys() throws IOException {
+		JsonKey key = JsonKey.of("ké\"y");
+		Assert.assertSame(key, JsonKey.of("ké\"y"));
+		JsonObjectBuilder<?, JsonObject> builder = JsonBuilderFactory.buildObject().add(key, 1).add("ké\"y", 2)
+				.add(JsonKey.of("a"), "b").addObject(JsonKey.of("o")).addNull(JsonKey.of("n")).end();
+		String expected = "{\"ké\\\"y\":2,\"a\":\"b\",\"o\":{\"n\":null}}";
+		Assert.assertEquals(expected, builder.toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		builder.write(out);
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		out.reset();
+		JsonBuilderFactory.streamObject(out).add(key, 2).add(JsonKey.of("a"), "b").addObject(JsonKey.of("o"))
+				.addNull(JsonKey.of("n")).end().end();
+		Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCachedKeysDontAllocate() throws IOException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		String[] names = new String[200];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "field" + i;
+		}
+		Utf8Sink.ArraySink out = new Utf8Sink.ArraySink(1 << 20);
+		out.beginObject();
+		for (String name : names) {
+			out.name(name);
+			out.value(1L);
+		}
+		long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		for (int i = 0; i < 10000; i++) {
+			out.name(names[i % names.length]);
+			out.value(1L);
+		}
+		long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+		Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+		Assert.assertSame(JsonKey.cached("field0"), JsonKey.cached("field0"));
+		Assert.assertEquals("\"field0\":", new String(JsonKey.cached("field0").utf8, StandardCharsets.UTF_8));
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int n; (n = in.read(buffer)) != -1;) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		for (Compression compression : new Compression[] { Compression.gzip(), Compression.gzip().level(9).bufferSize(64) }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			document().write(out, compression);
+			Assert.assertArrayEquals(expected(), read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+		}
+	}
+
+	@Test
+	public void testDeflate() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		document().write(out, Compression.deflate().level(1).bufferSize(100));
+		Assert.assertArrayEquals(expected(), read(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray()),
+				new Inflater(true))));
+	}
+
+	@Test
+	public void testDeflaterPool() {
+		Deflater deflater = DeflaterPool.acquire(1);
+		DeflaterPool.release(deflater);
+		Assert.assertSame(deflater, DeflaterPool.acquire(9));
+		DeflaterPool.release(deflater);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompressionLevel() {
+		Compression.gzip().level(10);
+	}
+
+	@Test
+	public void testGzipFlush() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Utf8Sink.DeflaterSink sink = new Utf8Sink.DeflaterSink(out, Compression.gzip());
+		JsonArrayBuilder<?, Void> array = JsonStreamBuilder.array(sink).add("first");
+		sink.flush();
+		array.add(JsonBuilderFactory.buildArray().addLazy(Mapper.NUMBER, Arrays.<Number> asList(1, 2))).add("last");
+		sink.flush();
+		array.end();
+		sink.finish();
+		Assert.assertEquals("[\"first\",[[1,2]],\"last\"]", new String(
+				read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testGzipHeaderFailure() {
+		DeflaterPool.release(DeflaterPool.acquire(Deflater.DEFAULT_COMPRESSION));
+		int idle = DeflaterPool.idle();
+		OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("closed");
+			}
+		};
+		try {
+			new Utf8Sink.DeflaterSink(out, Compression.gzip());
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertEquals("closed", e.getMessage());
+		}
+		Assert.assertEquals(idle, DeflaterPool.idle());
+	}
+
+	@Test
+	public void testGzipPending() throws IOException {
+		CompletableFuture<JsonBuilder> pending = new CompletableFuture<JsonBuilder>();
+		List<byte[]> flushed = new ArrayList<byte[]>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.add(toByteArray());
+				pending.complete(JsonBuilderFactory.buildPrimitive(1));
+			}
+		};
+		JsonBuilderFactory.buildArray().add("first").addAsync(pending).write(out, Compression.gzip());
+		byte[] prefix = flushed.get(0);
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(prefix, 10, prefix.length - 10);
+		byte[] inflated = new byte[100];
+		try {
+			int length = inflater.inflate(inflated);
+			Assert.assertEquals("[\"first\"", new String(inflated, 0, length, StandardCharsets.UTF_8));
+		} catch (DataFormatException e) {
+			throw new AssertionError(e);
+		}
+		Assert.assertArrayEquals("[\"first\",1]".getBytes(StandardCharsets.UTF_8),
+				read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+	}
+
+	private static byte[] drain(JsonChunks chunks, int chunkSize) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while (chunks.hasNext()) {
+			ByteBuffer chunk = chunks.next();
+			if (chunks.hasNext()) {
+				Assert.assertEquals(chunkSize, chunk.remaining());
+			}
+			out.write(chunk.array(), chunk.position(), chunk.remaining());
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testChunks() {
+		for (int chunkSize : new int[] { 1, 7, 8192, 100000 }) {
+			Assert.assertArrayEquals(expected(), drain(JsonBuilderFactory.chunks(document(), chunkSize), chunkSize));
+			Assert.assertArrayEquals(expected(),
+					drain(JsonBuilderFactory.chunks(document().freeze(), chunkSize), chunkSize));
+		}
+		Assert.assertArrayEquals("\"é\"".getBytes(StandardCharsets.UTF_8),
+				drain(JsonBuilderFactory.chunks(JsonBuilderFactory.buildPrimitive("é"), 2), 2));
+	}
+
+	@Test
+	public void testChunksOnDemand() {
+		CompletableFuture<JsonBuilder> pending = new CompletableFuture<JsonBuilder>();
+		JsonArrayBuilder<?, ?> builder = JsonBuilderFactory.buildArray();
+		for (int i = 0; i < 10000; i++) {
+			builder.addObject().add("i", i).end();
+		}
+		builder.addAsync(pending);
+		JsonChunks chunks = JsonBuilderFactory.chunks(builder, 16);
+		Assert.assertEquals("[{\"i\":0},{\"i\":1}", StandardCharsets.UTF_8.decode(chunks.next()).toString());
+		pending.complete(JsonBuilderFactory.buildPrimitive(true));
+		Assert.assertArrayEquals(builder.toString().substring(16).getBytes(StandardCharsets.UTF_8), drain(chunks, 16));
+	}
+
+	private static class Recorder implements Flow.Subscriber<ByteBuffer> {
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		Flow.Subscription subscription;
+		int chunks;
+		boolean complete;
+		Throwable error;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(ByteBuffer chunk) {
+			Assert.assertFalse(complete);
+			chunks++;
+			received.write(chunk.array(), chunk.position(), chunk.remaining());
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			this.error = error;
+		}
+
+		@Override
+		public void onComplete() {
+			complete = true;
+		}
+	}
+
+	@Test
+	public void testPublisherDemand() {
+		Recorder recorder = new Recorder();
+		JsonBuilderFactory.publish(document(), 1000).subscribe(recorder);
+		Assert.assertEquals(0, recorder.chunks);
+		recorder.subscription.request(1);
+		Assert.assertEquals(1, recorder.chunks);
+		Assert.assertEquals(1000, recorder.received.size());
+		recorder.subscription.request(2);
+		Assert.assertEquals(3, recorder.chunks);
+		Assert.assertFalse(recorder.complete);
+		recorder.subscription.request(Long.MAX_VALUE);
+		recorder.subscription.request(Long.MAX_VALUE);
+		Assert.assertTrue(recorder.complete);
+		Assert.assertNull(recorder.error);
+		Assert.assertArrayEquals(expected(), recorder.received.toByteArray());
+	}
+
+	@Test
+	public void testPublisherRequestFromOnNext() {
+		Recorder recorder = new Recorder() {
+			@Override
+			public void onNext(ByteBuffer chunk) {
+				super.onNext(chunk);
+				subscription.request(1);
+			}
+		};
+		JsonBuilderFactory.publish(document(), 1).subscribe(recorder);
+		recorder.subscription.request(1);
+		Assert.assertTrue(recorder.complete);
+		Assert.assertArrayEquals(expected(), recorder.received.toByteArray());
+	}
+
+	@Test
+	public void testPublisherCancel() {
+		Recorder recorder = new Recorder() {
+			@Override
+			public void onNext(ByteBuffer chunk) {
+				super.onNext(chunk);
+				if (chunks == 2) {
+					subscription.cancel();
+				}
+			}
+		};
+		JsonBuilderFactory.publish(document(), 100).subscribe(recorder);
+		recorder.subscription.request(Long.MAX_VALUE);
+		recorder.subscription.request(1);
+		Assert.assertEquals(2, recorder.chunks);
+		Assert.assertFalse(recorder.complete);
+		Assert.assertNull(recorder.error);
+	}
+
+	@Test
+	public void testPublisherInvalidDemand() {
+		for (long n : new long[] { 0, -1 }) {
+			Recorder recorder = new Recorder();
+			JsonBuilderFactory.publish(document(), 100).subscribe(recorder);
+			recorder.subscription.request(n);
+			Assert.assertTrue(recorder.error instanceof IllegalArgumentException);
+			recorder.error = null;
+			recorder.subscription.request(1);
+			Assert.assertEquals(0, recorder.chunks);
+			Assert.assertNull(recorder.error);
+			Assert.assertFalse(recorder.complete);
+		}
+	}
+}